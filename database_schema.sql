@@ -91,11 +91,14 @@ CREATE TABLE messages (
     created_at          DATETIME        NOT NULL DEFAULT CURRENT_TIMESTAMP,
     is_deleted          BOOLEAN         NOT NULL DEFAULT FALSE,
     edited_at           DATETIME        NULL,  -- Nếu có sửa tin nhắn
+    client_msg_id       VARCHAR(64)     NULL,  -- Id do ChatClient đặt, lưu lại (retry) không tạo bản trùng
     PRIMARY KEY (id),
+    UNIQUE KEY uk_messages_sender_client_msg (sender_id, client_msg_id),
     KEY idx_messages_conversation_created (conversation_id, created_at),
     KEY idx_messages_sender (sender_id),
     KEY idx_messages_reply_to (reply_to_message_id),
     KEY idx_messages_created_at (created_at),
+    FULLTEXT KEY ft_messages_content (content_text) WITH PARSER ngram,  -- Tìm kiếm tin nhắn (ChatService.searchMessages)
     CONSTRAINT fk_messages_conversation
         FOREIGN KEY (conversation_id) REFERENCES conversations(id)
         ON DELETE CASCADE ON UPDATE CASCADE,
@@ -244,6 +247,14 @@ CREATE TABLE presence_events (
 -- Index cho tìm conversation DIRECT giữa 2 user
 -- (sẽ được tạo trong code khi cần)
 
+-- Full-text index cho tìm kiếm tin nhắn, chạy 1 lần trên DB tạo từ bản schema cũ.
+-- Parser ngram (token 2 ký tự mặc định) để khớp cả từ tiếng Việt ngắn như "ăn", "đi".
+-- ALTER TABLE messages ADD FULLTEXT KEY ft_messages_content (content_text) WITH PARSER ngram;
+
+-- Khoá chống lưu trùng khi client lưu lại tin chưa có ACK (MessageDao.save/saveBatch), chạy 1 lần trên DB cũ.
+-- ALTER TABLE messages ADD COLUMN client_msg_id VARCHAR(64) NULL AFTER edited_at,
+--     ADD UNIQUE KEY uk_messages_sender_client_msg (sender_id, client_msg_id);
+
 -- ========================================
 -- DỮ LIỆU MẪU (tùy chọn)
 -- ========================================
@@ -3,6 +3,8 @@ package org.example.demo2.client;
 import org.example.demo2.config.ServerConfig;
 import org.example.demo2.model.ChatMessage;
 import org.example.demo2.model.Conversation;
+import org.example.demo2.model.MessagePage;
+import org.example.demo2.model.MessageSearchPage;
 import org.example.demo2.model.User;
 import org.example.demo2.service.rmi.*;
 import org.example.demo2.service.rmi.CallService;
@@ -12,6 +14,8 @@ import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Client Service wrapper để tích hợp các RMI service vào UI.
@@ -79,9 +83,17 @@ public class AegisTalkClientService {
         return authService.findById(userId);
     }
 
+    public List<User> getUsers(List<Long> userIds) throws RemoteException {
+        return authService.getUsers(userIds);
+    }
+
     public boolean isOnline(Long userId) throws RemoteException {
         return authService.isOnline(userId);
     }
+
+    public Set<Long> getOnlineUserIds(List<Long> userIds) throws RemoteException {
+        return authService.getOnlineUserIds(userIds);
+    }
     
     // ========== Friend Service ==========
     
@@ -119,6 +131,18 @@ public class AegisTalkClientService {
         return chatService.getMessageHistory(conversationId, limit);
     }
     
+    public MessagePage getMessagesBefore(String conversationId, Long beforeMessageId, int pageSize) throws RemoteException {
+        return chatService.getMessagesBefore(conversationId, beforeMessageId, pageSize);
+    }
+    
+    public MessagePage getMessagesAfter(String conversationId, Long afterMessageId, int pageSize) throws RemoteException {
+        return chatService.getMessagesAfter(conversationId, afterMessageId, pageSize);
+    }
+    
+    public MessageSearchPage searchMessages(String conversationId, String query, String cursor) throws RemoteException {
+        return chatService.searchMessages(conversationId, query, cursor);
+    }
+    
     public List<Conversation> getUserConversations(Long userId) throws RemoteException {
         return chatService.getUserConversations(userId);
     }
@@ -135,6 +159,10 @@ public class AegisTalkClientService {
         return chatService.getLastMessage(conversationId);
     }
     
+    public Map<String, ChatMessage> getLastMessages(List<String> conversationIds) throws RemoteException {
+        return chatService.getLastMessages(conversationIds);
+    }
+    
     public String getUserDisplayName(Long userId) throws RemoteException {
         return chatService.getUserDisplayName(userId);
     }
@@ -0,0 +1,155 @@
+package org.example.demo2.client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * Cache có giới hạn phía client (LRU), thay cho HashMap không giới hạn trong MainChatController.
+ *
+ *  - Giới hạn số phần tử (maxEntries) và tổng "trọng lượng" ước lượng (maxWeight, ví dụ số byte ảnh đã decode)
+ *  - Vượt giới hạn thì bỏ phần tử lâu không dùng nhất, luôn giữ lại phần tử vừa put
+ *  - Thread-safe: userCache được ghi từ thread tải lịch sử, imageCache từ listener tải ảnh
+ *
+ * Không nhận key/value null (giống ConcurrentHashMap trước đây).
+ */
+public final class BoundedCache<K, V> {
+
+    private final String name;
+    private final int maxEntries;
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalWeight;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxWeight tổng trọng lượng tối đa, <= 0 nếu chỉ giới hạn số phần tử
+     * @param weigher   trọng lượng của 1 value, tính 1 lần lúc put
+     */
+    public BoundedCache(String name, int maxEntries, long maxWeight, ToLongFunction<V> weigher) {
+        this.name = name;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    /** Cache chỉ giới hạn số phần tử */
+    public BoundedCache(String name, int maxEntries) {
+        this(name, maxEntries, 0, v -> 0);
+    }
+
+    public V get(K key) {
+        lock.lock();
+        try {
+            Entry<V> entry = entries.get(key);
+            (entry != null ? hits : misses).incrementAndGet();
+            return entry != null ? entry.value : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Có trong cache không (không tính vào hit/miss, không đổi thứ tự LRU) */
+    public boolean containsKey(K key) {
+        lock.lock();
+        try {
+            return entries.containsKey(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        long weight = Math.max(0, weigher.applyAsLong(value));
+        lock.lock();
+        try {
+            Entry<V> old = entries.put(key, new Entry<>(value, weight));
+            if (old != null) {
+                totalWeight -= old.weight;
+            }
+            totalWeight += weight;
+            evictIfNeeded(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void remove(K key) {
+        lock.lock();
+        try {
+            Entry<V> old = entries.remove(key);
+            if (old != null) {
+                totalWeight -= old.weight;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+            totalWeight = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evictIfNeeded(K justAdded) {
+        var it = entries.entrySet().iterator();
+        while (entries.size() > 1 && (entries.size() > maxEntries || (maxWeight > 0 && totalWeight > maxWeight))) {
+            Map.Entry<K, Entry<V>> eldest = it.next();
+            if (eldest.getKey().equals(justAdded)) {
+                break; // chỉ còn phần tử vừa thêm (ảnh lớn hơn cả maxWeight)
+            }
+            totalWeight -= eldest.getValue().weight;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return String.format("%s: entries=%d/%d, weight=%d/%d, hits=%d, misses=%d, hitRate=%.1f%%, evictions=%d",
+                    name, entries.size(), maxEntries, totalWeight, maxWeight, hits.get(), misses.get(),
+                    getHitRate() * 100, evictions.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private record Entry<V>(V value, long weight) {
+    }
+}
@@ -107,11 +107,169 @@ public class ServerConfig {
      */
     public static final int CHAT_PORT = getIntProperty("chat.port", 5555);
     
+    /**
+     * Chế độ TCP Chat Server:
+     * - blocking: ChatServer, mỗi client 1 thread
+     * - nio: NioChatServer, vài I/O loop dùng Selector cho hàng chục nghìn kết nối
+     */
+    public static final String CHAT_SERVER_MODE = getProperty("chat.server.mode", "blocking");
+    
+    /**
+     * Số I/O loop của NioChatServer (mặc định = số core)
+     */
+    public static final int CHAT_IO_THREADS = getIntProperty("chat.io.threads", Runtime.getRuntime().availableProcessors());
+    
+    /**
+     * Số tin tối đa chờ định tuyến trên mỗi lane của NIO server (lane đầy thì ngừng đọc connection đang gửi tới khi lane vơi)
+     */
+    public static final int CHAT_ROUTE_QUEUE_CAPACITY = getIntProperty("chat.route.queue.capacity", 10_000);
+    
+    /**
+     * Loại thread chạy ClientHandler của ChatServer/AegisTalkTCPServer (chế độ blocking):
+     * - platform: thread hệ điều hành như trước
+     * - virtual: virtual thread (Java 21), giữ code blocking nhưng chịu được hàng chục nghìn socket
+     */
+    public static final String CHAT_THREAD_MODE = getProperty("chat.thread.mode", "platform");
+    
+    /**
+     * Số thread ghi dùng chung cho mọi client ở chat.thread.mode=platform
+     * (virtual thread thì mỗi client có writer riêng, không dùng pool này)
+     */
+    public static final int CHAT_WRITER_THREADS = getIntProperty("chat.writer.threads", Math.max(2, Runtime.getRuntime().availableProcessors()));
+    
+    /**
+     * Giao thức ChatClient đề nghị khi bắt tay với ChatServer:
+     * - binary: frame nhị phân gọn (varint id, ordinal enum), server cũ không hỗ trợ thì tự giữ JSON
+     * - json: luôn dùng JSON từng dòng
+     */
+    public static final String CHAT_PROTOCOL = getProperty("chat.protocol", "binary");
+    
+    /**
+     * ChatServer tự lưu tin nhắn vào DB theo batch (client bắt tay "persist" sẽ không gọi RMI saveMessage nữa)
+     */
+    public static final boolean CHAT_PERSIST_ENABLED = Boolean.parseBoolean(getProperty("chat.persist.enabled", "true"));
+    
+    /**
+     * Số tin tối đa trong 1 batch INSERT
+     */
+    public static final int CHAT_PERSIST_BATCH_SIZE = getIntProperty("chat.persist.batch.size", 200);
+    
+    /**
+     * Thời gian tối đa (ms) chờ gom thêm tin trước khi ghi batch
+     */
+    public static final int CHAT_PERSIST_LINGER_MS = getIntProperty("chat.persist.linger.ms", 20);
+    
+    /**
+     * Số tin tối đa chờ lưu; đầy thì server trả NACK để client tự lưu qua RMI
+     */
+    public static final int CHAT_PERSIST_QUEUE_CAPACITY = getIntProperty("chat.persist.queue.capacity", 10_000);
+    
+    /**
+     * Client chờ ACK tối đa (ms) cho tin server lưu, quá hạn thì tự lưu lại qua RMI
+     */
+    public static final int CHAT_PERSIST_ACK_TIMEOUT_MS = getIntProperty("chat.persist.ack.timeout.ms", 60_000);
+    
+    /**
+     * Số conversation tối đa giữ tin mới nhất trong RAM (RecentMessageCache), 0 = tắt cache
+     */
+    public static final int CHAT_HISTORY_CACHE_CONVERSATIONS = getIntProperty("chat.history.cache.conversations", 500);
+    
+    /**
+     * Số tin mới nhất giữ cho mỗi conversation trong cache
+     */
+    public static final int CHAT_HISTORY_CACHE_MESSAGES = getIntProperty("chat.history.cache.messages", 100);
+    
+    /**
+     * Số user tối đa giữ hồ sơ trong RAM (UserCache), 0 = tắt cache
+     */
+    public static final int USER_CACHE_MAX_SIZE = getIntProperty("user.cache.max.size", 10_000);
+    
+    /**
+     * Thời gian sống của 1 hồ sơ trong UserCache (giây)
+     */
+    public static final int USER_CACHE_TTL_SECONDS = getIntProperty("user.cache.ttl.seconds", 300);
+    
+    /**
+     * Số frame tối đa chờ gửi cho mỗi client (ChatServer/AegisTalkTCPServer)
+     */
+    public static final int CHAT_OUTBOUND_CAPACITY = getIntProperty("chat.outbound.capacity", 1024);
+    
+    /**
+     * Cách xử lý khi hàng đợi gửi của 1 client đầy (client mạng chậm):
+     * - drop_oldest: bỏ frame typing/presence cũ nhất, nếu toàn tin thật thì ngắt client
+     * - disconnect: ngắt client ngay
+     * - spill: cho tràn thêm tối đa chat.outbound.spill.bytes rồi mới ngắt
+     */
+    public static final String CHAT_OUTBOUND_POLICY = getProperty("chat.outbound.policy", "drop_oldest");
+    
+    /**
+     * Số byte được phép tràn thêm cho mỗi client ở policy spill
+     */
+    public static final int CHAT_OUTBOUND_SPILL_BYTES = getIntProperty("chat.outbound.spill.bytes", 8 * 1024 * 1024);
+    
+    /**
+     * JDBC URL / tài khoản MySQL dùng cho mọi DAO
+     */
+    public static final String DB_URL = getProperty("db.url",
+            "jdbc:mysql://localhost:3306/aegistalk?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC");
+    public static final String DB_USER = getProperty("db.user", "root");
+    public static final String DB_PASSWORD = getProperty("db.password", "1234");
+    
+    /**
+     * Số kết nối DB tối đa trong pool (đang mượn cùng lúc)
+     */
+    public static final int DB_POOL_MAX_SIZE = getIntProperty("db.pool.max.size", 10);
+    
+    /**
+     * Số kết nối idle giữ lại khi dọn kết nối không dùng
+     */
+    public static final int DB_POOL_MIN_IDLE = getIntProperty("db.pool.min.idle", 2);
+    
+    /**
+     * Thời gian tối đa (ms) chờ mượn kết nối khi pool đã hết
+     */
+    public static final int DB_POOL_CONNECTION_TIMEOUT_MS = getIntProperty("db.pool.connection.timeout.ms", 30_000);
+    
+    /**
+     * Kết nối idle quá thời gian này (ms) thì bị đóng (vẫn giữ db.pool.min.idle kết nối)
+     */
+    public static final int DB_POOL_IDLE_TIMEOUT_MS = getIntProperty("db.pool.idle.timeout.ms", 600_000);
+    
+    /**
+     * Tuổi thọ tối đa (ms) của 1 kết nối, nên nhỏ hơn wait_timeout của MySQL (0 = không giới hạn)
+     */
+    public static final int DB_POOL_MAX_LIFETIME_MS = getIntProperty("db.pool.max.lifetime.ms", 1_800_000);
+    
+    /**
+     * Kết nối idle lâu hơn thời gian này (ms) được kiểm tra isValid() trước khi cho mượn
+     */
+    public static final int DB_POOL_VALIDATION_IDLE_MS = getIntProperty("db.pool.validation.idle.ms", 5_000);
+    
+    /**
+     * Cảnh báo rò rỉ khi 1 kết nối bị giữ quá thời gian này (ms), 0 = tắt
+     */
+    public static final int DB_POOL_LEAK_THRESHOLD_MS = getIntProperty("db.pool.leak.threshold.ms", 60_000);
+    
+    /**
+     * Chụp stack trace mỗi lần mượn kết nối để cảnh báo rò rỉ chỉ ra nơi mượn (chỉ bật khi debug)
+     */
+    public static final boolean DB_POOL_LEAK_TRACE = Boolean.parseBoolean(getProperty("db.pool.leak.trace", "false"));
+    
+    /**
+     * Số PreparedStatement cache trên mỗi kết nối (0 = tắt, khi bật sẽ dùng server-side prepare)
+     */
+    public static final int DB_POOL_STATEMENT_CACHE_SIZE = getIntProperty("db.pool.statement.cache.size", 64);
+    
     /**
      * Port cho UDP Video Stream Server
      */
     public static final int VIDEO_STREAM_PORT = getIntProperty("video.port", 8888);
     
+    /**
+     * Số worker relay UDP video/audio (mỗi worker 1 socket SO_REUSEPORT), mặc định = số core
+     */
+    public static final int VIDEO_RELAY_WORKERS = getIntProperty("video.relay.workers", Runtime.getRuntime().availableProcessors());
+    
     /**
      * Port cho RMI Moderation Service
      */
@@ -122,6 +280,21 @@ public class ServerConfig {
      */
     public static final int FILE_SERVER_PORT = getIntProperty("file.port", 8081);
     
+    /**
+     * Client: số hồ sơ user tối đa giữ trong MainChatController
+     */
+    public static final int CLIENT_USER_CACHE_SIZE = getIntProperty("client.user.cache.size", 2_000);
+    
+    /**
+     * Client: số ảnh (avatar, preview ảnh trong chat) tối đa giữ đã decode
+     */
+    public static final int CLIENT_IMAGE_CACHE_SIZE = getIntProperty("client.image.cache.size", 500);
+    
+    /**
+     * Client: tổng dung lượng ước lượng (MB, 4 byte/pixel) của các ảnh đã decode trong cache
+     */
+    public static final int CLIENT_IMAGE_CACHE_MB = getIntProperty("client.image.cache.mb", 64);
+    
     /**
      * RMI URL cho Moderation Service
      */
@@ -146,6 +319,10 @@ public class ServerConfig {
         System.out.println("║ Server Host     : " + padRight(SERVER_HOST, 19) + "║");
         System.out.println("║ RMI Port        : " + padRight(String.valueOf(RMI_PORT), 19) + "║");
         System.out.println("║ Chat Port       : " + padRight(String.valueOf(CHAT_PORT), 19) + "║");
+        System.out.println("║ Chat Mode       : " + padRight(CHAT_SERVER_MODE, 19) + "║");
+        System.out.println("║ Chat Threads    : " + padRight(CHAT_THREAD_MODE, 19) + "║");
+        System.out.println("║ Chat Outbound   : " + padRight(CHAT_OUTBOUND_CAPACITY + " " + CHAT_OUTBOUND_POLICY, 19) + "║");
+        System.out.println("║ DB Pool Size    : " + padRight(String.valueOf(DB_POOL_MAX_SIZE), 19) + "║");
         System.out.println("║ Video Port      : " + padRight(String.valueOf(VIDEO_STREAM_PORT), 19) + "║");
         System.out.println("║ Moderation Port : " + padRight(String.valueOf(MODERATION_PORT), 19) + "║");
         System.out.println("║ File Server Port: " + padRight(String.valueOf(FILE_SERVER_PORT), 19) + "║");
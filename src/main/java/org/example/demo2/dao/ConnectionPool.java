@@ -0,0 +1,485 @@
+package org.example.demo2.dao;
+
+import org.example.demo2.config.ServerConfig;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Pool kết nối JDBC dùng chung cho mọi DAO (qua DBTest.getConnection()), thay cho
+ * DriverManager.getConnection mở 1 kết nối MySQL mới (handshake + auth) cho mỗi câu query.
+ *
+ *  - Tối đa maxSize kết nối đang mượn cùng lúc, chờ quá connectionTimeout thì báo lỗi
+ *  - Connection trả về là proxy: close() đưa kết nối thật về pool (rollback + bật lại autoCommit nếu cần)
+ *  - Kết nối nằm idle quá validationIdle thì kiểm tra isValid() trước khi cho mượn lại
+ *  - Thread housekeeper đóng kết nối idle quá idleTimeout (giữ lại minIdle), quá maxLifetime,
+ *    và in cảnh báo (thread đang giữ) nếu 1 kết nối bị giữ quá leakThreshold; stack trace nơi mượn
+ *    chỉ được chụp khi bật leakTrace vì tạo Exception mỗi lần mượn là đắt trên đường DB nóng nhất
+ *  - Mỗi kết nối có StatementCache: prepareStatement cùng câu SQL dùng lại statement đã prepare
+ *    (bật useServerPrepStmts để MySQL parse 1 lần/kết nối thay vì mỗi lần execute)
+ *  - Số liệu: active, idle, thời gian chờ mượn (trung bình / lớn nhất), số lần hết thời gian chờ,
+ *    hit/miss của statement cache
+ */
+public class ConnectionPool implements DataSource {
+
+    private static volatile ConnectionPool instance;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final int minIdle;
+    private final long connectionTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long maxLifetimeMillis;
+    private final long validationIdleMillis;
+    private final long leakThresholdMillis;
+    private final boolean leakTrace;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    // LIFO: kết nối vừa trả được dùng lại trước, kết nối lâu không dùng nằm cuối để housekeeper đóng
+    private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong waitNanosTotal = new AtomicLong();
+    private final AtomicLong waitNanosMax = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    public ConnectionPool(String url, String user, String password, int maxSize, int minIdle,
+                          long connectionTimeoutMillis, long idleTimeoutMillis, long maxLifetimeMillis,
+                          long validationIdleMillis, long leakThresholdMillis, boolean leakTrace,
+                          int statementCacheSize) {
+        this.statementCacheSize = Math.max(0, statementCacheSize);
+        this.url = this.statementCacheSize > 0 ? withServerPrepare(url) : url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = Math.max(1, maxSize);
+        this.minIdle = Math.max(0, Math.min(minIdle, this.maxSize));
+        this.connectionTimeoutMillis = Math.max(0, connectionTimeoutMillis);
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.validationIdleMillis = Math.max(0, validationIdleMillis);
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.leakTrace = leakThresholdMillis > 0 && leakTrace;
+        this.permits = new Semaphore(this.maxSize, true);
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "DBPool-Housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, 30, 30, TimeUnit.SECONDS);
+    }
+
+    /** Pool theo cấu hình db.*, tạo khi có DAO đầu tiên cần kết nối */
+    public static ConnectionPool getInstance() {
+        ConnectionPool pool = instance;
+        if (pool == null) {
+            synchronized (ConnectionPool.class) {
+                pool = instance;
+                if (pool == null) {
+                    pool = new ConnectionPool(
+                            ServerConfig.DB_URL,
+                            ServerConfig.DB_USER,
+                            ServerConfig.DB_PASSWORD,
+                            ServerConfig.DB_POOL_MAX_SIZE,
+                            ServerConfig.DB_POOL_MIN_IDLE,
+                            ServerConfig.DB_POOL_CONNECTION_TIMEOUT_MS,
+                            ServerConfig.DB_POOL_IDLE_TIMEOUT_MS,
+                            ServerConfig.DB_POOL_MAX_LIFETIME_MS,
+                            ServerConfig.DB_POOL_VALIDATION_IDLE_MS,
+                            ServerConfig.DB_POOL_LEAK_THRESHOLD_MS,
+                            ServerConfig.DB_POOL_LEAK_TRACE,
+                            ServerConfig.DB_POOL_STATEMENT_CACHE_SIZE
+                    );
+                    instance = pool;
+                    System.out.println("[ConnectionPool] Created (max=" + pool.maxSize + ", minIdle=" + pool.minIdle
+                            + ", timeout=" + pool.connectionTimeoutMillis + "ms, statementCache="
+                            + pool.statementCacheSize + ")");
+                }
+            }
+        }
+        return pool;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(connectionTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLTransientConnectionException("Timed out after " + connectionTimeoutMillis
+                        + "ms waiting for a DB connection (" + this + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a DB connection", e);
+        }
+        try {
+            PooledConnection pc = takeIdle();
+            if (pc == null) {
+                pc = open();
+            }
+            recordWait(System.nanoTime() - start);
+            pc.borrowedAt = System.currentTimeMillis();
+            pc.borrowThread = Thread.currentThread();
+            pc.borrowTrace = leakTrace ? new Exception("Connection borrowed here") : null;
+            pc.leakReported = false;
+            borrowed.add(pc);
+            return pc.newHandle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Statement cache chỉ có lợi khi MySQL prepare phía server (mặc định Connector/J chỉ thay tham số
+     * phía client và gửi lại cả câu SQL mỗi lần), nên bật useServerPrepStmts nếu URL chưa cấu hình.
+     */
+    private static String withServerPrepare(String url) {
+        if (url.contains("useServerPrepStmts")) {
+            return url;
+        }
+        return url + (url.contains("?") ? "&" : "?") + "useServerPrepStmts=true";
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Pool uses the configured db.user");
+    }
+
+    /** Lấy kết nối idle còn dùng được, bỏ các kết nối hết hạn/hỏng */
+    private PooledConnection takeIdle() {
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            long now = System.currentTimeMillis();
+            if (isExpired(pc, now)) {
+                destroy(pc, "expired");
+                continue;
+            }
+            if (now - pc.lastUsedAt >= validationIdleMillis && !isAlive(pc)) {
+                destroy(pc, "failed validation");
+                continue;
+            }
+            return pc;
+        }
+        return null;
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection raw = DriverManager.getConnection(url, user, password);
+        created.incrementAndGet();
+        return new PooledConnection(raw);
+    }
+
+    private boolean isAlive(PooledConnection pc) {
+        try {
+            return pc.raw.isValid(5);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private boolean isExpired(PooledConnection pc, long now) {
+        return maxLifetimeMillis > 0 && now - pc.createdAt >= maxLifetimeMillis;
+    }
+
+    /** Gọi khi DAO close() proxy: dọn trạng thái giao dịch rồi trả kết nối thật về pool */
+    private void release(PooledConnection pc) {
+        borrowed.remove(pc);
+        pc.borrowThread = null;
+        pc.borrowTrace = null;
+        try {
+            if (pc.statements != null) {
+                pc.statements.releaseAll();
+            }
+            boolean reusable = !closed && !pc.raw.isClosed();
+            if (reusable && !pc.raw.getAutoCommit()) {
+                // DAO quên commit/rollback (hoặc lỗi giữa chừng): không để giao dịch dở dang sang người mượn sau
+                pc.raw.rollback();
+                pc.raw.setAutoCommit(true);
+            }
+            if (reusable && pc.readOnlyChanged) {
+                pc.raw.setReadOnly(false);
+                pc.readOnlyChanged = false;
+            }
+            if (reusable && !isExpired(pc, System.currentTimeMillis())) {
+                pc.lastUsedAt = System.currentTimeMillis();
+                idle.offerFirst(pc);
+            } else {
+                destroy(pc, closed ? "pool closed" : "expired");
+            }
+        } catch (SQLException e) {
+            destroy(pc, "reset failed: " + e.getMessage());
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void destroy(PooledConnection pc, String reason) {
+        destroyed.incrementAndGet();
+        try {
+            pc.raw.close();
+        } catch (SQLException e) {
+            System.err.println("[ConnectionPool] Error closing connection (" + reason + "): " + e.getMessage());
+        }
+    }
+
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+            // Đóng kết nối idle lâu nhất (cuối deque) khi đang có nhiều hơn minIdle
+            int idleCount = idle.size();
+            for (PooledConnection pc : idle) {
+                boolean tooOld = isExpired(pc, now);
+                boolean idleTooLong = idleTimeoutMillis > 0 && idleCount > minIdle && now - pc.lastUsedAt >= idleTimeoutMillis;
+                if ((tooOld || idleTooLong) && idle.remove(pc)) {
+                    idleCount--;
+                    destroy(pc, tooOld ? "max lifetime" : "idle timeout");
+                }
+            }
+            if (leakThresholdMillis > 0) {
+                for (PooledConnection pc : borrowed) {
+                    Thread holder = pc.borrowThread;
+                    if (!pc.leakReported && holder != null && now - pc.borrowedAt >= leakThresholdMillis) {
+                        pc.leakReported = true;
+                        leaks.incrementAndGet();
+                        Exception trace = pc.borrowTrace;
+                        System.err.println("[ConnectionPool] Possible connection leak: held for "
+                                + (now - pc.borrowedAt) + "ms by thread " + holder.getName()
+                                + (trace == null ? " (set db.pool.leak.trace=true to log where it was borrowed)" : ""));
+                        if (trace != null) {
+                            trace.printStackTrace();
+                        }
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("[ConnectionPool] Housekeeping error: " + e.getMessage());
+        }
+    }
+
+    private void recordWait(long nanos) {
+        borrows.incrementAndGet();
+        waitNanosTotal.addAndGet(nanos);
+        waitNanosMax.accumulateAndGet(nanos, Math::max);
+    }
+
+    /** Đóng pool: kết nối idle đóng ngay, kết nối đang mượn đóng khi được trả */
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            destroy(pc, "pool closed");
+        }
+    }
+
+    public int getActiveConnections() {
+        return borrowed.size();
+    }
+
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /** Số thread đang chờ mượn kết nối */
+    public int getPendingThreads() {
+        return permits.getQueueLength();
+    }
+
+    public double getAverageWaitMillis() {
+        long n = borrows.get();
+        return n == 0 ? 0 : waitNanosTotal.get() / 1_000_000.0 / n;
+    }
+
+    public double getMaxWaitMillis() {
+        return waitNanosMax.get() / 1_000_000.0;
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public long getStatementCacheHits() {
+        return statementHits.get();
+    }
+
+    public long getStatementCacheMisses() {
+        return statementMisses.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("active=%d, idle=%d, waiting=%d, max=%d, created=%d, destroyed=%d, borrows=%d, "
+                        + "avgWait=%.2fms, maxWait=%.2fms, timeouts=%d, leaks=%d, stmtHits=%d, stmtMisses=%d",
+                getActiveConnections(), getIdleConnections(), getPendingThreads(), maxSize, created.get(),
+                destroyed.get(), borrows.get(), getAverageWaitMillis(), getMaxWaitMillis(), timeouts.get(), leaks.get(),
+                statementHits.get(), statementMisses.get());
+    }
+
+    // ===== DataSource =====
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return DriverManager.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        DriverManager.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        DriverManager.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return DriverManager.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /** Kết nối thật cùng trạng thái của nó trong pool */
+    private final class PooledConnection {
+        final Connection raw;
+        final long createdAt = System.currentTimeMillis();
+        volatile long lastUsedAt = createdAt;
+        volatile long borrowedAt;
+        volatile Thread borrowThread;
+        volatile Exception borrowTrace;
+        volatile boolean leakReported;
+        boolean readOnlyChanged;
+        // null khi db.pool.statement.cache.size=0
+        final StatementCache statements;
+
+        PooledConnection(Connection raw) {
+            this.raw = raw;
+            this.statements = statementCacheSize > 0
+                    ? new StatementCache(statementCacheSize, statementHits, statementMisses)
+                    : null;
+        }
+
+        /** Mỗi lần mượn là 1 proxy mới: proxy cũ đã close() không dùng lại được kết nối này */
+        Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    new Handle(this));
+        }
+    }
+
+    private final class Handle implements InvocationHandler {
+        private final PooledConnection pc;
+        private boolean released;
+
+        Handle(PooledConnection pc) {
+            this.pc = pc;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (!released) {
+                        released = true;
+                        release(pc);
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return released || pc.raw.isClosed();
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "Pooled[" + pc.raw + "]";
+                }
+                case "unwrap", "isWrapperFor" -> {
+                    if (args[0] == Connection.class || ((Class<?>) args[0]).isInstance(pc.raw)) {
+                        return method.getName().equals("unwrap") ? pc.raw : Boolean.TRUE;
+                    }
+                }
+                case "setReadOnly" -> pc.readOnlyChanged = true;
+                case "prepareStatement" -> {
+                    if (!released && pc.statements != null) {
+                        Class<?>[] types = method.getParameterTypes();
+                        if (types.length == 1) {
+                            return pc.statements.prepare(pc.raw, (Connection) proxy, (String) args[0], -1);
+                        }
+                        if (types.length == 2 && types[1] == int.class) {
+                            return pc.statements.prepare(pc.raw, (Connection) proxy, (String) args[0], (Integer) args[1]);
+                        }
+                    }
+                }
+                default -> {
+                }
+            }
+            if (released) {
+                throw new SQLException("Connection is closed (returned to pool)");
+            }
+            try {
+                return method.invoke(pc.raw, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
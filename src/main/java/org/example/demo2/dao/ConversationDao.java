@@ -16,8 +16,14 @@ public class ConversationDao {
      * Tìm conversation theo ID.
      */
     public Conversation findById(Long id) throws SQLException {
-        try (Connection conn = org.example.demo2.ui.DBTest.getConnection();
-             PreparedStatement st = conn.prepareStatement(
+        try (Connection conn = org.example.demo2.ui.DBTest.getConnection()) {
+            return findById(conn, id);
+        }
+    }
+    
+    /** Tìm conversation trên kết nối đang mượn (không mượn thêm kết nối thứ 2 từ pool) */
+    private Conversation findById(Connection conn, Long id) throws SQLException {
+        try (PreparedStatement st = conn.prepareStatement(
                      "SELECT id, type, title, created_by, last_message_id, extra_settings " +
                      "FROM conversations WHERE id=?")) {
             st.setLong(1, id);
@@ -51,8 +57,8 @@ public class ConversationDao {
             ResultSet rs = st.getGeneratedKeys();
             if (rs.next()) {
                 Long id = rs.getLong(1);
-                // Lấy lại conversation với đầy đủ thông tin
-                return findById(id);
+                // Lấy lại conversation với đầy đủ thông tin, trên cùng kết nối
+                return findById(conn, id);
             }
             return null;
         }
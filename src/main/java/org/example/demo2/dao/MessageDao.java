@@ -1,11 +1,18 @@
 package org.example.demo2.dao;
 
 import org.example.demo2.model.ChatMessage;
+import org.example.demo2.model.MessagePage;
+import org.example.demo2.model.MessageSearchPage;
 import org.example.demo2.model.MessageType;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 /**
  * DAO cho quản lý ChatMessage trong database.
@@ -13,145 +20,514 @@ import java.util.List;
  */
 public class MessageDao {
     
+    // INSERT IGNORE: dòng trùng (sender_id, client_msg_id) không được chèn, saveBatch thấy thiếu key thì rollback
+    private static final String INSERT_COLUMNS =
+            "INSERT IGNORE INTO messages(conversation_id, sender_id, type, content_text, content_payload, created_at, client_msg_id) VALUES ";
+    // 1 dòng: trùng (sender_id, client_msg_id) thì trả về id của dòng đã có thay vì chèn thêm
+    private static final String INSERT_ONE =
+            "INSERT INTO messages(conversation_id, sender_id, type, content_text, content_payload, created_at, client_msg_id) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE id=LAST_INSERT_ID(id)";
+    private static final String VALUES_ROW = "(?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_LAST_MESSAGE =
+            "UPDATE conversations SET last_message_id=GREATEST(COALESCE(last_message_id, 0), ?), updated_at=NOW() WHERE id=?";
+    private static final String HISTORY_COLUMNS =
+            "m.id, m.conversation_id, m.sender_id, m.type, m.content_text, m.content_payload, m.created_at";
+    
+    /** Số tin tối đa mỗi trang lịch sử, tránh 1 lần gọi RMI trả về payload khổng lồ */
+    public static final int MAX_PAGE_SIZE = 200;
+    private static final int MAX_SEARCH_TERMS = 10;
+    /** Trang nhỏ hơn (tin cuối cho danh sách liên hệ) chỉ đọc đúng số dòng cần, không nạp RecentMessageCache */
+    private static final int MIN_CACHE_FILL_PAGE_SIZE = 20;
+    /** Số conversation tối đa trong 1 mệnh đề IN (danh sách dài chia thành nhiều câu) */
+    private static final int MAX_IN_IDS = 500;
+    
+    // ID user "system" (sender của tin hệ thống), null = chưa tra
+    private static volatile Long systemUserId;
+    
     /**
      * Lưu tin nhắn và trả về ID của message vừa tạo.
+     * INSERT + cập nhật last_message_id chạy trong 1 transaction trên cùng 1 kết nối.
+     * Idempotent theo (sender, clientMsgId): lưu lại 1 tin đã có (retry sau NACK/mất kết nối) trả về ID cũ.
      */
     public Long save(ChatMessage message) throws SQLException {
-        try (Connection conn = org.example.demo2.ui.DBTest.getConnection();
-             PreparedStatement st = conn.prepareStatement(
-                     "INSERT INTO messages(conversation_id, sender_id, type, content_text, content_payload, created_at) " +
-                     "VALUES (?, ?, ?, ?, ?, ?)",
-                     Statement.RETURN_GENERATED_KEYS)) {
-            st.setLong(1, Long.parseLong(message.room())); // conversation_id
-            
-            // Xử lý sender_id: nếu là "System" thì dùng NULL hoặc user đặc biệt
-            // Nếu là user ID (số) thì parse, nếu không thì tìm user từ display_name
-            Long senderId = null;
-            if ("System".equals(message.from())) {
-                // System message: có thể dùng NULL hoặc user đặc biệt
-                // Tạm thời dùng NULL (cần sửa schema để cho phép NULL)
-                // Hoặc tìm user có username = "system"
-                try {
-                    org.example.demo2.dao.UserDao userDao = new org.example.demo2.dao.UserDao();
-                    org.example.demo2.model.User systemUser = userDao.findByUsername("system");
-                    if (systemUser != null) {
-                        senderId = systemUser.id();
-                    } else {
-                        // Nếu không có system user, dùng user đầu tiên (tạm thời)
-                        // Hoặc để NULL nếu schema cho phép
-                        senderId = 1L; // Tạm thời
+        long conversationId = Long.parseLong(message.room());
+        long senderId;
+        Long messageId = null;
+        try (Connection conn = org.example.demo2.ui.DBTest.getConnection()) {
+            senderId = resolveSenderId(conn, message);
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement st = conn.prepareStatement(INSERT_ONE, Statement.RETURN_GENERATED_KEYS)) {
+                    bindMessage(st, 1, message, senderId);
+                    st.executeUpdate();
+                    
+                    // Lấy ID vừa tạo (hoặc ID của dòng đã có nhờ LAST_INSERT_ID(id))
+                    try (ResultSet rs = st.getGeneratedKeys()) {
+                        if (rs.next()) {
+                            messageId = rs.getLong(1);
+                        }
                     }
-                } catch (Exception e) {
-                    senderId = 1L; // Fallback
                 }
-            } else {
-                try {
-                    senderId = Long.parseLong(message.from());
-                } catch (NumberFormatException e) {
-                    // Nếu không phải số, tìm user từ display_name
-                    org.example.demo2.dao.UserDao userDao = new org.example.demo2.dao.UserDao();
-                    // Tìm user theo display_name (cần thêm method trong UserDao)
-                    // Tạm thời: giả sử msg.from() luôn là user ID
-                    throw new SQLException("Invalid sender ID: " + message.from());
+                if (messageId == null && message.clientMsgId() != null) {
+                    messageId = findByClientMsgId(conn, senderId, message.clientMsgId());
+                }
+                if (messageId != null) {
+                    // Cập nhật last_message_id trong conversations
+                    try (PreparedStatement st = conn.prepareStatement(UPDATE_LAST_MESSAGE)) {
+                        st.setLong(1, messageId);
+                        st.setLong(2, conversationId);
+                        st.executeUpdate();
+                    }
                 }
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+        if (messageId != null) {
+            RecentMessageCache.getInstance().onSaved(conversationId, messageId, storedMessage(message, senderId));
+        }
+        return messageId;
+    }
+    
+    /**
+     * Lưu nhiều tin nhắn trong 1 transaction: 1 câu INSERT nhiều dòng
+     * + mỗi conversation chỉ 1 lần cập nhật last_message_id.
+     * Lỗi bất kỳ dòng nào thì rollback cả batch, kể cả dòng bị bỏ vì trùng clientMsgId (đã lưu qua RMI):
+     * caller lưu lại từng tin bằng save(), vốn idempotent.
+     *
+     * @return ID các message theo đúng thứ tự đầu vào
+     */
+    public List<Long> saveBatch(List<ChatMessage> messages) throws SQLException {
+        if (messages.isEmpty()) {
+            return List.of();
+        }
+        StringBuilder sql = new StringBuilder(INSERT_COLUMNS);
+        for (int i = 0; i < messages.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append(VALUES_ROW);
+        }
+        
+        long[] senderIds = new long[messages.size()];
+        List<Long> ids = new ArrayList<>(messages.size());
+        try (Connection conn = org.example.demo2.ui.DBTest.getConnection()) {
+            for (int i = 0; i < messages.size(); i++) {
+                senderIds[i] = resolveSenderId(conn, messages.get(i));
             }
-            
-            st.setLong(2, senderId);
-            st.setString(3, message.type().name());
-            st.setString(4, message.text()); // content_text
-            // content_payload: nếu có payloadRef, lưu dưới dạng JSON
-            String payload = message.payloadRef() != null ? "{\"ref\":\"" + message.payloadRef() + "\"}" : null;
-            st.setString(5, payload);
-            st.setTimestamp(6, new Timestamp(message.ts()));
-            
-            // Debug log
-            if (message.type().name().equals("FILE") || message.type().name().equals("IMAGE")) {
-                System.out.println("[MessageDao] Saving " + message.type().name() + " message: payloadRef=" + message.payloadRef() + ", payload=" + payload);
-            }
-            
-            st.executeUpdate();
-            
-            // Lấy ID vừa tạo
-            ResultSet rs = st.getGeneratedKeys();
-            if (rs.next()) {
-                Long messageId = rs.getLong(1);
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement st = conn.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS)) {
+                    int index = 1;
+                    for (int i = 0; i < messages.size(); i++) {
+                        index = bindMessage(st, index, messages.get(i), senderIds[i]);
+                    }
+                    st.executeUpdate();
+                    try (ResultSet rs = st.getGeneratedKeys()) {
+                        while (rs.next()) {
+                            ids.add(rs.getLong(1));
+                        }
+                    }
+                }
+                if (ids.size() != messages.size()) {
+                    throw new SQLException("Expected " + messages.size() + " generated keys, got " + ids.size()
+                            + " (duplicate client_msg_id?)");
+                }
                 
-                // Cập nhật last_message_id trong conversations
-                ConversationDao convDao = new ConversationDao();
-                convDao.updateLastMessage(Long.parseLong(message.room()), messageId);
+                // conversation -> id lớn nhất trong batch
+                Map<Long, Long> lastIds = new LinkedHashMap<>();
+                for (int i = 0; i < messages.size(); i++) {
+                    lastIds.merge(Long.parseLong(messages.get(i).room()), ids.get(i), Math::max);
+                }
+                try (PreparedStatement st = conn.prepareStatement(UPDATE_LAST_MESSAGE)) {
+                    for (Map.Entry<Long, Long> e : lastIds.entrySet()) {
+                        st.setLong(1, e.getValue());
+                        st.setLong(2, e.getKey());
+                        st.addBatch();
+                    }
+                    st.executeBatch();
+                }
                 
-                return messageId;
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
             }
-            return null;
+        }
+        RecentMessageCache cache = RecentMessageCache.getInstance();
+        for (int i = 0; i < messages.size(); i++) {
+            ChatMessage message = messages.get(i);
+            cache.onSaved(Long.parseLong(message.room()), ids.get(i), storedMessage(message, senderIds[i]));
+        }
+        return ids;
+    }
+    
+    /** ID của tin đã lưu với clientMsgId của người gửi, null nếu chưa có */
+    private Long findByClientMsgId(Connection conn, long senderId, String clientMsgId) throws SQLException {
+        try (PreparedStatement st = conn.prepareStatement(
+                "SELECT id FROM messages WHERE sender_id=? AND client_msg_id=?")) {
+            st.setLong(1, senderId);
+            st.setString(2, clientMsgId);
+            try (ResultSet rs = st.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : null;
+            }
+        }
+    }
+    
+    /**
+     * Gán 7 tham số của 1 dòng INSERT bắt đầu từ index, trả về index kế tiếp.
+     */
+    private int bindMessage(PreparedStatement st, int index, ChatMessage message, long senderId) throws SQLException {
+        st.setLong(index, Long.parseLong(message.room())); // conversation_id
+        st.setLong(index + 1, senderId);
+        st.setString(index + 2, message.type().name());
+        st.setString(index + 3, message.text()); // content_text
+        // content_payload: nếu có payloadRef, lưu dưới dạng JSON
+        String payload = message.payloadRef() != null ? "{\"ref\":\"" + message.payloadRef() + "\"}" : null;
+        st.setString(index + 4, payload);
+        st.setTimestamp(index + 5, new Timestamp(storedTs(message.ts())));
+        st.setString(index + 6, message.clientMsgId());
+        
+        // Debug log
+        if (message.type().name().equals("FILE") || message.type().name().equals("IMAGE")) {
+            System.out.println("[MessageDao] Saving " + message.type().name() + " message: payloadRef=" + message.payloadRef() + ", payload=" + payload);
+        }
+        return index + 7;
+    }
+    
+    /**
+     * created_at là DATETIME (không có phần mili giây): tự cắt trước khi ghi để giá trị trong DB
+     * không phụ thuộc cách MySQL làm tròn, và bản trong RecentMessageCache khớp với bản đọc từ DB.
+     */
+    private static long storedTs(long ts) {
+        return ts - Math.floorMod(ts, 1000L);
+    }
+    
+    /** Tin nhắn đúng như getHistory sẽ đọc lại từ DB (from = sender_id, ts theo created_at) */
+    private static ChatMessage storedMessage(ChatMessage message, long senderId) {
+        return new ChatMessage(message.room(), String.valueOf(senderId), message.type(), message.text(),
+                message.payloadRef(), storedTs(message.ts()));
+    }
+    
+    /**
+     * sender_id của message: user ID (số), hoặc user "system" cho tin hệ thống.
+     */
+    private long resolveSenderId(Connection conn, ChatMessage message) throws SQLException {
+        if ("System".equals(message.from())) {
+            return systemUserId(conn);
+        }
+        try {
+            return Long.parseLong(message.from());
+        } catch (NumberFormatException e) {
+            // Tạm thời: giả sử msg.from() luôn là user ID
+            throw new SQLException("Invalid sender ID: " + message.from());
+        }
+    }
+    
+    /**
+     * ID của user có username = "system", tra 1 lần rồi nhớ cho các tin hệ thống sau
+     * (mỗi lần thêm thành viên vào nhóm sinh ra 1 tin hệ thống).
+     * Chưa có user "system" thì dùng user 1 (schema chưa cho phép sender_id NULL).
+     */
+    private static long systemUserId(Connection conn) {
+        Long cached = systemUserId;
+        if (cached != null) {
+            return cached;
+        }
+        try (PreparedStatement st = conn.prepareStatement("SELECT id FROM users WHERE username=?")) {
+            st.setString(1, "system");
+            try (ResultSet rs = st.executeQuery()) {
+                long id = rs.next() ? rs.getLong(1) : 1L; // Tạm thời
+                systemUserId = id;
+                return id;
+            }
+        } catch (SQLException e) {
+            // Lỗi tạm thời: không nhớ kết quả, lần sau tra lại
+            System.err.println("[MessageDao] Cannot look up system user: " + e.getMessage());
+            return 1L; // Fallback
         }
     }
     
     /**
-     * Lấy lịch sử tin nhắn của conversation.
+     * Lấy lịch sử tin nhắn của conversation (limit tin mới nhất, thứ tự cũ -> mới).
      */
     public List<ChatMessage> getHistory(String conversationId, int limit) throws SQLException {
-        List<ChatMessage> messages = new ArrayList<>();
+        return getHistoryBefore(conversationId, null, limit).messages();
+    }
+    
+    /**
+     * Tin mới nhất của conversation (null nếu chưa có): lấy từ RecentMessageCache nếu có, miss thì đọc 1 dòng,
+     * không nạp cache (danh sách liên hệ gọi cho mọi conversation, không được đẩy các conversation đang mở ra khỏi LRU).
+     */
+    public ChatMessage getLastMessage(String conversationId) throws SQLException {
+        List<ChatMessage> messages = getHistoryBefore(conversationId, null, 1).messages();
+        return messages.isEmpty() ? null : messages.get(messages.size() - 1);
+    }
+    
+    /**
+     * Tin mới nhất của nhiều conversation (danh sách liên hệ): 1 câu SELECT cho mỗi MAX_IN_IDS conversation,
+     * nối conversations.last_message_id với messages theo khóa chính, không đọc/nạp RecentMessageCache.
+     *
+     * @return conversationId -> tin mới nhất; conversation chưa có tin nhắn thì không có trong map
+     */
+    public Map<String, ChatMessage> getLastMessages(Collection<String> conversationIds) throws SQLException {
+        List<Long> unique = new ArrayList<>(new LinkedHashSet<>(conversationIds.stream().map(Long::parseLong).toList()));
+        Map<String, ChatMessage> found = new HashMap<>();
+        if (unique.isEmpty()) {
+            return found;
+        }
+        try (Connection conn = org.example.demo2.ui.DBTest.getConnection()) {
+            for (int from = 0; from < unique.size(); from += MAX_IN_IDS) {
+                List<Long> chunk = unique.subList(from, Math.min(unique.size(), from + MAX_IN_IDS));
+                StringBuilder sql = new StringBuilder(
+                        "SELECT " + HISTORY_COLUMNS + " FROM conversations c " +
+                        "JOIN messages m ON m.id = c.last_message_id AND m.is_deleted=FALSE " +
+                        "WHERE c.id IN (");
+                for (int i = 0; i < chunk.size(); i++) {
+                    sql.append(i == 0 ? "?" : ", ?");
+                }
+                sql.append(')');
+                try (PreparedStatement st = conn.prepareStatement(sql.toString())) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        st.setLong(i + 1, chunk.get(i));
+                    }
+                    try (ResultSet rs = st.executeQuery()) {
+                        while (rs.next()) {
+                            ChatMessage message = mapRow(rs);
+                            found.put(message.room(), message);
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+    
+    /**
+     * Trang tin nhắn cũ hơn beforeMessageId (null = trang mới nhất), thứ tự cũ -> mới.
+     *
+     * Phân trang keyset trên (created_at, id) để đi theo idx_messages_conversation_created
+     * (InnoDB tự gắn id vào cuối index): MySQL đọc ngược index từ con trỏ và dừng sau pageSize + 1 dòng,
+     * trang thứ 1000 cũng nhanh như trang đầu (không như OFFSET phải bỏ qua toàn bộ các dòng trước).
+     *
+     * Trang nằm trong K tin mới nhất được trả từ RecentMessageCache; trang mới nhất bị miss thì đọc đủ K tin
+     * để nạp cache cho các lần mở sau (chỉ với trang từ MIN_CACHE_FILL_PAGE_SIZE tin, tức là mở khung chat).
+     */
+    public MessagePage getHistoryBefore(String conversationId, Long beforeMessageId, int pageSize) throws SQLException {
+        long convId = Long.parseLong(conversationId);
+        int limit = clampPageSize(pageSize);
+        RecentMessageCache cache = RecentMessageCache.getInstance();
+        MessagePage cached = cache.page(convId, beforeMessageId, limit);
+        if (cached != null) {
+            return cached;
+        }
+        boolean fill = beforeMessageId == null && cache.isEnabled()
+                && limit >= MIN_CACHE_FILL_PAGE_SIZE && limit <= cache.capacity();
+        long stamp = fill ? cache.stamp(convId) : 0;
+        int fetch = fill ? cache.capacity() : limit;
+        try (Connection conn = org.example.demo2.ui.DBTest.getConnection()) {
+            String cursorFilter = "";
+            Timestamp cursorTime = null;
+            if (beforeMessageId != null) {
+                cursorTime = findCreatedAt(conn, convId, beforeMessageId);
+                if (cursorTime == null) {
+                    return MessagePage.empty();
+                }
+                cursorFilter = "AND (m.created_at < ? OR (m.created_at = ? AND m.id < ?)) ";
+            }
+            // Lấy pageSize + 1 dòng mới nhất trước con trỏ, rồi sắp lại tăng dần ngay trong SQL
+            try (PreparedStatement st = conn.prepareStatement(
+                    "SELECT * FROM (" +
+                    "SELECT " + HISTORY_COLUMNS + " FROM messages m " +
+                    "WHERE m.conversation_id=? AND m.is_deleted=FALSE " + cursorFilter +
+                    "ORDER BY m.created_at DESC, m.id DESC LIMIT ?" +
+                    ") page ORDER BY created_at, id")) {
+                int i = 1;
+                st.setLong(i++, convId);
+                if (cursorTime != null) {
+                    st.setTimestamp(i++, cursorTime);
+                    st.setTimestamp(i++, cursorTime);
+                    st.setLong(i++, beforeMessageId);
+                }
+                st.setInt(i, fetch + 1);
+                Rows rows = readRows(st, fetch, true);
+                if (fill) {
+                    cache.install(convId, stamp, rows.ids(), rows.messages(), rows.hasMore());
+                }
+                return rows.newest(limit);
+            }
+        }
+    }
+    
+    /**
+     * Trang tin nhắn mới hơn afterMessageId (null = từ tin đầu tiên), thứ tự cũ -> mới
+     * (dùng để tải tiếp sau 1 vị trí, ví dụ kết quả tìm kiếm).
+     */
+    public MessagePage getHistoryAfter(String conversationId, Long afterMessageId, int pageSize) throws SQLException {
+        long convId = Long.parseLong(conversationId);
+        int limit = clampPageSize(pageSize);
+        try (Connection conn = org.example.demo2.ui.DBTest.getConnection()) {
+            String cursorFilter = "";
+            Timestamp cursorTime = null;
+            if (afterMessageId != null) {
+                cursorTime = findCreatedAt(conn, convId, afterMessageId);
+                if (cursorTime == null) {
+                    return MessagePage.empty();
+                }
+                cursorFilter = "AND (m.created_at > ? OR (m.created_at = ? AND m.id > ?)) ";
+            }
+            try (PreparedStatement st = conn.prepareStatement(
+                    "SELECT " + HISTORY_COLUMNS + " FROM messages m " +
+                    "WHERE m.conversation_id=? AND m.is_deleted=FALSE " + cursorFilter +
+                    "ORDER BY m.created_at, m.id LIMIT ?")) {
+                int i = 1;
+                st.setLong(i++, convId);
+                if (cursorTime != null) {
+                    st.setTimestamp(i++, cursorTime);
+                    st.setTimestamp(i++, cursorTime);
+                    st.setLong(i++, afterMessageId);
+                }
+                st.setInt(i, limit + 1);
+                return readRows(st, limit, false).newest(limit);
+            }
+        }
+    }
+    
+    /**
+     * Tìm tin nhắn trong conversation theo FULLTEXT index ft_messages_content (parser ngram),
+     * xếp theo độ liên quan rồi tới tin mới hơn.
+     *
+     * Mọi từ trong query đều phải có (+"từ" trong BOOLEAN MODE), ký tự toán tử của người dùng bị bỏ.
+     * Con trỏ là vị trí trong danh sách đã xếp hạng: điểm liên quan là số thực nên không làm con trỏ
+     * keyset ổn định được, và người dùng hiếm khi xem quá vài trang kết quả.
+     *
+     * @param cursor nextCursor của trang trước, null = trang đầu
+     */
+    public MessageSearchPage search(String conversationId, String query, String cursor, int pageSize) throws SQLException {
+        String against = toBooleanQuery(query);
+        if (against == null) {
+            return MessageSearchPage.empty();
+        }
+        int limit = clampPageSize(pageSize);
+        int offset = parseSearchCursor(cursor);
+        List<ChatMessage> messages = new ArrayList<>(limit + 1);
+        List<Long> ids = new ArrayList<>(limit + 1);
         try (Connection conn = org.example.demo2.ui.DBTest.getConnection();
              PreparedStatement st = conn.prepareStatement(
-                     "SELECT m.id, m.conversation_id, m.sender_id, m.type, m.content_text, m.content_payload, m.created_at, " +
-                     "       u.display_name " +
+                     "SELECT " + HISTORY_COLUMNS + ", MATCH(m.content_text) AGAINST (? IN BOOLEAN MODE) AS score " +
                      "FROM messages m " +
-                     "LEFT JOIN users u ON m.sender_id = u.id " +
                      "WHERE m.conversation_id=? AND m.is_deleted=FALSE " +
-                     "ORDER BY m.created_at DESC LIMIT ?")) {
-            st.setLong(1, Long.parseLong(conversationId));
-            st.setInt(2, limit);
-            ResultSet rs = st.executeQuery();
-            while (rs.next()) {
-                // Luôn dùng sender_id (user ID) trong from field để nhất quán với TCP messages
-                String from = rs.getLong("sender_id") + "";
-                
-                // Parse content_payload nếu có
-                String payloadRef = null;
-                String payloadJson = rs.getString("content_payload");
-                String msgType = rs.getString("type");
-                if (payloadJson != null && payloadJson.contains("\"ref\"")) {
-                    // Extract ref từ JSON - hỗ trợ cả có và không có space sau dấu :
-                    // Format có thể là: {"ref":"value"} hoặc {"ref": "value"}
-                    int refIndex = payloadJson.indexOf("\"ref\"");
-                    if (refIndex >= 0) {
-                        // Tìm dấu : sau "ref"
-                        int colonIndex = payloadJson.indexOf(":", refIndex);
-                        if (colonIndex >= 0) {
-                            // Tìm dấu " mở đầu value (bỏ qua spaces)
-                            int startQuote = payloadJson.indexOf("\"", colonIndex + 1);
-                            if (startQuote >= 0) {
-                                // Tìm dấu " kết thúc value
-                                int endQuote = payloadJson.indexOf("\"", startQuote + 1);
-                                if (endQuote > startQuote) {
-                                    payloadRef = payloadJson.substring(startQuote + 1, endQuote);
-                                }
-                            }
-                        }
-                    }
-                }
-                
-                // Debug log cho FILE/IMAGE messages
-                if ("FILE".equals(msgType) || "IMAGE".equals(msgType)) {
-                    System.out.println("[MessageDao] Loading " + msgType + " message: payloadJson=" + payloadJson + ", payloadRef=" + payloadRef);
+                     "AND MATCH(m.content_text) AGAINST (? IN BOOLEAN MODE) " +
+                     "ORDER BY score DESC, m.id DESC LIMIT ? OFFSET ?")) {
+            st.setString(1, against);
+            st.setLong(2, Long.parseLong(conversationId));
+            st.setString(3, against);
+            st.setInt(4, limit + 1);
+            st.setInt(5, offset);
+            try (ResultSet rs = st.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getLong("id"));
+                    messages.add(mapRow(rs));
                 }
-                
-                messages.add(new ChatMessage(
-                        rs.getLong("conversation_id") + "", // conversation_id
-                        from, // user ID (sender_id)
-                        MessageType.valueOf(rs.getString("type")),
-                        rs.getString("content_text"),
-                        payloadRef,
-                        rs.getTimestamp("created_at").getTime()
-                ));
             }
         }
-        // Đảo ngược để có thứ tự từ cũ đến mới
-        List<ChatMessage> reversed = new ArrayList<>();
-        for (int i = messages.size() - 1; i >= 0; i--) {
-            reversed.add(messages.get(i));
+        String nextCursor = null;
+        if (messages.size() > limit) {
+            messages.remove(limit);
+            ids.remove(limit);
+            nextCursor = String.valueOf(offset + limit);
+        }
+        return new MessageSearchPage(messages, ids, nextCursor);
+    }
+    
+    /** Query người dùng -> biểu thức BOOLEAN MODE, null nếu không còn từ nào để tìm */
+    private static String toBooleanQuery(String query) {
+        if (query == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        int terms = 0;
+        for (String word : query.trim().split("\\s+")) {
+            String term = word.replaceAll("[+\\-<>()~*\"@]", "");
+            if (term.isEmpty()) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append("+\"").append(term).append('"');
+            if (++terms == MAX_SEARCH_TERMS) {
+                break;
+            }
+        }
+        return terms == 0 ? null : sb.toString();
+    }
+    
+    private static int parseSearchCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0;
+        }
+        try {
+            int offset = Integer.parseInt(cursor);
+            if (offset >= 0) {
+                return offset;
+            }
+        } catch (NumberFormatException e) {
+            // rơi xuống lỗi bên dưới
+        }
+        throw new IllegalArgumentException("Invalid search cursor: " + cursor);
+    }
+    
+    private static int clampPageSize(int pageSize) {
+        return Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+    }
+    
+    /** created_at của tin làm con trỏ, null nếu tin không thuộc conversation */
+    private Timestamp findCreatedAt(Connection conn, long conversationId, long messageId) throws SQLException {
+        try (PreparedStatement st = conn.prepareStatement(
+                "SELECT created_at FROM messages WHERE id=? AND conversation_id=?")) {
+            st.setLong(1, messageId);
+            st.setLong(2, conversationId);
+            try (ResultSet rs = st.executeQuery()) {
+                return rs.next() ? rs.getTimestamp(1) : null;
+            }
+        }
+    }
+    
+    /**
+     * Đọc tối đa limit + 1 dòng đã sắp tăng dần; dòng thừa chỉ để biết còn trang tiếp theo.
+     *
+     * @param extraAtStart true khi dòng thừa là dòng cũ nhất (trang before), false khi là dòng mới nhất (trang after)
+     */
+    private Rows readRows(PreparedStatement st, int limit, boolean extraAtStart) throws SQLException {
+        List<ChatMessage> messages = new ArrayList<>(limit + 1);
+        List<Long> ids = new ArrayList<>(limit + 1);
+        try (ResultSet rs = st.executeQuery()) {
+            while (rs.next()) {
+                ids.add(rs.getLong("id"));
+                messages.add(mapRow(rs));
+            }
+        }
+        boolean hasMore = messages.size() > limit;
+        if (hasMore) {
+            int extra = extraAtStart ? 0 : messages.size() - 1;
+            messages.remove(extra);
+            ids.remove(extra);
+        }
+        return new Rows(messages, ids, hasMore);
+    }
+    
+    /** Các dòng đã đọc (thứ tự cũ -> mới) cùng id, trước khi cắt thành MessagePage */
+    private record Rows(List<ChatMessage> messages, List<Long> ids, boolean hasMore) {
+        /** Trang gồm limit tin mới nhất trong số đã đọc */
+        MessagePage newest(int limit) {
+            int size = messages.size();
+            if (size == 0) {
+                return MessagePage.empty();
+            }
+            int from = Math.max(0, size - limit);
+            List<ChatMessage> page = from == 0 ? messages : new ArrayList<>(messages.subList(from, size));
+            return new MessagePage(page, ids.get(from), ids.get(size - 1), hasMore || from > 0);
         }
-        return reversed;
     }
     
     /**
@@ -160,47 +536,49 @@ public class MessageDao {
     public ChatMessage findById(Long messageId) throws SQLException {
         try (Connection conn = org.example.demo2.ui.DBTest.getConnection();
              PreparedStatement st = conn.prepareStatement(
-                     "SELECT m.id, m.conversation_id, m.sender_id, m.type, m.content_text, m.content_payload, m.created_at, " +
-                     "       u.display_name " +
-                     "FROM messages m " +
-                     "LEFT JOIN users u ON m.sender_id = u.id " +
-                     "WHERE m.id=?")) {
+                     "SELECT " + HISTORY_COLUMNS + " FROM messages m WHERE m.id=?")) {
             st.setLong(1, messageId);
-            ResultSet rs = st.executeQuery();
-            if (rs.next()) {
-                // Luôn dùng sender_id (user ID) trong from field
-                String from = rs.getLong("sender_id") + "";
-                
-                String payloadRef = null;
-                String payloadJson = rs.getString("content_payload");
-                if (payloadJson != null && payloadJson.contains("\"ref\"")) {
-                    // Extract ref từ JSON - hỗ trợ cả có và không có space sau dấu :
-                    int refIndex = payloadJson.indexOf("\"ref\"");
-                    if (refIndex >= 0) {
-                        int colonIndex = payloadJson.indexOf(":", refIndex);
-                        if (colonIndex >= 0) {
-                            int startQuote = payloadJson.indexOf("\"", colonIndex + 1);
-                            if (startQuote >= 0) {
-                                int endQuote = payloadJson.indexOf("\"", startQuote + 1);
-                                if (endQuote > startQuote) {
-                                    payloadRef = payloadJson.substring(startQuote + 1, endQuote);
-                                }
-                            }
-                        }
-                    }
-                }
-                
-                return new ChatMessage(
-                        rs.getLong("conversation_id") + "",
-                        from,
-                        MessageType.valueOf(rs.getString("type")),
-                        rs.getString("content_text"),
-                        payloadRef,
-                        rs.getTimestamp("created_at").getTime()
-                );
+            try (ResultSet rs = st.executeQuery()) {
+                return rs.next() ? mapRow(rs) : null;
             }
+        }
+    }
+    
+    private ChatMessage mapRow(ResultSet rs) throws SQLException {
+        return new ChatMessage(
+                rs.getLong("conversation_id") + "", // conversation_id
+                rs.getLong("sender_id") + "",       // luôn dùng sender_id (user ID) để nhất quán với TCP messages
+                MessageType.valueOf(rs.getString("type")),
+                rs.getString("content_text"),
+                extractPayloadRef(rs.getString("content_payload")),
+                rs.getTimestamp("created_at").getTime()
+        );
+    }
+    
+    /**
+     * Lấy "ref" từ content_payload - hỗ trợ cả có và không có space sau dấu :
+     * Format có thể là: {"ref":"value"} hoặc {"ref": "value"}
+     */
+    private static String extractPayloadRef(String payloadJson) {
+        if (payloadJson == null) {
+            return null;
+        }
+        int refIndex = payloadJson.indexOf("\"ref\"");
+        if (refIndex < 0) {
+            return null;
+        }
+        // Tìm dấu : sau "ref"
+        int colonIndex = payloadJson.indexOf(":", refIndex);
+        if (colonIndex < 0) {
+            return null;
+        }
+        // Tìm dấu " mở đầu value (bỏ qua spaces) và dấu " kết thúc value
+        int startQuote = payloadJson.indexOf("\"", colonIndex + 1);
+        if (startQuote < 0) {
             return null;
         }
+        int endQuote = payloadJson.indexOf("\"", startQuote + 1);
+        return endQuote > startQuote ? payloadJson.substring(startQuote + 1, endQuote) : null;
     }
 
     /**
@@ -211,7 +589,9 @@ public class MessageDao {
              PreparedStatement st = conn.prepareStatement(
                      "DELETE FROM messages WHERE conversation_id=?")) {
             st.setLong(1, Long.parseLong(conversationId));
-            return st.executeUpdate() >= 0;
+            boolean ok = st.executeUpdate() >= 0;
+            RecentMessageCache.getInstance().invalidate(Long.parseLong(conversationId));
+            return ok;
         }
     }
 }
@@ -0,0 +1,272 @@
+package org.example.demo2.dao;
+
+import org.example.demo2.config.ServerConfig;
+import org.example.demo2.model.ChatMessage;
+import org.example.demo2.model.MessagePage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache phía server: K tin mới nhất của các conversation đang được mở nhiều (group chat "nóng").
+ *
+ *  - Mỗi conversation 1 ring buffer K tin, sắp theo (ts, id) giống ORDER BY created_at, id của MessageDao
+ *  - Tối đa maxConversations ring, LRU: conversation lâu không ai mở bị bỏ trước
+ *  - Nạp khi đọc lịch sử bị miss (MessageDao đọc K tin rồi install), sau đó ghi xuyên (write-through)
+ *    từ MessageDao.save/saveBatch sau khi commit, nên trang mới nhất không cần chạm MySQL nữa
+ *  - Trang trước 1 con trỏ cũng phục vụ được nếu con trỏ còn nằm trong ring
+ *
+ * Chống nạp dữ liệu cũ: install() chỉ nhận nếu không có lần ghi nào vào conversation (cùng stripe)
+ * kể từ lúc lấy stamp(), vì tin commit giữa chừng có thể không có trong kết quả SELECT.
+ */
+public final class RecentMessageCache {
+
+    private static final RecentMessageCache INSTANCE = new RecentMessageCache(
+            ServerConfig.CHAT_HISTORY_CACHE_CONVERSATIONS,
+            ServerConfig.CHAT_HISTORY_CACHE_MESSAGES
+    );
+
+    private static final int STRIPES = 64;
+
+    private final int maxConversations;
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Long, Ring> rings;
+    // Đếm số lần ghi theo stripe (conversationId), dùng cho stamp()/install()
+    private final AtomicLongArray writeStamps = new AtomicLongArray(STRIPES);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    RecentMessageCache(int maxConversations, int capacity) {
+        this.maxConversations = Math.max(0, maxConversations);
+        this.capacity = Math.max(0, capacity);
+        this.rings = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Ring> eldest) {
+                if (size() > RecentMessageCache.this.maxConversations) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static RecentMessageCache getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return maxConversations > 0 && capacity > 0;
+    }
+
+    /** Số tin giữ cho mỗi conversation */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Trang tin cũ hơn beforeMessageId (null = mới nhất), null nếu cache không trả lời được (miss).
+     */
+    public MessagePage page(long conversationId, Long beforeMessageId, int limit) {
+        if (!isEnabled()) {
+            return null;
+        }
+        lock.lock();
+        try {
+            Ring ring = rings.get(conversationId);
+            MessagePage page = ring != null ? ring.page(beforeMessageId, limit) : null;
+            (page != null ? hits : misses).incrementAndGet();
+            return page;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Gọi trước khi SELECT để nạp cache */
+    public long stamp(long conversationId) {
+        return writeStamps.get(stripe(conversationId));
+    }
+
+    /**
+     * Nạp ring từ kết quả SELECT (thứ tự cũ -> mới, tối đa capacity tin).
+     *
+     * @param olderExists còn tin cũ hơn tin đầu tiên trong DB
+     */
+    public void install(long conversationId, long stamp, List<Long> ids, List<ChatMessage> messages, boolean olderExists) {
+        if (!isEnabled()) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (writeStamps.get(stripe(conversationId)) != stamp) {
+                return; // có tin mới commit trong lúc SELECT, lần đọc sau sẽ nạp lại
+            }
+            Ring ring = new Ring(capacity);
+            int from = Math.max(0, messages.size() - capacity);
+            for (int i = from; i < messages.size(); i++) {
+                ring.add(ids.get(i), messages.get(i));
+            }
+            ring.olderExists = olderExists || from > 0;
+            rings.put(conversationId, ring);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Ghi xuyên sau khi tin đã commit; message phải giống hệt bản MessageDao đọc ra từ DB */
+    public void onSaved(long conversationId, long messageId, ChatMessage message) {
+        if (!isEnabled()) {
+            return;
+        }
+        lock.lock();
+        try {
+            writeStamps.incrementAndGet(stripe(conversationId));
+            Ring ring = rings.get(conversationId);
+            if (ring != null) {
+                ring.add(messageId, message);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Bỏ cache của conversation (xóa tin, sửa tin...) */
+    public void invalidate(long conversationId) {
+        if (!isEnabled()) {
+            return;
+        }
+        lock.lock();
+        try {
+            writeStamps.incrementAndGet(stripe(conversationId));
+            rings.remove(conversationId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int stripe(long conversationId) {
+        return (int) Math.floorMod(conversationId, (long) STRIPES);
+    }
+
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        int size;
+        lock.lock();
+        try {
+            size = rings.size();
+        } finally {
+            lock.unlock();
+        }
+        return String.format("conversations=%d/%d, hits=%d, misses=%d, hitRate=%.1f%%, evictions=%d",
+                size, maxConversations, hits.get(), misses.get(), getHitRate() * 100, evictions.get());
+    }
+
+    /** K tin mới nhất của 1 conversation, sắp tăng dần theo (ts, id). Chỉ truy cập khi giữ lock. */
+    private static final class Ring {
+        private final long[] ids;
+        private final ChatMessage[] messages;
+        private int head;   // vị trí tin cũ nhất
+        private int size;
+        // Trong DB còn tin cũ hơn tin cũ nhất của ring
+        private boolean olderExists;
+
+        Ring(int capacity) {
+            this.ids = new long[capacity];
+            this.messages = new ChatMessage[capacity];
+        }
+
+        private int slot(int index) {
+            return (head + index) % ids.length;
+        }
+
+        /**
+         * Thêm tin, giữ thứ tự; thường là tin mới nhất nên chỉ ghi vào cuối.
+         * Bỏ qua nếu id đã có: install() có thể chạy giữa commit và onSaved() của cùng tin đó
+         * (SELECT đã thấy tin nhưng stamp chưa tăng).
+         */
+        void add(long id, ChatMessage message) {
+            if (contains(id)) {
+                return;
+            }
+            int pos = size;
+            while (pos > 0 && isAfter(slot(pos - 1), id, message.ts())) {
+                pos--;
+            }
+            if (size == ids.length) {
+                if (pos == 0) {
+                    olderExists = true; // cũ hơn cả ring, không giữ
+                    return;
+                }
+                head = slot(1);
+                size--;
+                pos--;
+                olderExists = true;
+            }
+            for (int i = size; i > pos; i--) {
+                ids[slot(i)] = ids[slot(i - 1)];
+                messages[slot(i)] = messages[slot(i - 1)];
+            }
+            ids[slot(pos)] = id;
+            messages[slot(pos)] = message;
+            size++;
+        }
+
+        private boolean contains(long id) {
+            // Tin trùng thường là tin mới nhất nên tìm từ cuối
+            for (int i = size - 1; i >= 0; i--) {
+                if (ids[slot(i)] == id) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isAfter(int slot, long id, long ts) {
+            long slotTs = messages[slot].ts();
+            return slotTs > ts || (slotTs == ts && ids[slot] > id);
+        }
+
+        MessagePage page(Long beforeMessageId, int limit) {
+            int end = size;
+            if (beforeMessageId != null) {
+                end = -1;
+                for (int i = size - 1; i >= 0; i--) {
+                    if (ids[slot(i)] == beforeMessageId) {
+                        end = i;
+                        break;
+                    }
+                }
+                if (end < 0) {
+                    return null;
+                }
+            }
+            int count = Math.min(limit, end);
+            if (count < limit && olderExists) {
+                return null; // thiếu tin, phải đọc DB
+            }
+            if (count == 0) {
+                return MessagePage.empty();
+            }
+            List<ChatMessage> result = new ArrayList<>(count);
+            for (int i = end - count; i < end; i++) {
+                result.add(messages[slot(i)]);
+            }
+            boolean hasMore = end > count || olderExists;
+            return new MessagePage(result, ids[slot(end - count)], ids[slot(end - 1)], hasMore);
+        }
+    }
+}
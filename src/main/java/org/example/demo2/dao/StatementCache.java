@@ -0,0 +1,222 @@
+package org.example.demo2.dao;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache PreparedStatement của 1 kết nối trong ConnectionPool (LRU theo câu SQL).
+ *
+ * DAO vẫn viết try (PreparedStatement st = conn.prepareStatement(sql)) như cũ: lần đầu prepare thật
+ * (với useServerPrepStmts=true là COM_STMT_PREPARE trên MySQL), các lần sau trên cùng kết nối dùng lại
+ * statement đã prepare, close() chỉ xóa tham số và trả statement về cache.
+ *
+ * Không cache: câu SQL dài hơn MAX_SQL_LENGTH (ví dụ INSERT nhiều dòng của saveBatch, mỗi batch 1 câu khác),
+ * statement cùng SQL đang được dùng (prepare lồng nhau), và các biến thể prepareStatement ngoài
+ * (sql) / (sql, autoGeneratedKeys). Statement bị đổi thuộc tính (setMaxRows, setFetchSize...) thì đóng hẳn
+ * khi close() để người mượn sau không thừa hưởng.
+ *
+ * Chỉ 1 thread dùng 1 kết nối tại 1 thời điểm nên class này không cần đồng bộ.
+ */
+final class StatementCache {
+
+    static final int MAX_SQL_LENGTH = 2048;
+
+    private static final Set<String> STATEMENT_SETTERS = Set.of(
+            "setMaxRows", "setLargeMaxRows", "setFetchSize", "setFetchDirection", "setQueryTimeout",
+            "setMaxFieldSize", "setEscapeProcessing", "setCursorName", "setPoolable", "closeOnCompletion"
+    );
+
+    private final Map<String, Entry> entries;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    StatementCache(int capacity, AtomicLong hits, AtomicLong misses) {
+        this.hits = hits;
+        this.misses = misses;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= capacity) {
+                    return false;
+                }
+                Entry entry = eldest.getValue();
+                if (entry.inUse) {
+                    entry.evicted = true;
+                } else {
+                    closeQuietly(entry.raw);
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * prepareStatement qua cache.
+     *
+     * @param owner proxy Connection mà DAO đang giữ (trả về từ getConnection() của statement)
+     * @param autoGeneratedKeys -1 nếu DAO gọi prepareStatement(sql)
+     */
+    PreparedStatement prepare(Connection raw, Connection owner, String sql, int autoGeneratedKeys) throws SQLException {
+        if (sql.length() > MAX_SQL_LENGTH) {
+            return doPrepare(raw, sql, autoGeneratedKeys);
+        }
+        String key = autoGeneratedKeys < 0 ? sql : autoGeneratedKeys + ":" + sql;
+        Entry entry = entries.get(key);
+        if (entry != null && entry.inUse) {
+            // Cùng câu SQL đang mở ở chỗ khác trên kết nối này: prepare riêng, không cache
+            return doPrepare(raw, sql, autoGeneratedKeys);
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            entry = new Entry(doPrepare(raw, sql, autoGeneratedKeys));
+            entries.put(key, entry);
+        }
+        entry.inUse = true;
+        entry.dirty = false;
+        entry.evicted = false;
+        return entry.newHandle(key, owner);
+    }
+
+    /** Gọi khi kết nối được trả về pool: statement DAO quên close() cũng được thu hồi */
+    void releaseAll() {
+        List<Entry> open = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.inUse) {
+                open.add(entry);
+            }
+        }
+        for (Entry entry : open) {
+            entry.handle.released = true;
+            entry.recycle(entry.handle.key);
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private static PreparedStatement doPrepare(Connection raw, String sql, int autoGeneratedKeys) throws SQLException {
+        return autoGeneratedKeys < 0 ? raw.prepareStatement(sql) : raw.prepareStatement(sql, autoGeneratedKeys);
+    }
+
+    private static void closeQuietly(PreparedStatement st) {
+        try {
+            st.close();
+        } catch (SQLException e) {
+            System.err.println("[StatementCache] Error closing statement: " + e.getMessage());
+        }
+    }
+
+    private final class Entry {
+        final PreparedStatement raw;
+        boolean inUse;
+        boolean dirty;
+        boolean evicted;
+        Handle handle;
+
+        Entry(PreparedStatement raw) {
+            this.raw = raw;
+        }
+
+        PreparedStatement newHandle(String key, Connection owner) {
+            handle = new Handle(this, key, owner);
+            return (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class},
+                    handle);
+        }
+
+        /** Trả statement về cache (hoặc đóng hẳn nếu đã bị đẩy khỏi cache / bị đổi thuộc tính) */
+        void recycle(String key) {
+            inUse = false;
+            handle = null;
+            if (evicted || dirty) {
+                if (!evicted) {
+                    entries.remove(key, this);
+                }
+                closeQuietly(raw);
+                return;
+            }
+            try {
+                ResultSet rs = raw.getResultSet();
+                if (rs != null) {
+                    rs.close();
+                }
+                raw.clearParameters();
+                raw.clearBatch();
+            } catch (SQLException e) {
+                entries.remove(key, this);
+                closeQuietly(raw);
+            }
+        }
+    }
+
+    private static final class Handle implements InvocationHandler {
+        private final Entry entry;
+        private final String key;
+        private final Connection owner;
+        private boolean released;
+
+        Handle(Entry entry, String key, Connection owner) {
+            this.entry = entry;
+            this.key = key;
+            this.owner = owner;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close" -> {
+                    if (!released) {
+                        released = true;
+                        entry.recycle(key);
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return released;
+                }
+                case "getConnection" -> {
+                    return owner;
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "Cached[" + entry.raw + "]";
+                }
+                default -> {
+                    if (STATEMENT_SETTERS.contains(name)) {
+                        entry.dirty = true;
+                    }
+                }
+            }
+            if (released) {
+                throw new SQLException("Statement is closed");
+            }
+            try {
+                return method.invoke(entry.raw, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
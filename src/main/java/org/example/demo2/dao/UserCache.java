@@ -0,0 +1,155 @@
+package org.example.demo2.dao;
+
+import org.example.demo2.config.ServerConfig;
+import org.example.demo2.model.User;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache phía server cho hồ sơ user (id, username, display name, avatar), dùng chung cho mọi UserDao
+ * nên AuthServiceImpl, ChatServiceImpl, GroupServiceImpl, FriendServiceImpl đều hưởng.
+ *
+ *  - Tối đa maxSize user, LRU: user lâu không ai đọc bị bỏ trước
+ *  - Mỗi bản ghi sống tối đa ttlMillis, phòng trường hợp DB bị sửa ngoài server
+ *  - UserDao.updateProfile/updatePassword gọi invalidate() nên tên/avatar mới thấy ngay
+ *
+ * Chống nạp dữ liệu cũ giống RecentMessageCache: put() chỉ nhận nếu không có invalidate() nào
+ * vào user (cùng stripe) kể từ lúc lấy stamp() trước khi SELECT.
+ */
+public final class UserCache {
+
+    private static final UserCache INSTANCE = new UserCache(
+            ServerConfig.USER_CACHE_MAX_SIZE,
+            ServerConfig.USER_CACHE_TTL_SECONDS * 1000L
+    );
+
+    private static final int STRIPES = 64;
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Long, Entry> entries;
+    // Đếm số lần invalidate theo stripe (userId), dùng cho stamp()/put()
+    private final AtomicLongArray writeStamps = new AtomicLongArray(STRIPES);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    UserCache(int maxSize, long ttlMillis) {
+        this.maxSize = Math.max(0, maxSize);
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                if (size() > UserCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static UserCache getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0 && ttlMillis > 0;
+    }
+
+    /** User trong cache, null nếu chưa có hoặc đã hết hạn (miss) */
+    public User get(long userId) {
+        if (!isEnabled()) {
+            return null;
+        }
+        lock.lock();
+        try {
+            Entry entry = entries.get(userId);
+            if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+                entries.remove(userId);
+                expirations.incrementAndGet();
+                entry = null;
+            }
+            (entry != null ? hits : misses).incrementAndGet();
+            return entry != null ? entry.user : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Gọi trước khi SELECT để nạp cache */
+    public long stamp(long userId) {
+        return writeStamps.get(stripe(userId));
+    }
+
+    /** Nạp user vừa đọc từ DB; bỏ qua nếu user bị sửa trong lúc SELECT */
+    public void put(User user, long stamp) {
+        if (!isEnabled() || user == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (writeStamps.get(stripe(user.id())) != stamp) {
+                return; // updateProfile chen giữa, lần đọc sau sẽ nạp lại
+            }
+            entries.put(user.id(), new Entry(user, System.currentTimeMillis() + ttlMillis));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Bỏ user khỏi cache (đổi tên, avatar, mật khẩu...) */
+    public void invalidate(long userId) {
+        if (!isEnabled()) {
+            return;
+        }
+        lock.lock();
+        try {
+            writeStamps.incrementAndGet(stripe(userId));
+            entries.remove(userId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int stripe(long userId) {
+        return (int) Math.floorMod(userId, (long) STRIPES);
+    }
+
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    @Override
+    public String toString() {
+        int size;
+        lock.lock();
+        try {
+            size = entries.size();
+        } finally {
+            lock.unlock();
+        }
+        return String.format("users=%d/%d, hits=%d, misses=%d, hitRate=%.1f%%, evictions=%d, expirations=%d",
+                size, maxSize, hits.get(), misses.get(), getHitRate() * 100, evictions.get(), expirations.get());
+    }
+
+    private record Entry(User user, long expiresAt) {
+    }
+}
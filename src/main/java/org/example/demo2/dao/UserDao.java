@@ -4,33 +4,129 @@ import org.example.demo2.model.User;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 /**
  * DAO cho quản lý User trong database.
  */
 public class UserDao {
     
+    /** Số id tối đa trong 1 câu IN (...), danh sách dài hơn được chia nhiều câu */
+    private static final int MAX_IN_IDS = 500;
+    
+    private final UserCache cache = UserCache.getInstance();
+    
     /**
-     * Tìm user theo ID.
+     * Tìm user theo ID (qua UserCache).
      */
     public User findById(Long id) throws SQLException {
+        User cached = cache.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        long stamp = cache.stamp(id);
         try (Connection conn = org.example.demo2.ui.DBTest.getConnection();
              PreparedStatement st = conn.prepareStatement(
                      "SELECT id, username, display_name, avatar_path FROM users WHERE id=?")) {
             st.setLong(1, id);
             ResultSet rs = st.executeQuery();
             if (rs.next()) {
-                return new User(
-                        rs.getLong("id"),
-                        rs.getString("username"),
-                        rs.getString("display_name"),
-                        rs.getString("avatar_path"));
+                User user = mapUser(rs);
+                cache.put(user, stamp);
+                return user;
             }
             return null;
         }
     }
     
+    /**
+     * Tìm nhiều user theo ID: lấy từ UserCache trước, phần còn thiếu đọc bằng 1 câu IN (...)
+     * (chia lô nếu quá MAX_IN_IDS), cùng 1 kết nối. ID không tồn tại thì không có trong kết quả.
+     *
+     * @return id -> User, theo thứ tự ids đầu vào
+     */
+    public Map<Long, User> findByIds(Collection<Long> ids) throws SQLException {
+        List<Long> unique = new ArrayList<>(new LinkedHashSet<>(ids));
+        unique.remove(null);
+        Map<Long, User> found = new java.util.HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        Map<Long, Long> stamps = new java.util.HashMap<>();
+        for (Long id : unique) {
+            User cached = cache.get(id);
+            if (cached != null) {
+                found.put(id, cached);
+            } else {
+                missing.add(id);
+                stamps.put(id, cache.stamp(id));
+            }
+        }
+        if (!missing.isEmpty()) {
+            try (Connection conn = org.example.demo2.ui.DBTest.getConnection()) {
+                for (int from = 0; from < missing.size(); from += MAX_IN_IDS) {
+                    List<Long> chunk = missing.subList(from, Math.min(missing.size(), from + MAX_IN_IDS));
+                    StringBuilder sql = new StringBuilder(
+                            "SELECT id, username, display_name, avatar_path FROM users WHERE id IN (");
+                    for (int i = 0; i < chunk.size(); i++) {
+                        sql.append(i == 0 ? "?" : ", ?");
+                    }
+                    sql.append(')');
+                    try (PreparedStatement st = conn.prepareStatement(sql.toString())) {
+                        for (int i = 0; i < chunk.size(); i++) {
+                            st.setLong(i + 1, chunk.get(i));
+                        }
+                        try (ResultSet rs = st.executeQuery()) {
+                            while (rs.next()) {
+                                User user = mapUser(rs);
+                                found.put(user.id(), user);
+                                cache.put(user, stamps.get(user.id()));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        Map<Long, User> ordered = new LinkedHashMap<>();
+        for (Long id : unique) {
+            User user = found.get(id);
+            if (user != null) {
+                ordered.put(id, user);
+            }
+        }
+        return ordered;
+    }
+    
+    /**
+     * Thành viên của conversation kèm hồ sơ, 1 câu JOIN thay cho getParticipantIds + findById từng người.
+     */
+    public List<User> findParticipants(Long conversationId) throws SQLException {
+        List<User> users = new ArrayList<>();
+        try (Connection conn = org.example.demo2.ui.DBTest.getConnection();
+             PreparedStatement st = conn.prepareStatement(
+                     "SELECT u.id, u.username, u.display_name, u.avatar_path " +
+                     "FROM conversation_participants p JOIN users u ON u.id = p.user_id " +
+                     "WHERE p.conversation_id=?")) {
+            st.setLong(1, conversationId);
+            try (ResultSet rs = st.executeQuery()) {
+                while (rs.next()) {
+                    users.add(mapUser(rs));
+                }
+            }
+        }
+        return users;
+    }
+    
+    private static User mapUser(ResultSet rs) throws SQLException {
+        return new User(
+                rs.getLong("id"),
+                rs.getString("username"),
+                rs.getString("display_name"),
+                rs.getString("avatar_path"));
+    }
+    
     /**
      * Tìm user theo username.
      */
@@ -123,6 +219,8 @@ public class UserDao {
             st.setString(2, avatarPath);
             st.setLong(3, userId);
             st.executeUpdate();
+        } finally {
+            cache.invalidate(userId);
         }
         return findById(userId);
     }
@@ -137,6 +235,8 @@ public class UserDao {
             st.setString(1, newPasswordHash);
             st.setLong(2, userId);
             return st.executeUpdate() > 0;
+        } finally {
+            cache.invalidate(userId);
         }
     }
 }
@@ -11,9 +11,20 @@ public record ChatMessage(
         MessageType type,
         String text,          // nội dung chính (văn bản, caption)
         String payloadRef,    // id file, url, hoặc callId
-        long ts               // timestamp millis (System.currentTimeMillis)
+        long ts,              // timestamp millis (System.currentTimeMillis)
+        String clientMsgId    // id do ChatClient đặt để ghép ACK/NACK khi server lưu tin, null nếu không cần
 ) implements Serializable {
     private static final long serialVersionUID = 1L;
+
+    public ChatMessage(String room, String from, MessageType type, String text, String payloadRef, long ts) {
+        this(room, from, type, text, payloadRef, ts, null);
+    }
+
+    /** Bản sao với clientMsgId khác (null = bỏ id trước khi chuyển tiếp/lưu) */
+    public ChatMessage withClientMsgId(String clientMsgId) {
+        return new ChatMessage(room, from, type, text, payloadRef, ts, clientMsgId);
+    }
+
     /** Helper static: tạo nhanh 1 tin nhắn text bình thường */
     public static ChatMessage text(String room, String from, String text) {
         return new ChatMessage(
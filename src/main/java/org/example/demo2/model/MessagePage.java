@@ -0,0 +1,24 @@
+package org.example.demo2.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 1 trang lịch sử tin nhắn (phân trang theo message id, không dùng OFFSET).
+ * Phải implement Serializable để truyền qua RMI.
+ *
+ * messages luôn theo thứ tự cũ -> mới. Muốn tải trang cũ hơn thì gọi lại với before = oldestId,
+ * trang mới hơn thì after = newestId.
+ */
+public record MessagePage(
+        List<ChatMessage> messages,
+        Long oldestId,            // id tin đầu trang, null nếu trang rỗng
+        Long newestId,            // id tin cuối trang, null nếu trang rỗng
+        boolean hasMore           // còn tin theo hướng vừa tải (cũ hơn với before, mới hơn với after)
+) implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static MessagePage empty() {
+        return new MessagePage(List.of(), null, null, false);
+    }
+}
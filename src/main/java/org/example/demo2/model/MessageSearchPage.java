@@ -0,0 +1,20 @@
+package org.example.demo2.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 1 trang kết quả tìm kiếm tin nhắn, xếp theo độ liên quan giảm dần.
+ * Phải implement Serializable để truyền qua RMI.
+ */
+public record MessageSearchPage(
+        List<ChatMessage> messages,
+        List<Long> messageIds,    // id tương ứng từng tin, dùng để mở lịch sử quanh kết quả
+        String nextCursor         // truyền lại cho searchMessages để lấy trang sau, null nếu hết
+) implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static MessageSearchPage empty() {
+        return new MessageSearchPage(List.of(), List.of(), null);
+    }
+}
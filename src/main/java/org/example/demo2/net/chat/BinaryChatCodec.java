@@ -0,0 +1,217 @@
+package org.example.demo2.net.chat;
+
+import org.example.demo2.model.ChatMessage;
+import org.example.demo2.model.MessageType;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codec nhị phân gọn cho ChatMessage, dùng sau khi client và server đã bắt tay (xem ChatProtocol.HELLO).
+ *
+ * Frame: [MARKER][varint độ dài body][body]
+ * Body : [flags][type ordinal][room][from][text?][payloadRef?][ts varint][clientMsgId?]
+ *  - room/from là số (conversation id, user id) thì ghi varint, còn lại ghi chuỗi UTF-8 có độ dài
+ *  - text/payloadRef/clientMsgId chỉ ghi khi khác null; clientMsgId nằm cuối nên bên đọc cũ bỏ qua được
+ *
+ * MARKER không bao giờ là byte đầu của 1 dòng JSON ('{', khoảng trắng), nên bên đọc
+ * phân biệt được 2 định dạng theo từng frame, không cần chuyển chế độ đúng thời điểm.
+ */
+final class BinaryChatCodec {
+
+    static final int MARKER = 0x01;
+
+    private static final int ROOM_PRESENT = 1;
+    private static final int ROOM_NUMERIC = 1 << 1;
+    private static final int FROM_PRESENT = 1 << 2;
+    private static final int FROM_NUMERIC = 1 << 3;
+    private static final int HAS_TEXT = 1 << 4;
+    private static final int HAS_PAYLOAD_REF = 1 << 5;
+    private static final int HAS_CLIENT_MSG_ID = 1 << 6;
+
+    private static final MessageType[] TYPES = MessageType.values();
+
+    private BinaryChatCodec() {
+    }
+
+    /** Encode thành frame hoàn chỉnh (đã có MARKER và độ dài) */
+    static byte[] encode(ChatMessage msg) {
+        Writer body = new Writer(64 + length(msg.text()) * 3);
+        int flags = 0;
+        long roomId = numericId(msg.room());
+        long fromId = numericId(msg.from());
+        if (msg.room() != null) flags |= ROOM_PRESENT | (roomId >= 0 ? ROOM_NUMERIC : 0);
+        if (msg.from() != null) flags |= FROM_PRESENT | (fromId >= 0 ? FROM_NUMERIC : 0);
+        if (msg.text() != null) flags |= HAS_TEXT;
+        if (msg.payloadRef() != null) flags |= HAS_PAYLOAD_REF;
+        if (msg.clientMsgId() != null) flags |= HAS_CLIENT_MSG_ID;
+
+        body.writeByte(flags);
+        body.writeVarLong(msg.type() == null ? 0 : msg.type().ordinal() + 1);
+        writeId(body, msg.room(), roomId);
+        writeId(body, msg.from(), fromId);
+        if (msg.text() != null) body.writeString(msg.text());
+        if (msg.payloadRef() != null) body.writeString(msg.payloadRef());
+        body.writeVarLong(msg.ts());
+        if (msg.clientMsgId() != null) body.writeString(msg.clientMsgId());
+
+        Writer frame = new Writer(body.size + 6);
+        frame.writeByte(MARKER);
+        frame.writeVarLong(body.size);
+        frame.write(body.buf, 0, body.size);
+        return frame.toByteArray();
+    }
+
+    /** Decode body (không gồm MARKER và độ dài) */
+    static ChatMessage decode(byte[] data, int offset, int length) throws IOException {
+        Reader in = new Reader(data, offset, offset + length);
+        int flags = in.readByte();
+        int type = (int) in.readVarLong();
+        if (type < 0 || type > TYPES.length) {
+            throw new IOException("Unknown message type ordinal " + (type - 1));
+        }
+        String room = readId(in, flags, ROOM_PRESENT, ROOM_NUMERIC);
+        String from = readId(in, flags, FROM_PRESENT, FROM_NUMERIC);
+        String text = (flags & HAS_TEXT) != 0 ? in.readString() : null;
+        String payloadRef = (flags & HAS_PAYLOAD_REF) != 0 ? in.readString() : null;
+        long ts = in.readVarLong();
+        String clientMsgId = (flags & HAS_CLIENT_MSG_ID) != 0 ? in.readString() : null;
+        return new ChatMessage(room, from, type == 0 ? null : TYPES[type - 1], text, payloadRef, ts, clientMsgId);
+    }
+
+    private static void writeId(Writer out, String value, long numeric) {
+        if (value == null) {
+            return;
+        }
+        if (numeric >= 0) {
+            out.writeVarLong(numeric);
+        } else {
+            out.writeString(value);
+        }
+    }
+
+    private static String readId(Reader in, int flags, int present, int numeric) throws IOException {
+        if ((flags & present) == 0) {
+            return null;
+        }
+        return (flags & numeric) != 0 ? Long.toString(in.readVarLong()) : in.readString();
+    }
+
+    /** Id dạng số không âm, viết chuẩn (không có số 0 đứng đầu) để decode ra đúng chuỗi cũ; -1 nếu không phải */
+    private static long numericId(String value) {
+        if (value == null || value.isEmpty() || value.length() > 18) {
+            return -1;
+        }
+        if (value.length() > 1 && value.charAt(0) == '0') {
+            return -1;
+        }
+        long result = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    /** Buffer ghi tự giãn, chỉ dùng trong 1 lần encode */
+    private static final class Writer {
+        private byte[] buf;
+        private int size;
+
+        Writer(int capacity) {
+            this.buf = new byte[Math.max(16, capacity)];
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[size++] = (byte) b;
+        }
+
+        void write(byte[] data, int offset, int length) {
+            ensure(length);
+            System.arraycopy(data, offset, buf, size, length);
+            size += length;
+        }
+
+        /** Varint không dấu 7 bit/byte (giá trị âm tốn 10 byte) */
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[size++] = (byte) value;
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        byte[] toByteArray() {
+            if (size == buf.length) {
+                return buf;
+            }
+            byte[] result = new byte[size];
+            System.arraycopy(buf, 0, result, 0, size);
+            return result;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buf.length) {
+                byte[] grown = new byte[Math.max(buf.length * 2, size + extra)];
+                System.arraycopy(buf, 0, grown, 0, size);
+                buf = grown;
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private final int limit;
+        private int pos;
+
+        Reader(byte[] data, int offset, int limit) {
+            this.data = data;
+            this.pos = offset;
+            this.limit = limit;
+        }
+
+        int readByte() throws IOException {
+            if (pos >= limit) {
+                throw new IOException("Truncated binary frame");
+            }
+            return data[pos++] & 0xFF;
+        }
+
+        long readVarLong() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        String readString() throws IOException {
+            long length = readVarLong();
+            if (length < 0 || length > limit - pos) {
+                throw new IOException("Invalid string length " + length);
+            }
+            String value = new String(data, pos, (int) length, StandardCharsets.UTF_8);
+            pos += (int) length;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.example.demo2.net.chat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.demo2.model.ChatMessage;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Micro-benchmark fan-out 1 -> N của broadcast (không cần socket thật, ghi vào sink rỗng):
+ *  - per-recipient: serialize ra String 1 lần, mỗi người nhận tự encode qua OutputStreamWriter rồi flush (cách cũ)
+ *  - shared-frame : encode 1 lần thành frame UTF-8 (ChatJson.line), mọi người nhận ghi chung mảng byte đó
+ *
+ * Cách chạy: BroadcastFanoutBenchMain [textLength]
+ * Chỉ để so sánh tương đối giữa 2 cách, số tuyệt đối phụ thuộc máy.
+ */
+public class BroadcastFanoutBenchMain {
+
+    private static final int[] FANOUTS = {1, 10, 100, 500};
+    // Mỗi ô đo ghi khoảng ngần này frame (fan-out nhỏ thì nhiều vòng broadcast hơn)
+    private static final int WRITES_PER_CELL = 1_000_000;
+    private static final int MIN_ROUNDS = 1_000;
+    // Chạy cả bảng vài lượt không tính giờ trước, để JIT biên dịch xong cả 2 cách trước lượt đo
+    private static final int WARMUP_PASSES = 3;
+
+    private static final OutputStream NULL_SINK = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    public static void main(String[] args) throws IOException {
+        int textLength = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        ObjectMapper mapper = new ObjectMapper();
+        ChatMessage msg = ChatMessage.text("12345", "42", "Xin chào ".repeat(Math.max(1, textLength / 9)));
+
+        for (int pass = 0; pass < WARMUP_PASSES; pass++) {
+            runTable(mapper, msg, false);
+        }
+        System.out.println("========== Broadcast fan-out ==========");
+        System.out.println("Text length: " + msg.text().length() + " chars");
+        System.out.printf("%-8s %18s %18s %8s%n", "fan-out", "per-recipient us", "shared-frame us", "speedup");
+        runTable(mapper, msg, true);
+        System.out.println("=======================================");
+    }
+
+    private static void runTable(ObjectMapper mapper, ChatMessage msg, boolean print) throws IOException {
+        for (int fanout : FANOUTS) {
+            BufferedWriter[] writers = new BufferedWriter[fanout];
+            BufferedOutputStream[] streams = new BufferedOutputStream[fanout];
+            for (int i = 0; i < fanout; i++) {
+                writers[i] = new BufferedWriter(new OutputStreamWriter(NULL_SINK, StandardCharsets.UTF_8));
+                streams[i] = new BufferedOutputStream(NULL_SINK);
+            }
+            int rounds = Math.max(MIN_ROUNDS, WRITES_PER_CELL / fanout);
+            double before = measure(rounds, () -> perRecipient(mapper, msg, writers));
+            double after = measure(rounds, () -> sharedFrame(msg, streams));
+            if (print) {
+                System.out.printf("%-8d %18.2f %18.2f %7.1fx%n", fanout, before / 1000, after / 1000, before / after);
+            }
+        }
+    }
+
+    private static void perRecipient(ObjectMapper mapper, ChatMessage msg, BufferedWriter[] writers) throws IOException {
+        String json = mapper.writeValueAsString(msg);
+        for (BufferedWriter out : writers) {
+            out.write(json);
+            out.write("\n");
+            out.flush();
+        }
+    }
+
+    private static void sharedFrame(ChatMessage msg, BufferedOutputStream[] streams) throws IOException {
+        byte[] frame = ChatJson.line(msg);
+        for (BufferedOutputStream out : streams) {
+            out.write(frame);
+            out.flush();
+        }
+    }
+
+    /** Thời gian trung bình (ns) của 1 lần broadcast */
+    private static double measure(int rounds, Broadcast broadcast) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            broadcast.run();
+        }
+        return (double) (System.nanoTime() - start) / rounds;
+    }
+
+    @FunctionalInterface
+    private interface Broadcast {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,51 @@
+package org.example.demo2.net.chat;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool các ByteBuffer kích thước cố định dùng cho NIO chat server.
+ *  - Connection idle không giữ buffer nào, chỉ mượn khi có frame dở dang
+ *  - Trả buffer về pool khi frame đã decode xong
+ *  - Giới hạn số buffer giữ lại để không phình bộ nhớ sau một đợt burst
+ */
+class ByteBufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    ByteBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    int bufferSize() {
+        return bufferSize;
+    }
+
+    /** Mượn 1 buffer (heap, có backing array để Jackson parse trực tiếp) */
+    ByteBuffer acquire() {
+        ByteBuffer buf = free.poll();
+        if (buf == null) {
+            return ByteBuffer.allocate(bufferSize);
+        }
+        pooled.decrementAndGet();
+        buf.clear();
+        return buf;
+    }
+
+    /** Trả buffer về pool; buffer khác kích thước (đã grow) thì bỏ cho GC */
+    void release(ByteBuffer buf) {
+        if (buf == null || buf.capacity() != bufferSize) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= maxPooled) {
+            free.offer(buf);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+}
@@ -1,16 +1,35 @@
 package org.example.demo2.net.chat;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.example.demo2.config.ServerConfig;
 import org.example.demo2.model.ChatMessage;
 
 import java.io.*;
 import java.net.Socket;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 
 /**
  * TCP ChatClient:
  *  - connect(host, port)
  *  - send(ChatMessage)
+ *  - identify(userId) / join(from, room): đăng ký nhận tin theo room (xem ChatProtocol)
+ *  - identify() đề nghị giao thức nhị phân (chat.protocol=binary), server đồng ý thì 2 bên chuyển sang
+ *  - identify() đề nghị server tự lưu tin (persist): send() trả true nếu server sẽ lưu tin đó và gửi ACK,
+ *    NACK thì gọi onPersistFailed để caller tự lưu lại qua RMI. Mất kết nối hoặc quá chat.persist.ack.timeout.ms
+ *    chưa có ACK cũng gọi onPersistFailed. Tin trả lại giữ nguyên clientMsgId, DB có UNIQUE(sender_id, client_msg_id)
+ *    nên lưu lại 1 tin server đã kịp commit không tạo bản trùng
+ *  - identify() đề nghị nhận sự kiện đẩy (events): server đồng ý thì các frame EVENT đi tới onEvent,
+ *    caller có thể bỏ poll định kỳ (receivesEvents())
  *  - nhận message qua callback onMessage
  */
 public class ChatClient implements Closeable {
@@ -18,11 +37,29 @@ public class ChatClient implements Closeable {
     private final String host;
     private final int port;
     private final Consumer<ChatMessage> onMessage;
-    private final ObjectMapper mapper = new ObjectMapper();
+    private final boolean preferBinary = "binary".equalsIgnoreCase(ServerConfig.CHAT_PROTOCOL);
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private static final long ACK_CHECK_MILLIS = 5_000;
 
     private Socket socket;
-    private BufferedReader in;
-    private BufferedWriter out;
+    private ChatFrameReader in;
+    private OutputStream out;
+    // true sau khi server trả HELLO_OK cho giao thức nhị phân
+    private volatile boolean binary;
+    // true sau khi đã gửi PERSIST_ON (chỉ đổi khi giữ writeLock để khớp thứ tự với các tin gửi đi)
+    private volatile boolean serverPersists;
+    // Tin server đang lưu, chờ ACK/NACK: clientMsgId -> message
+    private final Map<String, PendingAck> pendingAcks = new ConcurrentHashMap<>();
+    private ScheduledExecutorService ackTimer;
+    // clientMsgId = tiền tố ngẫu nhiên của client này + bộ đếm (chỉ tăng khi giữ writeLock), không lặp lại
+    // giữa các lần đăng nhập của cùng user vì DB dùng nó làm khoá chống trùng
+    private final String clientMsgIdPrefix = Long.toUnsignedString(new SecureRandom().nextLong(), 36) + "-";
+    private long lastClientMsgId;
+    private volatile Consumer<ChatMessage> onPersistFailed;
+    // true sau khi server đồng ý "events"
+    private volatile boolean events;
+    private volatile Consumer<ChatMessage> onEvent;
+    private String userId;
 
     public ChatClient(String host, int port, Consumer<ChatMessage> onMessage) {
         this.host = host;
@@ -32,28 +69,47 @@ public class ChatClient implements Closeable {
 
     public void connect() throws IOException {
         socket = new Socket(host, port);
-        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
-        out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+        in = new ChatFrameReader(socket.getInputStream());
+        out = new BufferedOutputStream(socket.getOutputStream());
 
         Thread reader = new Thread(this::readLoop, "ChatClient-Reader");
         reader.setDaemon(true);
         reader.start();
 
+        ackTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ChatClient-AckTimer");
+            t.setDaemon(true);
+            return t;
+        });
+        ackTimer.scheduleWithFixedDelay(this::expirePendingAcks, ACK_CHECK_MILLIS, ACK_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+
         System.out.println("[ChatClient] Connected to " + host + ":" + port);
     }
 
     private void readLoop() {
         try {
-            String line;
-            while ((line = in.readLine()) != null) {
+            while (true) {
+                ChatMessage msg;
+                try {
+                    msg = in.read();
+                } catch (JsonProcessingException e) {
+                    System.err.println("[ChatClient] Error parsing message: " + e.getOriginalMessage());
+                    continue;
+                }
+                if (msg == null) {
+                    break;
+                }
+                if (ChatProtocol.isControl(msg)) {
+                    handleControl(msg);
+                    continue;
+                }
                 try {
-                    ChatMessage msg = mapper.readValue(line, ChatMessage.class);
                     System.out.println("[ChatClient] ===== RECEIVED MESSAGE =====");
                     System.out.println("[ChatClient] Room: " + msg.room());
                     System.out.println("[ChatClient] From: " + msg.from());
                     System.out.println("[ChatClient] Text: " + msg.text());
                     System.out.println("[ChatClient] Callback is null: " + (onMessage == null));
-                    
+
                     if (onMessage != null) {
                         System.out.println("[ChatClient] Calling onMessage callback...");
                         onMessage.accept(msg);
@@ -62,27 +118,189 @@ public class ChatClient implements Closeable {
                         System.err.println("[ChatClient] WARNING: onMessage callback is null!");
                     }
                 } catch (Exception e) {
-                    System.err.println("[ChatClient] Error parsing message: " + e.getMessage());
-                    System.err.println("[ChatClient] Raw line: " + line);
+                    System.err.println("[ChatClient] Error handling message: " + e.getMessage());
                     e.printStackTrace();
                 }
             }
         } catch (IOException e) {
             System.err.println("[ChatClient] readLoop error: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            // Mất kết nối: không còn sự kiện đẩy, caller quay lại poll
+            events = false;
+            failAllPending();
+        }
+    }
+
+    /**
+     * Mất kết nối: server có thể chưa kịp commit batch, các tin chưa ACK trả lại cho caller tự lưu.
+     * Tắt serverPersists trong writeLock để không có tin nào được thêm vào pendingAcks sau đó.
+     */
+    private void failAllPending() {
+        writeLock.lock();
+        try {
+            serverPersists = false;
+        } finally {
+            writeLock.unlock();
+        }
+        if (ackTimer != null) {
+            ackTimer.shutdownNow();
+        }
+        if (!pendingAcks.isEmpty()) {
+            System.err.println("[ChatClient] Connection lost with " + pendingAcks.size() + " unacknowledged messages, saving them again");
+        }
+        for (String key : pendingAcks.keySet()) {
+            failPending(key);
+        }
+    }
+
+    /** Tin chờ ACK quá lâu (server treo, DB chậm): coi như NACK */
+    private void expirePendingAcks() {
+        long deadline = System.currentTimeMillis() - ServerConfig.CHAT_PERSIST_ACK_TIMEOUT_MS;
+        pendingAcks.forEach((key, pending) -> {
+            if (pending.sentAt() < deadline) {
+                System.err.println("[ChatClient] No ACK for message " + key + " after "
+                        + ServerConfig.CHAT_PERSIST_ACK_TIMEOUT_MS + "ms, saving it again");
+                failPending(key);
+            }
+        });
+    }
+
+    /** Bỏ tin khỏi pendingAcks và gọi onPersistFailed (chỉ 1 lần, dù NACK/timeout/mất kết nối cùng lúc) */
+    private void failPending(String key) {
+        PendingAck failed = pendingAcks.remove(key);
+        Consumer<ChatMessage> handler = onPersistFailed;
+        if (failed != null && handler != null) {
+            try {
+                handler.accept(failed.message());
+            } catch (RuntimeException e) {
+                System.err.println("[ChatClient] onPersistFailed error: " + e.getMessage());
+            }
+        }
+    }
+
+    private void handleControl(ChatMessage msg) {
+        switch (String.valueOf(msg.text())) {
+            case ChatProtocol.HELLO_OK -> {
+                Set<String> features = ChatProtocol.features(msg.payloadRef());
+                if (features.contains(ChatProtocol.PROTO_BINARY)) {
+                    binary = true;
+                    System.out.println("[ChatClient] Switched to binary protocol");
+                }
+                if (features.contains(ChatProtocol.FEATURE_PERSIST)) {
+                    enableServerPersistence();
+                }
+                if (features.contains(ChatProtocol.FEATURE_EVENTS)) {
+                    events = true;
+                    System.out.println("[ChatClient] Server push events enabled");
+                }
+            }
+            case ChatProtocol.EVENT -> {
+                Consumer<ChatMessage> handler = onEvent;
+                if (handler != null) {
+                    handler.accept(msg);
+                }
+            }
+            case ChatProtocol.ACK -> pendingAcks.remove(msg.payloadRef());
+            case ChatProtocol.NACK -> {
+                System.err.println("[ChatClient] Server could not save message " + msg.payloadRef());
+                failPending(msg.payloadRef());
+            }
+            default -> System.err.println("[ChatClient] Unknown control frame: " + msg.text());
+        }
+    }
+
+    private void enableServerPersistence() {
+        writeLock.lock();
+        try {
+            writeFrame(ChatProtocol.persistOn(userId));
+            serverPersists = true;
+            System.out.println("[ChatClient] Server persistence enabled");
+        } catch (IOException e) {
+            System.err.println("[ChatClient] Cannot confirm server persistence: " + e.getMessage());
+        } finally {
+            writeLock.unlock();
         }
     }
 
-    public void send(ChatMessage msg) throws IOException {
+    /**
+     * Gửi tin qua TCP.
+     *
+     * @return true nếu server sẽ tự lưu tin này vào DB (caller không cần gọi RMI saveMessage)
+     */
+    public boolean send(ChatMessage msg) throws IOException {
         if (out == null) throw new IllegalStateException("Not connected");
-        String json = mapper.writeValueAsString(msg);
-        out.write(json);
-        out.write("\n");
+        writeLock.lock();
+        try {
+            boolean persisted = serverPersists && MessagePersistencePipeline.accepts(msg);
+            if (!persisted) {
+                writeFrame(msg);
+                return false;
+            }
+            // Gắn id riêng cho tin này: 2 tin cùng room cùng mili giây vẫn có ACK riêng
+            String clientMsgId = clientMsgIdPrefix + (++lastClientMsgId);
+            ChatMessage tagged = msg.withClientMsgId(clientMsgId);
+            pendingAcks.put(clientMsgId, new PendingAck(tagged, System.currentTimeMillis()));
+            try {
+                writeFrame(tagged);
+            } catch (IOException e) {
+                pendingAcks.remove(clientMsgId);
+                throw e;
+            }
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** Gọi khi đang giữ writeLock */
+    private void writeFrame(ChatMessage msg) throws IOException {
+        out.write(binary ? BinaryChatCodec.encode(msg) : ChatJson.line(msg));
         out.flush();
     }
 
+    /** Gửi HELLO để server chỉ chuyển tin của các conversation mà user tham gia */
+    public void identify(String userId) throws IOException {
+        this.userId = userId;
+        List<String> features = new ArrayList<>();
+        if (preferBinary) {
+            features.add(ChatProtocol.PROTO_BINARY);
+        }
+        features.add(ChatProtocol.FEATURE_PERSIST);
+        features.add(ChatProtocol.FEATURE_EVENTS);
+        send(ChatProtocol.hello(userId, features));
+    }
+
+    /** Callback khi server báo không lưu được 1 tin (NACK), chạy trên thread đọc của client */
+    public void setOnPersistFailed(Consumer<ChatMessage> onPersistFailed) {
+        this.onPersistFailed = onPersistFailed;
+    }
+
+    /** Callback cho sự kiện server đẩy (EVENT), chạy trên thread đọc của client */
+    public void setOnEvent(Consumer<ChatMessage> onEvent) {
+        this.onEvent = onEvent;
+    }
+
+    /** Server đã đồng ý đẩy sự kiện qua kết nối này */
+    public boolean receivesEvents() {
+        return events;
+    }
+
+    /** Số tin server đang lưu mà chưa có ACK */
+    public int pendingAckCount() {
+        return pendingAcks.size();
+    }
+
+    /** Đăng ký trực tiếp 1 room (room không nằm trong DB, ví dụ console client) */
+    public void join(String from, String room) throws IOException {
+        send(ChatProtocol.join(from, room));
+    }
+
     @Override
     public void close() throws IOException {
         if (socket != null) socket.close();
     }
+
+    private record PendingAck(ChatMessage message, long sentAt) {
+    }
 }
@@ -33,6 +33,7 @@ public class ChatClientConsoleMain {
         );
 
         client.connect();
+        client.join(name, room);
         System.out.println("Connected to chat server. Type message, /quit to exit.");
 
         String line;
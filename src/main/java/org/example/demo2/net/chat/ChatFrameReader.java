@@ -0,0 +1,147 @@
+package org.example.demo2.net.chat;
+
+import org.example.demo2.model.ChatMessage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Đọc ChatMessage từ socket, nhận cả 2 định dạng frame trên cùng 1 stream:
+ *  - dòng JSON kết thúc bằng '\n' (client cũ, console client, trước khi bắt tay xong)
+ *  - frame nhị phân BinaryChatCodec (bắt đầu bằng BinaryChatCodec.MARKER)
+ *
+ * Làm việc trực tiếp trên byte (không qua Reader/char) để không đọc lố sang frame nhị phân,
+ * dòng JSON được decode thẳng từ buffer bằng ChatJson (không tạo String cho cả dòng).
+ * Dòng JSON hỏng ném JsonProcessingException sau khi đã bỏ qua dòng đó, caller có thể đọc tiếp.
+ *
+ * readJsonLine(decoder) dùng cho các giao thức chỉ có JSON từng dòng (AegisTalkTCPServer).
+ */
+public class ChatFrameReader {
+
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_FRAME_BYTES = 1024 * 1024;
+
+    private final InputStream in;
+    private byte[] buf = new byte[INITIAL_BUFFER_SIZE];
+    private int pos;
+    private int limit;
+
+    public ChatFrameReader(InputStream in) {
+        this.in = in;
+    }
+
+    /** Decode 1 dòng JSON (không gồm '\n') nằm trong buffer của reader */
+    @FunctionalInterface
+    public interface LineDecoder<T> {
+        T decode(byte[] data, int offset, int length) throws IOException;
+    }
+
+    /** Frame tiếp theo, null khi hết stream */
+    public ChatMessage read() throws IOException {
+        if (!skipBlankLines()) {
+            return null;
+        }
+        if ((buf[pos] & 0xFF) == BinaryChatCodec.MARKER) {
+            return readBinary();
+        }
+        return readLine(ChatJson::read);
+    }
+
+    /** Dòng JSON tiếp theo decode bằng decoder, null khi hết stream */
+    public <T> T readJsonLine(LineDecoder<T> decoder) throws IOException {
+        return skipBlankLines() ? readLine(decoder) : null;
+    }
+
+    /** Bỏ qua '\r'/'\n' thừa giữa các frame; false nếu hết stream */
+    private boolean skipBlankLines() throws IOException {
+        while (true) {
+            if (pos == limit && !fill()) {
+                return false;
+            }
+            byte first = buf[pos];
+            if (first != '\n' && first != '\r') {
+                return true;
+            }
+            pos++;
+        }
+    }
+
+    private ChatMessage readBinary() throws IOException {
+        pos++;
+        long length = readVarLong();
+        if (length < 0 || length > MAX_FRAME_BYTES) {
+            throw new IOException("Binary frame too large (" + length + " bytes)");
+        }
+        require((int) length);
+        int start = pos;
+        pos += (int) length;
+        return BinaryChatCodec.decode(buf, start, (int) length);
+    }
+
+    private <T> T readLine(LineDecoder<T> decoder) throws IOException {
+        int scanned = 0;
+        while (true) {
+            for (int i = pos + scanned; i < limit; i++) {
+                if (buf[i] == '\n') {
+                    int start = pos;
+                    int end = i > start && buf[i - 1] == '\r' ? i - 1 : i;
+                    pos = i + 1;
+                    return decoder.decode(buf, start, end - start);
+                }
+            }
+            scanned = limit - pos;
+            if (scanned >= MAX_FRAME_BYTES) {
+                throw new IOException("JSON frame too large (" + scanned + " bytes)");
+            }
+            if (!fill()) {
+                throw new EOFException("Stream ended inside a JSON frame");
+            }
+        }
+    }
+
+    private long readVarLong() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            require(1);
+            int b = buf[pos++] & 0xFF;
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /** Đảm bảo có ít nhất n byte chưa đọc trong buffer */
+    private void require(int n) throws IOException {
+        while (limit - pos < n) {
+            if (!fill()) {
+                throw new EOFException("Stream ended inside a binary frame");
+            }
+        }
+    }
+
+    /** Đọc thêm dữ liệu vào buffer (dồn phần chưa đọc về đầu, giãn buffer nếu cần) */
+    private boolean fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        if (limit == buf.length) {
+            byte[] grown = new byte[Math.min(MAX_FRAME_BYTES + 16, buf.length * 2)];
+            if (grown.length <= buf.length) {
+                throw new IOException("Frame exceeds " + MAX_FRAME_BYTES + " bytes");
+            }
+            System.arraycopy(buf, 0, grown, 0, limit);
+            buf = grown;
+        }
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n < 0) {
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+}
@@ -0,0 +1,137 @@
+package org.example.demo2.net.chat;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import org.example.demo2.model.ChatMessage;
+import org.example.demo2.model.MessageType;
+
+import java.io.IOException;
+
+/**
+ * Codec JSON streaming (JsonParser/JsonGenerator) cho ChatMessage trên đường nóng của chat server.
+ *  - Đọc thẳng từ mảng byte của frame: không tạo String cho cả dòng, không qua databind/reflection
+ *  - Dùng chung 1 JsonFactory: buffer của parser/generator được tái sử dụng (BufferRecycler)
+ *  - Định dạng giống hệt ObjectMapper (tên field, enum theo name) nên tương thích 2 chiều với client cũ
+ */
+public final class ChatJson {
+
+    /** JsonFactory thread-safe, dùng chung cho mọi codec streaming */
+    public static final JsonFactory FACTORY = new JsonFactory();
+
+    private static final int INITIAL_FRAME_SIZE = 512;
+    private static final MessageType[] TYPES = MessageType.values();
+
+    private ChatJson() {
+    }
+
+    public static ChatMessage read(byte[] data, int offset, int length) throws IOException {
+        try (JsonParser p = FACTORY.createParser(data, offset, length)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(p, "Expected ChatMessage object");
+            }
+            String room = null;
+            String from = null;
+            MessageType type = null;
+            String text = null;
+            String payloadRef = null;
+            long ts = 0;
+            String clientMsgId = null;
+
+            String field;
+            while ((field = p.nextFieldName()) != null) {
+                JsonToken token = p.nextToken();
+                switch (field) {
+                    case "room" -> room = readString(p, token);
+                    case "from" -> from = readString(p, token);
+                    case "type" -> type = readType(p, token);
+                    case "text" -> text = readString(p, token);
+                    case "payloadRef" -> payloadRef = readString(p, token);
+                    case "ts" -> ts = token == JsonToken.VALUE_NULL ? 0 : p.getValueAsLong();
+                    case "clientMsgId" -> clientMsgId = readString(p, token);
+                    default -> p.skipChildren();
+                }
+            }
+            expectEnd(p);
+            return new ChatMessage(room, from, type, text, payloadRef, ts, clientMsgId);
+        }
+    }
+
+    public static void write(JsonGenerator g, ChatMessage msg) throws IOException {
+        g.writeStartObject();
+        g.writeStringField("room", msg.room());
+        g.writeStringField("from", msg.from());
+        g.writeStringField("type", msg.type() == null ? null : msg.type().name());
+        g.writeStringField("text", msg.text());
+        g.writeStringField("payloadRef", msg.payloadRef());
+        g.writeNumberField("ts", msg.ts());
+        // Chỉ có ở tin chờ ACK, không ghi null để các frame khác giữ nguyên định dạng cũ
+        if (msg.clientMsgId() != null) {
+            g.writeStringField("clientMsgId", msg.clientMsgId());
+        }
+        g.writeEndObject();
+    }
+
+    /**
+     * Frame JSON + '\n' của msg, ghi thẳng vào 1 mảng byte (không qua String).
+     * Broadcast encode 1 lần rồi dùng chung mảng này cho mọi người nhận: coi như bất biến.
+     */
+    public static byte[] line(ChatMessage msg) throws IOException {
+        // Đủ cho tin thông thường trong 1 block, không qua String/ByteArrayOutputStream
+        try (ByteArrayBuilder builder = new ByteArrayBuilder(INITIAL_FRAME_SIZE)) {
+            try (JsonGenerator g = FACTORY.createGenerator(builder, JsonEncoding.UTF8)) {
+                write(g, msg);
+            }
+            builder.write('\n');
+            return builder.toByteArray();
+        }
+    }
+
+    /**
+     * Gọi sau vòng đọc field: object phải đóng bằng '}' và không còn gì phía sau,
+     * để frame bị cắt cụt hoặc 2 object dính nhau báo lỗi thay vì decode lặng lẽ.
+     */
+    public static void expectEnd(JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.END_OBJECT) {
+            throw new JsonParseException(p, "Unexpected token " + p.currentToken());
+        }
+        JsonToken trailing = p.nextToken();
+        if (trailing != null) {
+            throw new JsonParseException(p, "Trailing token after object: " + trailing);
+        }
+    }
+
+    /** Giá trị vô hướng dạng chuỗi (số/boolean cũng nhận như databind), null nếu JSON null */
+    public static String readString(JsonParser p, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (!token.isScalarValue()) {
+            throw new JsonParseException(p, "Expected string for field " + p.currentName());
+        }
+        return p.getText();
+    }
+
+    private static MessageType readType(JsonParser p, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            int ordinal = p.getIntValue();
+            if (ordinal >= 0 && ordinal < TYPES.length) {
+                return TYPES[ordinal];
+            }
+        } else if (token == JsonToken.VALUE_STRING) {
+            try {
+                return MessageType.valueOf(p.getText());
+            } catch (IllegalArgumentException ignored) {
+                // rơi xuống lỗi bên dưới
+            }
+        }
+        throw new JsonParseException(p, "Unknown message type: " + p.getText());
+    }
+}
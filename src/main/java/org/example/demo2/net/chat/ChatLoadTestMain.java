@@ -0,0 +1,106 @@
+package org.example.demo2.net.chat;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Load test đơn giản: mở N kết nối idle tới chat server chạy cùng JVM
+ * rồi in số thread và heap đã dùng, để so sánh các chế độ server.
+ *
+ * Cách chạy (mỗi chế độ 1 lần, nên chạy với cùng -Xmx):
+ *   ChatLoadTestMain platform 10000
+ *   ChatLoadTestMain virtual 10000
+ *   ChatLoadTestMain nio 10000
+ *
+ * Lưu ý: cần nâng giới hạn file descriptor (ulimit -n) vì mỗi kết nối chiếm 2 fd
+ * (1 phía client, 1 phía server) trong cùng process.
+ */
+public class ChatLoadTestMain {
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "platform";
+        int clientCount = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 5601;
+
+        long heapBefore = usedHeapAfterGc();
+        int threadsBefore = platformThreadCount();
+
+        Thread serverThread = new Thread(() -> {
+            try {
+                if ("nio".equalsIgnoreCase(mode)) {
+                    new NioChatServer(port, Runtime.getRuntime().availableProcessors()).start();
+                } else {
+                    new ChatServer(port, ClientExecutors.newClientExecutor(mode, "ChatClient-")).start();
+                }
+            } catch (IOException e) {
+                System.err.println("[LoadTest] Server error: " + e.getMessage());
+            }
+        }, "LoadTest-Server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        waitForServer(port);
+
+        List<Socket> sockets = new ArrayList<>(clientCount);
+        long start = System.nanoTime();
+        for (int i = 0; i < clientCount; i++) {
+            try {
+                sockets.add(new Socket("localhost", port));
+            } catch (IOException e) {
+                System.err.println("[LoadTest] Stopped at " + i + " connections: " + e.getMessage());
+                break;
+            }
+        }
+        long connectMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // Đợi server accept và khởi tạo handler cho tất cả kết nối
+        Thread.sleep(3000);
+
+        long heapAfter = usedHeapAfterGc();
+        int threadsAfter = platformThreadCount();
+
+        System.out.println();
+        System.out.println("========== Chat load test ==========");
+        System.out.println("Mode              : " + mode);
+        System.out.println("Connections       : " + sockets.size());
+        System.out.println("Connect time      : " + connectMillis + " ms");
+        System.out.println("Platform threads  : " + threadsBefore + " -> " + threadsAfter);
+        System.out.println("Heap used (MB)    : " + toMb(heapBefore) + " -> " + toMb(heapAfter));
+        System.out.println("Heap per conn (KB): " + (sockets.isEmpty() ? 0 : (heapAfter - heapBefore) / 1024 / sockets.size()));
+        System.out.println("====================================");
+
+        for (Socket s : sockets) {
+            try { s.close(); } catch (IOException ignored) {}
+        }
+        System.exit(0);
+    }
+
+    private static void waitForServer(int port) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        System.gc();
+        Thread.sleep(200);
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /** getAllStackTraces() chỉ trả về platform thread (không tính virtual thread) */
+    private static int platformThreadCount() {
+        return Thread.getAllStackTraces().size();
+    }
+
+    private static long toMb(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+}
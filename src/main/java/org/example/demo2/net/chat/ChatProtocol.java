@@ -0,0 +1,175 @@
+package org.example.demo2.net.chat;
+
+import org.example.demo2.model.ChatMessage;
+import org.example.demo2.model.MessageType;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Các frame điều khiển trên kênh TCP chat.
+ *  - Vẫn là ChatMessage JSON như tin nhắn thường, type = SYSTEM, room = CONTROL_ROOM
+ *  - text = tên lệnh, payloadRef = tham số của lệnh
+ *
+ * HELLO: client định danh connection bằng userId (from) để server chỉ gửi tin của
+ *        các conversation mà user tham gia. payloadRef (nếu có) = các tính năng client muốn dùng,
+ *        phân cách bằng dấu phẩy (PROTO_BINARY, FEATURE_PERSIST).
+ * HELLO_OK: server trả lại các tính năng đồng ý (payloadRef). Server không hỗ trợ tính năng nào
+ *        thì không trả lời, client giữ nguyên cách cũ (JSON, tự lưu qua RMI).
+ *  - PROTO_BINARY: từ đây 2 bên gửi frame nhị phân BinaryChatCodec
+ *  - FEATURE_PERSIST: server tự lưu DB các tin TEXT/IMAGE/FILE của client (theo batch),
+ *    lưu xong gửi ACK (payloadRef = clientMsgId của tin), lỗi thì NACK để client tự lưu lại qua RMI.
+ *    Client gửi PERSIST_ON để xác nhận: chỉ các tin gửi sau frame này mới do server lưu,
+ *    tin gửi trước đó client vẫn tự lưu (tránh lưu trùng trong lúc đang bắt tay).
+ *  - FEATURE_EVENTS: server đẩy sự kiện bạn bè/hồ sơ (EVENT) qua kết nối này, client không cần poll
+ * JOIN / LEAVE: đăng ký / huỷ đăng ký trực tiếp 1 room (payloadRef = room).
+ * EVENT: server -> client, payloadRef = loại sự kiện (EVENT_FRIEND_*, EVENT_PROFILE_CHANGED, EVENT_CALL_*),
+ *        kèm ":" + tham số nếu có (EVENT_CALL_* có sessionId), xem eventKind/eventArgument;
+ *        from = userId của người liên quan (người gửi lời mời, bạn mới, người đổi hồ sơ, người gọi...).
+ *
+ * TYPING / PRESENCE: tin SYSTEM tạm thời, server được phép bỏ khi client nhận chậm.
+ */
+public final class ChatProtocol {
+
+    /** Room dành riêng cho frame điều khiển, không trùng với conversation id (là số) */
+    public static final String CONTROL_ROOM = "$control";
+
+    public static final String HELLO = "HELLO";
+    public static final String HELLO_OK = "HELLO_OK";
+    public static final String JOIN = "JOIN";
+    public static final String LEAVE = "LEAVE";
+    public static final String PERSIST_ON = "PERSIST_ON";
+    public static final String ACK = "ACK";
+    public static final String NACK = "NACK";
+    public static final String EVENT = "EVENT";
+
+    /** Có lời mời kết bạn mới (from = người gửi) */
+    public static final String EVENT_FRIEND_REQUEST = "FRIEND_REQUEST";
+    /** Lời mời gửi cho mình đã bị người gửi huỷ (from = người gửi) */
+    public static final String EVENT_FRIEND_REQUEST_CANCELLED = "FRIEND_REQUEST_CANCELLED";
+    /** Lời mời đã bị từ chối (from = người còn lại) */
+    public static final String EVENT_FRIEND_REJECTED = "FRIEND_REJECTED";
+    /** 2 người đã thành bạn (from = bạn mới) */
+    public static final String EVENT_FRIEND_ACCEPTED = "FRIEND_ACCEPTED";
+    /** Hủy kết bạn (from = người còn lại) */
+    public static final String EVENT_FRIEND_REMOVED = "FRIEND_REMOVED";
+    /** Bạn bè (hoặc chính mình ở client khác) đổi tên/avatar (from = người đổi) */
+    public static final String EVENT_PROFILE_CHANGED = "PROFILE_CHANGED";
+    /** Có cuộc gọi đến (from = người gọi, tham số = sessionId) */
+    public static final String EVENT_CALL_INVITE = "CALL_INVITE";
+    /** Cuộc gọi đã được nhận (from = người nhận) */
+    public static final String EVENT_CALL_ACCEPTED = "CALL_ACCEPTED";
+    /** Cuộc gọi bị từ chối (from = người nhận) */
+    public static final String EVENT_CALL_REJECTED = "CALL_REJECTED";
+    /** Cuộc gọi kết thúc hoặc người gọi huỷ (from = người kết thúc) */
+    public static final String EVENT_CALL_ENDED = "CALL_ENDED";
+
+    public static final String TYPING = "TYPING";
+    public static final String PRESENCE = "PRESENCE";
+
+    /** Tên giao thức nhị phân trong HELLO/HELLO_OK */
+    public static final String PROTO_BINARY = "bin1";
+    /** Server lưu tin nhắn thay cho client, kèm ACK/NACK */
+    public static final String FEATURE_PERSIST = "persist";
+    /** Server đẩy sự kiện bạn bè/hồ sơ (EVENT) */
+    public static final String FEATURE_EVENTS = "events";
+
+    private ChatProtocol() {
+    }
+
+    public static boolean isControl(ChatMessage msg) {
+        return msg.type() == MessageType.SYSTEM && CONTROL_ROOM.equals(msg.room());
+    }
+
+    /** Sự kiện typing/presence: frame mới thay thế frame cũ nên có thể bỏ khi nghẽn */
+    public static boolean isEphemeral(ChatMessage msg) {
+        return msg.type() == MessageType.SYSTEM
+                && (TYPING.equals(msg.text()) || PRESENCE.equals(msg.text()));
+    }
+
+    public static ChatMessage hello(String userId) {
+        return control(userId, HELLO, null);
+    }
+
+    /** HELLO kèm danh sách tính năng đề nghị */
+    public static ChatMessage hello(String userId, Collection<String> features) {
+        return control(userId, HELLO, String.join(",", features));
+    }
+
+    public static ChatMessage helloOk(Collection<String> features) {
+        return control(null, HELLO_OK, String.join(",", features));
+    }
+
+    /** Tách danh sách tính năng trong payloadRef của HELLO/HELLO_OK */
+    public static Set<String> features(String payloadRef) {
+        Set<String> result = new HashSet<>();
+        if (payloadRef != null) {
+            for (String f : payloadRef.split(",")) {
+                if (!f.isBlank()) {
+                    result.add(f.trim());
+                }
+            }
+        }
+        return result;
+    }
+
+    public static ChatMessage persistOn(String userId) {
+        return control(userId, PERSIST_ON, null);
+    }
+
+    /**
+     * Khoá để ghép ACK/NACK với tin đã gửi: clientMsgId do ChatClient đặt (không lặp lại giữa các kết nối của 1 user),
+     * client cũ không gửi id thì dùng room + ts của tin.
+     */
+    public static String messageKey(ChatMessage msg) {
+        return msg.clientMsgId() != null ? msg.clientMsgId() : msg.room() + "@" + msg.ts();
+    }
+
+    public static ChatMessage ack(ChatMessage persisted, boolean success) {
+        return control(null, success ? ACK : NACK, messageKey(persisted));
+    }
+
+    /** Sự kiện server đẩy cho client, subjectUserId = người liên quan */
+    public static ChatMessage event(String kind, Long subjectUserId) {
+        return control(String.valueOf(subjectUserId), EVENT, kind);
+    }
+
+    /** Sự kiện có tham số (ví dụ sessionId của cuộc gọi) */
+    public static ChatMessage event(String kind, Long subjectUserId, String argument) {
+        return control(String.valueOf(subjectUserId), EVENT, kind + ":" + argument);
+    }
+
+    /** Loại sự kiện trong payloadRef của frame EVENT */
+    public static String eventKind(ChatMessage event) {
+        String ref = String.valueOf(event.payloadRef());
+        int colon = ref.indexOf(':');
+        return colon < 0 ? ref : ref.substring(0, colon);
+    }
+
+    /** Tham số của sự kiện, null nếu không có */
+    public static String eventArgument(ChatMessage event) {
+        String ref = event.payloadRef();
+        int colon = ref != null ? ref.indexOf(':') : -1;
+        return colon < 0 ? null : ref.substring(colon + 1);
+    }
+
+    public static ChatMessage join(String from, String room) {
+        return control(from, JOIN, room);
+    }
+
+    public static ChatMessage leave(String from, String room) {
+        return control(from, LEAVE, room);
+    }
+
+    static ChatMessage control(String from, String command, String argument) {
+        return new ChatMessage(
+                CONTROL_ROOM,
+                from,
+                MessageType.SYSTEM,
+                command,
+                argument,
+                System.currentTimeMillis()
+        );
+    }
+}
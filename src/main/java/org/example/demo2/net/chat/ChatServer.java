@@ -1,32 +1,57 @@
 package org.example.demo2.net.chat;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.example.demo2.config.ServerConfig;
 import org.example.demo2.model.ChatMessage;
+import org.example.demo2.model.MessageType;
 
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
 
 /**
  * TCP ChatServer:
  *  - Lắng trên port (mặc định 5555)
- *  - Mỗi client là 1 thread
- *  - Mỗi message là 1 dòng JSON (ChatMessage)
- *  - Broadcast lại cho các client khác
+ *  - Mỗi client là 1 thread (platform hoặc virtual thread, xem chat.thread.mode)
+ *  - Mỗi message là 1 dòng JSON (ChatMessage), hoặc frame nhị phân nếu client bắt tay HELLO bin1
+ *  - Chỉ gửi lại cho các client thuộc room (conversation) của message, xem RoomSubscriptions
+ *  - Mỗi client có hàng đợi gửi giới hạn (OutboundQueue), broadcast không chờ socket; frame được ghi bởi
+ *    writer riêng (virtual thread) hoặc pool writer dùng chung (platform thread, OutboundWriterPool)
+ *  - Client bắt tay "persist": server tự lưu tin vào DB theo batch (MessagePersistencePipeline) và gửi ACK
+ *  - Client bắt tay "events": RMI service đẩy sự kiện bạn bè/hồ sơ qua pushToUser (UserPushChannel)
  */
-public class ChatServer {
+public class ChatServer implements UserPushChannel {
 
     private final int port;
-    private final ObjectMapper mapper = new ObjectMapper();
     private final Set<ClientHandler> clients = new CopyOnWriteArraySet<>();
+    private final RoomSubscriptions<ClientHandler> subscriptions = new RoomSubscriptions<>();
+    private final ExecutorService clientExecutor;
+    private final OutboundQueue.Stats outboundStats = new OutboundQueue.Stats();
+    // null ở chế độ virtual: mỗi client có writeLoop riêng
+    private final OutboundWriterPool writerPool;
+    // null khi tắt chat.persist.enabled
+    private final MessagePersistencePipeline persistence;
 
     public ChatServer(int port) {
+        this(port, ClientExecutors.newClientExecutor("ChatClient-"));
+    }
+
+    public ChatServer(int port, ExecutorService clientExecutor) {
         this.port = port;
+        this.clientExecutor = clientExecutor;
+        this.writerPool = OutboundWriterPool.fromConfig("ChatWriter-");
+        this.persistence = ServerConfig.CHAT_PERSIST_ENABLED ? MessagePersistencePipeline.fromConfig() : null;
     }
 
     public void start() throws IOException {
+        if (persistence != null) {
+            persistence.start();
+        }
         try (ServerSocket server = new ServerSocket(port)) {
             System.out.println("[ChatServer] Listening on port " + port);
 
@@ -36,28 +61,58 @@ public class ChatServer {
 
                 ClientHandler handler = new ClientHandler(socket);
                 clients.add(handler);
+                subscriptions.add(handler);
+
+                clientExecutor.execute(handler);
+                if (writerPool == null) {
+                    clientExecutor.execute(handler::writeLoop);
+                }
+            }
+        }
+    }
+
+    /** Bộ đếm hàng đợi gửi (độ sâu, số frame bị bỏ, số client bị ngắt vì chậm) */
+    public OutboundQueue.Stats getOutboundStats() {
+        return outboundStats;
+    }
 
-                Thread t = new Thread(handler, "ChatClient-" + socket.getPort());
-                t.start();
+    @Override
+    public int pushToUser(String userId, ChatMessage event) {
+        int sent = 0;
+        for (ClientHandler c : subscriptions.connectionsOf(userId)) {
+            if (c.events) {
+                c.sendControl(event);
+                sent++;
             }
         }
+        return sent;
     }
 
-    /** Broadcast 1 message cho các client khác */
+    /** Broadcast 1 message cho các client khác trong cùng room */
     private void broadcast(ChatMessage msg, ClientHandler from) {
         try {
-            String json = mapper.writeValueAsString(msg);
-            System.out.println("[ChatServer] Broadcasting message: room=" + msg.room() + ", from=" + msg.from() + ", to " + clients.size() + " clients");
+            // Encode 1 lần cho mỗi định dạng (chỉ khi có người nhận cần), mọi người nhận dùng chung frame
+            byte[] jsonFrame = null;
+            byte[] binaryFrame = null;
+            boolean droppable = ChatProtocol.isEphemeral(msg);
+            Set<ClientHandler> recipients = subscriptions.recipients(msg.room());
+            System.out.println("[ChatServer] Broadcasting message: room=" + msg.room() + ", from=" + msg.from() + ", to " + recipients.size() + "/" + clients.size() + " clients");
             int sentCount = 0;
-            for (ClientHandler c : clients) {
-                // Gửi đến tất cả client khác (không gửi lại cho người gửi)
+            for (ClientHandler c : recipients) {
+                // Gửi đến các client khác trong room (không gửi lại cho người gửi)
                 if (c != from) {
-                    c.send(json);
+                    byte[] frame;
+                    if (c.binary) {
+                        frame = binaryFrame != null ? binaryFrame : (binaryFrame = BinaryChatCodec.encode(msg));
+                    } else {
+                        frame = jsonFrame != null ? jsonFrame : (jsonFrame = ChatJson.line(msg));
+                    }
+                    c.send(frame, droppable);
                     sentCount++;
-                    System.out.println("[ChatServer] Sent to client " + c.socket.getRemoteSocketAddress());
+                    System.out.println("[ChatServer] Queued for client " + c.socket.getRemoteSocketAddress());
                 }
             }
-            System.out.println("[ChatServer] Broadcast complete: sent to " + sentCount + " clients");
+            System.out.println("[ChatServer] Broadcast complete: queued for " + sentCount + " clients (" + outboundStats + ")");
         } catch (Exception e) {
             System.err.println("[ChatServer] Cannot serialize: " + e.getMessage());
             e.printStackTrace();
@@ -67,29 +122,62 @@ public class ChatServer {
     /** Thread xử lý từng client */
     private class ClientHandler implements Runnable {
         private final Socket socket;
-        private final BufferedReader in;
-        private final BufferedWriter out;
+        private final ChatFrameReader in;
+        // Client đã bắt tay giao thức nhị phân: gửi frame BinaryChatCodec thay cho JSON
+        private volatile boolean binary;
+        // Server đã đồng ý "persist" trong HELLO_OK, chờ client xác nhận bằng PERSIST_ON
+        private volatile boolean persistAccepted;
+        // Client đã xác nhận: server lưu tin của client này và gửi ACK/NACK
+        private volatile boolean persist;
+        // Server đã đồng ý "events": nhận sự kiện từ pushToUser
+        private volatile boolean events;
+        // Chỉ writer của client này ghi vào out
+        private final OutputStream out;
+        private final OutboundQueue outbound = OutboundQueue.fromConfig(outboundStats);
+        // null ở chế độ virtual (writeLoop tự chờ trên hàng đợi)
+        private final OutboundWriterPool.Writer writer;
 
         ClientHandler(Socket socket) throws IOException {
             this.socket = socket;
-            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
-            this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+            this.in = new ChatFrameReader(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+            this.writer = writerPool != null ? writerPool.register(outbound, out, this::writeFailed) : null;
         }
 
         @Override
         public void run() {
             try {
-                String line;
-                while ((line = in.readLine()) != null) {
+                while (true) {
+                    ChatMessage msg;
                     try {
-                        // Mỗi dòng là 1 JSON ChatMessage
-                        ChatMessage msg = mapper.readValue(line, ChatMessage.class);
+                        // Mỗi frame là 1 ChatMessage (dòng JSON hoặc nhị phân)
+                        msg = in.read();
+                    } catch (JsonProcessingException e) {
+                        // Dòng JSON hỏng đã được bỏ qua, đọc tiếp frame sau
+                        System.err.println("[ChatServer] Error parsing message from " + socket.getRemoteSocketAddress() + ": " + e.getOriginalMessage());
+                        continue;
+                    }
+                    if (msg == null) {
+                        break;
+                    }
+                    try {
+                        if (ChatProtocol.isControl(msg)) {
+                            handleControl(msg);
+                            continue;
+                        }
+                        if (msg.type() == MessageType.SYSTEM) {
+                            // Tin hệ thống (thêm/rời nhóm...) -> danh sách thành viên có thể đã đổi
+                            subscriptions.invalidate(msg.room());
+                        }
                         System.out.println("[ChatServer] Received message from " + socket.getRemoteSocketAddress() + ": room=" + msg.room() + ", from=" + msg.from() + ", text=" + msg.text());
                         System.out.println("[ChatServer] Total connected clients: " + clients.size());
-                        broadcast(msg, this);
+                        if (persist && MessagePersistencePipeline.accepts(msg)) {
+                            persist(msg);
+                        }
+                        // clientMsgId chỉ dùng cho ACK của người gửi
+                        broadcast(msg.clientMsgId() == null ? msg : msg.withClientMsgId(null), this);
                     } catch (Exception e) {
-                        System.err.println("[ChatServer] Error parsing message from " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
-                        System.err.println("[ChatServer] Raw line: " + line);
+                        System.err.println("[ChatServer] Error handling message from " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
                         e.printStackTrace();
                     }
                 }
@@ -98,21 +186,112 @@ public class ChatServer {
                         + " disconnected: " + e.getMessage());
             } finally {
                 clients.remove(this);
+                subscriptions.remove(this);
+                outbound.close();
                 System.out.println("[ChatServer] Client removed. Remaining clients: " + clients.size());
                 try { socket.close(); } catch (IOException ignored) {}
             }
         }
 
-        void send(String jsonLine) {
+        private void handleControl(ChatMessage msg) {
+            switch (String.valueOf(msg.text())) {
+                case ChatProtocol.HELLO -> {
+                    subscriptions.identify(this, msg.from());
+                    negotiate(ChatProtocol.features(msg.payloadRef()));
+                    System.out.println("[ChatServer] Client " + socket.getRemoteSocketAddress() + " identified as user " + msg.from()
+                            + (binary ? " (binary protocol)" : "") + (persistAccepted ? " (server persistence)" : ""));
+                }
+                case ChatProtocol.PERSIST_ON -> persist = persistAccepted;
+                case ChatProtocol.JOIN -> subscriptions.join(this, msg.payloadRef());
+                case ChatProtocol.LEAVE -> subscriptions.leave(this, msg.payloadRef());
+                default -> System.err.println("[ChatServer] Unknown control frame: " + msg.text());
+            }
+        }
+
+        /** Trả HELLO_OK với các tính năng server hỗ trợ trong số client đề nghị */
+        private void negotiate(Set<String> offered) {
+            List<String> accepted = new ArrayList<>();
+            if (offered.contains(ChatProtocol.PROTO_BINARY)) {
+                accepted.add(ChatProtocol.PROTO_BINARY);
+            }
+            if (persistence != null && offered.contains(ChatProtocol.FEATURE_PERSIST)) {
+                accepted.add(ChatProtocol.FEATURE_PERSIST);
+            }
+            if (offered.contains(ChatProtocol.FEATURE_EVENTS)) {
+                accepted.add(ChatProtocol.FEATURE_EVENTS);
+            }
+            if (accepted.isEmpty()) {
+                return;
+            }
+            // HELLO_OK vẫn gửi bằng JSON, các frame sau đó mới theo định dạng đã chọn
             try {
-                out.write(jsonLine);
-                out.write("\n");
-                out.flush();
-                System.out.println("[ChatServer] Sent message to client " + socket.getRemoteSocketAddress() + ": " + jsonLine.substring(0, Math.min(100, jsonLine.length())) + "...");
+                send(ChatJson.line(ChatProtocol.helloOk(accepted)), false);
+                binary = accepted.contains(ChatProtocol.PROTO_BINARY);
+                persistAccepted = accepted.contains(ChatProtocol.FEATURE_PERSIST);
+                events = accepted.contains(ChatProtocol.FEATURE_EVENTS);
+            } catch (IOException e) {
+                System.err.println("[ChatServer] Cannot send HELLO_OK: " + e.getMessage());
+            }
+        }
+
+        /** Đưa tin vào pipeline lưu DB, lưu xong (commit) mới ACK cho người gửi */
+        private void persist(ChatMessage msg) {
+            boolean queued = persistence.submit(msg, success -> sendControl(ChatProtocol.ack(msg, success)));
+            if (!queued) {
+                System.err.println("[ChatServer] Persistence queue full, client must save via RMI (" + persistence + ")");
+                sendControl(ChatProtocol.ack(msg, false));
+            }
+        }
+
+        /** Gửi frame điều khiển theo định dạng đã bắt tay của client */
+        private void sendControl(ChatMessage control) {
+            try {
+                send(binary ? BinaryChatCodec.encode(control) : ChatJson.line(control), false);
+            } catch (IOException e) {
+                System.err.println("[ChatServer] Cannot encode control frame: " + e.getMessage());
+            }
+        }
+
+        /** Gọi từ thread broadcast: chỉ xếp frame (đã encode sẵn, dùng chung) vào hàng đợi, không chạm socket */
+        void send(byte[] frame, boolean droppable) {
+            if (!outbound.offer(frame, droppable)) {
+                outboundStats.recordSlowDisconnect();
+                System.err.println("[ChatServer] Client " + socket.getRemoteSocketAddress()
+                        + " is too slow (queue full), disconnecting. " + outboundStats);
+                disconnect();
+            } else if (writer != null) {
+                writer.signal();
+            }
+        }
+
+        private void writeFailed(IOException e) {
+            System.err.println("[ChatServer] Failed to send to client " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+            disconnect();
+        }
+
+        /** Writer riêng: lấy frame từ hàng đợi, gom các frame có sẵn rồi flush 1 lần */
+        void writeLoop() {
+            try {
+                byte[] frame;
+                while ((frame = outbound.take()) != null) {
+                    do {
+                        out.write(frame);
+                    } while ((frame = outbound.poll()) != null);
+                    out.flush();
+                }
             } catch (IOException e) {
                 System.err.println("[ChatServer] Failed to send to client " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
-                e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                disconnect();
             }
         }
+
+        /** Đóng socket để thread đọc thoát ra và dọn dẹp client */
+        private void disconnect() {
+            outbound.close();
+            try { socket.close(); } catch (IOException ignored) {}
+        }
     }
 }
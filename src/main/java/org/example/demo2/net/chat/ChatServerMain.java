@@ -1,11 +1,18 @@
 package org.example.demo2.net.chat;
 
+import org.example.demo2.config.ServerConfig;
+
 public class ChatServerMain {
 
     public static void main(String[] args) {
         try {
-            ChatServer server = new ChatServer(5555);
-            server.start();
+            if ("nio".equalsIgnoreCase(ServerConfig.CHAT_SERVER_MODE)) {
+                NioChatServer server = new NioChatServer(5555, ServerConfig.CHAT_IO_THREADS);
+                server.start();
+            } else {
+                ChatServer server = new ChatServer(5555);
+                server.start();
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
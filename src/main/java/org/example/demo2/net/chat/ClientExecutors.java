@@ -0,0 +1,33 @@
+package org.example.demo2.net.chat;
+
+import org.example.demo2.config.ServerConfig;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tạo executor chạy ClientHandler cho các TCP server blocking.
+ *  - platform: mỗi client 1 thread hệ điều hành (như trước)
+ *  - virtual: mỗi client 1 virtual thread, blocking I/O chỉ "park" chứ không giữ carrier thread
+ */
+public final class ClientExecutors {
+
+    private ClientExecutors() {
+    }
+
+    /** Executor theo cấu hình chat.thread.mode */
+    public static ExecutorService newClientExecutor(String namePrefix) {
+        return newClientExecutor(ServerConfig.CHAT_THREAD_MODE, namePrefix);
+    }
+
+    public static ExecutorService newClientExecutor(String mode, String namePrefix) {
+        if (isVirtual(mode)) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix, 0).factory());
+        }
+        return Executors.newThreadPerTaskExecutor(Thread.ofPlatform().name(namePrefix, 0).factory());
+    }
+
+    public static boolean isVirtual(String mode) {
+        return "virtual".equalsIgnoreCase(mode);
+    }
+}
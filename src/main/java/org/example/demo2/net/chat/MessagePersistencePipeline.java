@@ -0,0 +1,177 @@
+package org.example.demo2.net.chat;
+
+import org.example.demo2.config.ServerConfig;
+import org.example.demo2.dao.MessageDao;
+import org.example.demo2.model.ChatMessage;
+import org.example.demo2.model.MessageType;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Lưu tin nhắn phía server theo batch thay cho mỗi client gọi ChatService.saveMessage qua RMI.
+ *  - ChatServer xếp tin đã nhận vào hàng đợi giới hạn (đầy thì từ chối ngay, client tự lưu lại)
+ *  - 1 thread writer gom tối đa batchSize tin, chờ thêm tối đa lingerMillis để batch đầy hơn
+ *  - Mỗi batch = 1 transaction (MessageDao.saveBatch), commit xong mới báo ack cho người gửi
+ *  - Batch lỗi thì lưu lại từng tin để 1 tin hỏng không kéo cả batch thất bại
+ */
+public class MessagePersistencePipeline {
+
+    private final MessageDao messageDao;
+    private final BlockingQueue<Pending> queue;
+    private final int batchSize;
+    private final long lingerNanos;
+
+    private final AtomicLong persisted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    public MessagePersistencePipeline(MessageDao messageDao, int queueCapacity, int batchSize, long lingerMillis) {
+        this.messageDao = messageDao;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.batchSize = Math.max(1, batchSize);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, lingerMillis));
+    }
+
+    /** Pipeline theo cấu hình chat.persist.* */
+    public static MessagePersistencePipeline fromConfig() {
+        return new MessagePersistencePipeline(
+                new MessageDao(),
+                ServerConfig.CHAT_PERSIST_QUEUE_CAPACITY,
+                ServerConfig.CHAT_PERSIST_BATCH_SIZE,
+                ServerConfig.CHAT_PERSIST_LINGER_MS
+        );
+    }
+
+    public void start() {
+        Thread writer = new Thread(this::writeLoop, "ChatPersist-Writer");
+        writer.setDaemon(true);
+        writer.start();
+        System.out.println("[MessagePersistence] Started (batch=" + batchSize + ", linger="
+                + TimeUnit.NANOSECONDS.toMillis(lingerNanos) + "ms, queue=" + queue.remainingCapacity() + ")");
+    }
+
+    /** Các tin server tự lưu: tin nhắn thật trong conversation của DB (room là số) */
+    public static boolean accepts(ChatMessage msg) {
+        if (msg.type() != MessageType.TEXT && msg.type() != MessageType.IMAGE && msg.type() != MessageType.FILE) {
+            return false;
+        }
+        String room = msg.room();
+        if (room == null || room.isEmpty() || room.length() > 18) {
+            return false;
+        }
+        for (int i = 0; i < room.length(); i++) {
+            if (!Character.isDigit(room.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Xếp tin vào hàng đợi lưu, không block.
+     *
+     * @param onDone gọi trên thread writer với true khi đã commit, false khi lưu lỗi
+     * @return false nếu hàng đợi đầy (tin không được nhận, onDone không được gọi)
+     */
+    public boolean submit(ChatMessage msg, Consumer<Boolean> onDone) {
+        if (queue.offer(new Pending(msg, onDone))) {
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long wait = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || wait <= 0) {
+                        break;
+                    }
+                    Pending next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                System.err.println("[MessagePersistence] Writer error: " + e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        List<ChatMessage> messages = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            messages.add(p.message());
+        }
+        long start = System.nanoTime();
+        try {
+            messageDao.saveBatch(messages);
+            batches.incrementAndGet();
+            persisted.addAndGet(batch.size());
+            for (Pending p : batch) {
+                complete(p, true);
+            }
+            System.out.println("[MessagePersistence] Saved batch of " + batch.size() + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("[MessagePersistence] Batch of " + batch.size() + " failed, retrying one by one: " + e.getMessage());
+            for (Pending p : batch) {
+                saveOne(p);
+            }
+        }
+    }
+
+    private void saveOne(Pending p) {
+        try {
+            boolean ok = messageDao.save(p.message()) != null;
+            (ok ? persisted : failed).incrementAndGet();
+            complete(p, ok);
+        } catch (SQLException | RuntimeException e) {
+            failed.incrementAndGet();
+            System.err.println("[MessagePersistence] Cannot save message room=" + p.message().room()
+                    + ", from=" + p.message().from() + ": " + e.getMessage());
+            complete(p, false);
+        }
+    }
+
+    private void complete(Pending p, boolean success) {
+        try {
+            p.onDone().accept(success);
+        } catch (RuntimeException e) {
+            System.err.println("[MessagePersistence] Ack callback error: " + e.getMessage());
+        }
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    @Override
+    public String toString() {
+        return "persisted=" + persisted.get() + ", batches=" + batches.get() + ", failed=" + failed.get()
+                + ", rejected=" + rejected.get() + ", queued=" + queue.size();
+    }
+
+    private record Pending(ChatMessage message, Consumer<Boolean> onDone) {}
+}
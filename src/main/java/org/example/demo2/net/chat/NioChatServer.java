@@ -0,0 +1,546 @@
+package org.example.demo2.net.chat;
+
+import org.example.demo2.config.ServerConfig;
+import org.example.demo2.model.ChatMessage;
+import org.example.demo2.model.MessageType;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TCP ChatServer non-blocking (NIO Selector) thay cho mô hình thread-per-client:
+ *  - 1 thread accept + N I/O loop (mặc định = số core), mỗi loop 1 Selector
+ *  - Decode tăng dần các frame JSON kết thúc bằng '\n', buffer cho frame dở dang lấy từ pool
+ *  - Mỗi connection có hàng đợi outbound riêng có giới hạn (OutboundQueue, cấu hình chat.outbound.*),
+ *    chỉ I/O loop sở hữu mới ghi vào socket; client đọc chậm làm đầy hàng đợi thì bỏ frame typing/presence
+ *    hoặc bị ngắt, không để heap server phình theo
+ *  - Định tuyến theo room (RoomSubscriptions) chạy trên các "lane" riêng vì có thể chạm DB;
+ *    mỗi room luôn vào cùng 1 lane nên thứ tự tin trong room được giữ nguyên.
+ *    Hàng đợi của lane có giới hạn (chat.route.queue.capacity): DB chậm làm lane đầy thì bỏ frame
+ *    typing/presence, tin thật thì giữ lại trên connection gửi (theo thứ tự) và ngừng đọc socket của riêng
+ *    connection đó (bỏ OP_READ, TCP tự dồn ngược về người gửi); loop thử xếp lại mỗi ROUTE_RETRY_MILLIS,
+ *    lane có chỗ thì đọc tiếp. I/O loop không bao giờ chặn, các connection khác trên loop không bị ảnh hưởng
+ *  - Cùng protocol với ChatServer (mỗi dòng 1 ChatMessage) nên ChatClient không cần đổi;
+ *    chỉ hỗ trợ JSON, trong HELLO chỉ đồng ý tính năng "events" (sự kiện đẩy qua pushToUser)
+ */
+public class NioChatServer implements UserPushChannel {
+
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 1024;
+    private static final int MAX_FRAME_BYTES = 1024 * 1024;
+    private static final int ACCEPT_BACKLOG = 1024;
+    private static final long ROUTE_RETRY_MILLIS = 10;
+
+    private final int port;
+    private final int ioThreads;
+    private final Set<Connection> clients = ConcurrentHashMap.newKeySet();
+    private final RoomSubscriptions<Connection> subscriptions = new RoomSubscriptions<>();
+    private final ThreadPoolExecutor[] routeLanes;
+    private final ByteBufferPool bufferPool = new ByteBufferPool(READ_BUFFER_SIZE, MAX_POOLED_BUFFERS);
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final OutboundQueue.Stats outboundStats = new OutboundQueue.Stats();
+    // Lane đầy: số lần 1 connection bị ngừng đọc, số frame tạm thời bị bỏ, số connection đang ngừng đọc
+    private final AtomicLong routePushbacks = new AtomicLong();
+    private final AtomicLong routeDropped = new AtomicLong();
+    private final AtomicInteger readsPaused = new AtomicInteger();
+
+    public NioChatServer(int port, int ioThreads) {
+        this.port = port;
+        this.ioThreads = Math.max(1, ioThreads);
+        this.routeLanes = new ThreadPoolExecutor[this.ioThreads];
+        int capacity = Math.max(1, ServerConfig.CHAT_ROUTE_QUEUE_CAPACITY);
+        for (int i = 0; i < routeLanes.length; i++) {
+            routeLanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(capacity),
+                    Thread.ofPlatform().name("ChatRoute-" + i).daemon(true).factory());
+            // Thread của lane chạy sẵn để onFrame xếp task thẳng vào hàng đợi (offer không chặn)
+            routeLanes[i].prestartAllCoreThreads();
+        }
+    }
+
+    public void start() throws IOException {
+        IoLoop[] loops = new IoLoop[ioThreads];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop();
+            Thread t = new Thread(loops[i], "ChatIoLoop-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+            System.out.println("[NioChatServer] Listening on port " + port + " with " + loops.length + " I/O loops");
+
+            while (true) {
+                SocketChannel channel = server.accept();
+                try {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                } catch (IOException e) {
+                    System.err.println("[NioChatServer] Cannot configure client socket: " + e.getMessage());
+                    try { channel.close(); } catch (IOException ignored) {}
+                    continue;
+                }
+                // Chia đều connection cho các loop (round-robin)
+                loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)].register(channel);
+            }
+        }
+    }
+
+    public OutboundQueue.Stats getOutboundStats() {
+        return outboundStats;
+    }
+
+    /** Bộ đếm hàng đợi định tuyến */
+    public String getRouteStats() {
+        int depth = 0;
+        for (ThreadPoolExecutor lane : routeLanes) {
+            depth += lane.getQueue().size();
+        }
+        return "routeDepth=" + depth + ", pushbacks=" + routePushbacks.get()
+                + ", dropped=" + routeDropped.get() + ", readsPaused=" + readsPaused.get();
+    }
+
+    @Override
+    public int pushToUser(String userId, ChatMessage event) {
+        byte[] shared;
+        try {
+            shared = ChatJson.line(event);
+        } catch (IOException e) {
+            System.err.println("[NioChatServer] Cannot serialize event: " + e.getMessage());
+            return 0;
+        }
+        int sent = 0;
+        for (Connection c : subscriptions.connectionsOf(userId)) {
+            if (c.events) {
+                c.send(shared, false);
+                sent++;
+            }
+        }
+        return sent;
+    }
+
+    /** Broadcast 1 message cho các client khác trong cùng room (chạy trên route lane) */
+    private void broadcast(ChatMessage msg, Connection from) {
+        try {
+            if (msg.type() == MessageType.SYSTEM) {
+                // Tin hệ thống (thêm/rời nhóm...) -> danh sách thành viên có thể đã đổi
+                subscriptions.invalidate(msg.room());
+            }
+            // Encode 1 lần, frame đã có sẵn '\n'; mọi người nhận dùng chung mảng này (không sửa)
+            byte[] shared = ChatJson.line(msg);
+            boolean droppable = ChatProtocol.isEphemeral(msg);
+
+            int sentCount = 0;
+            for (Connection c : subscriptions.recipients(msg.room())) {
+                // Gửi đến các client khác trong room (không gửi lại cho người gửi)
+                if (c != from) {
+                    c.send(shared, droppable);
+                    sentCount++;
+                }
+            }
+            System.out.println("[NioChatServer] Broadcast room=" + msg.room() + ", from=" + msg.from() + " to " + sentCount + " clients");
+        } catch (Exception e) {
+            System.err.println("[NioChatServer] Cannot serialize: " + e.getMessage());
+        }
+    }
+
+    /** Xử lý 1 frame hoàn chỉnh (không gồm '\n') */
+    private void onFrame(Connection conn, byte[] data, int offset, int length) {
+        // Bỏ '\r' cuối dòng nếu client gửi CRLF
+        if (length > 0 && data[offset + length - 1] == '\r') {
+            length--;
+        }
+        if (length == 0) {
+            return;
+        }
+        try {
+            // Decode streaming thẳng từ buffer đọc, không tạo String
+            ChatMessage msg = ChatJson.read(data, offset, length);
+            if (ChatProtocol.isControl(msg)) {
+                // Frame điều khiển chỉ cập nhật chỉ mục trong bộ nhớ, xử lý ngay trên loop
+                handleControl(conn, msg);
+                return;
+            }
+            ThreadPoolExecutor lane = routeLanes[Math.floorMod(String.valueOf(msg.room()).hashCode(), routeLanes.length)];
+            route(lane, msg, conn);
+        } catch (Exception e) {
+            System.err.println("[NioChatServer] Error parsing message from " + conn.remote + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Chạy trên I/O loop, không chặn: xếp tin vào lane; lane đầy thì bỏ frame tạm thời, tin thật thì giữ lại
+     * trên connection và ngừng đọc connection đó (xem doc class).
+     */
+    private void route(ThreadPoolExecutor lane, ChatMessage msg, Connection conn) {
+        Runnable task = () -> broadcast(msg, conn);
+        if (ChatProtocol.isEphemeral(msg)) {
+            if (!lane.getQueue().offer(task)) {
+                routeDropped.incrementAndGet();
+            }
+            return;
+        }
+        // Đã có tin đang chờ thì xếp sau nó để giữ thứ tự tin của người gửi
+        if (conn.parked.isEmpty() && lane.getQueue().offer(task)) {
+            return;
+        }
+        conn.parked.addLast(new ParkedRoute(lane, task));
+        conn.pauseReads();
+    }
+
+    /** Tin chờ lane có chỗ */
+    private record ParkedRoute(ThreadPoolExecutor lane, Runnable task) {
+    }
+
+    private void handleControl(Connection conn, ChatMessage msg) {
+        switch (String.valueOf(msg.text())) {
+            case ChatProtocol.HELLO -> {
+                subscriptions.identify(conn, msg.from());
+                if (ChatProtocol.features(msg.payloadRef()).contains(ChatProtocol.FEATURE_EVENTS)) {
+                    try {
+                        conn.send(ChatJson.line(ChatProtocol.helloOk(List.of(ChatProtocol.FEATURE_EVENTS))), false);
+                        conn.events = true;
+                    } catch (IOException e) {
+                        System.err.println("[NioChatServer] Cannot send HELLO_OK: " + e.getMessage());
+                    }
+                }
+            }
+            case ChatProtocol.JOIN -> subscriptions.join(conn, msg.payloadRef());
+            case ChatProtocol.LEAVE -> subscriptions.leave(conn, msg.payloadRef());
+            default -> System.err.println("[NioChatServer] Unknown control frame: " + msg.text());
+        }
+    }
+
+    /**
+     * 1 I/O loop = 1 thread + 1 Selector, phục vụ nhiều connection.
+     * Mọi thao tác đọc/ghi socket của connection đều chạy trên thread của loop.
+     */
+    private final class IoLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pendingRegistrations = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean wakeupPending = new AtomicBoolean();
+        // Connection đang ngừng đọc vì lane đầy, chỉ loop thread dùng
+        private final List<Connection> paused = new ArrayList<>();
+        // Loop chạy đơn luồng nên dùng chung 1 buffer đọc cho mọi connection
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+        IoLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            pendingRegistrations.offer(channel);
+            wakeup();
+        }
+
+        void requestWrite(Connection conn) {
+            pendingWrites.offer(conn);
+            wakeup();
+        }
+
+        private void wakeup() {
+            if (wakeupPending.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    if (paused.isEmpty()) {
+                        selector.select();
+                    } else {
+                        selector.select(ROUTE_RETRY_MILLIS);
+                    }
+                    wakeupPending.set(false);
+                    processRegistrations();
+                    processWrites();
+                    resumePaused();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection conn = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                conn.onReadable(readBuffer);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                conn.flush();
+                            }
+                        } catch (IOException e) {
+                            conn.close(e.getMessage());
+                        }
+                    }
+                } catch (Exception e) {
+                    System.err.println("[NioChatServer] I/O loop error: " + e.getMessage());
+                }
+            }
+        }
+
+        private void processRegistrations() {
+            SocketChannel channel;
+            while ((channel = pendingRegistrations.poll()) != null) {
+                try {
+                    Connection conn = new Connection(channel, this);
+                    conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+                    clients.add(conn);
+                    subscriptions.add(conn);
+                    System.out.println("[NioChatServer] New client from " + conn.remote + " (total " + clients.size() + ")");
+                } catch (IOException e) {
+                    System.err.println("[NioChatServer] Cannot register client: " + e.getMessage());
+                    try { channel.close(); } catch (IOException ignored) {}
+                }
+            }
+        }
+
+        /** Xếp lại tin đang chờ vào lane, xếp hết thì cho connection đọc tiếp */
+        private void resumePaused() {
+            Iterator<Connection> it = paused.iterator();
+            while (it.hasNext()) {
+                Connection conn = it.next();
+                if (conn.closed) {
+                    it.remove();
+                } else if (conn.drainParked()) {
+                    conn.resumeReads();
+                    it.remove();
+                }
+            }
+        }
+
+        private void processWrites() {
+            Connection conn;
+            while ((conn = pendingWrites.poll()) != null) {
+                try {
+                    conn.flush();
+                } catch (IOException e) {
+                    conn.close(e.getMessage());
+                }
+            }
+        }
+    }
+
+    /** Trạng thái của 1 client trên NIO server */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final IoLoop loop;
+        private final SocketAddress remote;
+        private final OutboundQueue outbound = OutboundQueue.fromConfig(outboundStats);
+        // Frame đang ghi dở (socket đầy), chỉ loop thread dùng
+        private ByteBuffer writing;
+        // Hàng đợi đầy với frame không bỏ được: loop sẽ ngắt client ở lần flush tới
+        private volatile boolean tooSlow;
+        // true khi đã xếp lịch flush hoặc đang chờ OP_WRITE
+        private final AtomicBoolean writeScheduled = new AtomicBoolean();
+        private SelectionKey key;
+        // Chỉ loop thread dùng: tin chờ lane có chỗ (theo thứ tự nhận), đang ngừng đọc, đang chờ OP_WRITE
+        private final ArrayDeque<ParkedRoute> parked = new ArrayDeque<>();
+        private boolean readPaused;
+        private boolean waitingWrite;
+        // Frame chưa gặp '\n' (chỉ giữ buffer khi thật sự có dữ liệu dở dang)
+        private ByteBuffer partial;
+        private volatile boolean closed;
+        // Client đã bắt tay "events"
+        private volatile boolean events;
+
+        Connection(SocketChannel channel, IoLoop loop) throws IOException {
+            this.channel = channel;
+            this.loop = loop;
+            this.remote = channel.getRemoteAddress();
+        }
+
+        /**
+         * Có thể gọi từ bất kỳ thread nào: xếp frame vào hàng đợi và nhờ loop ghi.
+         * frame dùng chung giữa các người nhận nên không được sửa.
+         */
+        void send(byte[] frame, boolean droppable) {
+            if (closed) {
+                return;
+            }
+            if (!outbound.offer(frame, droppable) && !tooSlow) {
+                // Không đóng ở đây (có thể không phải loop thread), để flush() trên loop ngắt client
+                tooSlow = true;
+                outboundStats.recordSlowDisconnect();
+                System.err.println("[NioChatServer] Client " + remote + " is too slow (queue full), disconnecting. " + outboundStats);
+                // Có thể đang chờ OP_WRITE (client không đọc nữa) nên luôn nhờ loop xử lý ngay
+                loop.requestWrite(this);
+                return;
+            }
+            if (writeScheduled.compareAndSet(false, true)) {
+                loop.requestWrite(this);
+            }
+        }
+
+        /** Chạy trên loop thread: ghi hết hàng đợi, socket đầy thì chờ OP_WRITE */
+        void flush() throws IOException {
+            if (closed) {
+                return;
+            }
+            if (tooSlow) {
+                throw new IOException("outbound queue full");
+            }
+            while (true) {
+                while (writing != null || (writing = nextFrame()) != null) {
+                    channel.write(writing);
+                    if (writing.hasRemaining()) {
+                        waitingWrite = true;
+                        updateInterest();
+                        return;
+                    }
+                    writing = null;
+                }
+                waitingWrite = false;
+                updateInterest();
+                writeScheduled.set(false);
+                // Frame mới có thể vừa được thêm sau lần poll cuối
+                if (outbound.depth() == 0 || !writeScheduled.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+
+        private void updateInterest() {
+            key.interestOps((readPaused ? 0 : SelectionKey.OP_READ) | (waitingWrite ? SelectionKey.OP_WRITE : 0));
+        }
+
+        /** Lane đầy: ngừng đọc socket này cho tới khi các tin đang chờ vào được lane */
+        void pauseReads() {
+            if (readPaused) {
+                return;
+            }
+            readPaused = true;
+            updateInterest();
+            loop.paused.add(this);
+            routePushbacks.incrementAndGet();
+            readsPaused.incrementAndGet();
+        }
+
+        void resumeReads() {
+            readPaused = false;
+            updateInterest();
+            readsPaused.decrementAndGet();
+        }
+
+        /** @return true nếu mọi tin đang chờ đã vào lane */
+        boolean drainParked() {
+            ParkedRoute next;
+            while ((next = parked.peekFirst()) != null) {
+                if (!next.lane().getQueue().offer(next.task())) {
+                    return false;
+                }
+                parked.pollFirst();
+            }
+            return true;
+        }
+
+        private ByteBuffer nextFrame() {
+            byte[] frame = outbound.poll();
+            return frame == null ? null : ByteBuffer.wrap(frame);
+        }
+
+        /** Chạy trên loop thread: đọc 1 lần và tách các frame hoàn chỉnh */
+        void onReadable(ByteBuffer readBuffer) throws IOException {
+            readBuffer.clear();
+            int n = channel.read(readBuffer);
+            if (n < 0) {
+                close("EOF");
+                return;
+            }
+            if (n == 0) {
+                return;
+            }
+            readBuffer.flip();
+
+            byte[] data = readBuffer.array();
+            int start = readBuffer.position();
+            int limit = readBuffer.limit();
+            for (int i = start; i < limit; i++) {
+                if (data[i] != '\n') {
+                    continue;
+                }
+                if (partial == null) {
+                    // Trường hợp phổ biến: cả frame nằm gọn trong lần đọc này, parse thẳng từ buffer
+                    onFrame(this, data, start, i - start);
+                } else {
+                    appendPartial(data, start, i - start);
+                    if (closed) {
+                        return;
+                    }
+                    onFrame(this, partial.array(), 0, partial.position());
+                    bufferPool.release(partial);
+                    partial = null;
+                }
+                start = i + 1;
+            }
+            if (start < limit) {
+                appendPartial(data, start, limit - start);
+            }
+        }
+
+        private void appendPartial(byte[] data, int offset, int length) {
+            if (partial == null) {
+                partial = bufferPool.acquire();
+            }
+            if (partial.remaining() < length) {
+                int needed = partial.position() + length;
+                if (needed > MAX_FRAME_BYTES) {
+                    close("frame too large (" + needed + " bytes)");
+                    return;
+                }
+                ByteBuffer grown = ByteBuffer.allocate(Math.min(MAX_FRAME_BYTES, Math.max(partial.capacity() * 2, needed)));
+                partial.flip();
+                grown.put(partial);
+                bufferPool.release(partial);
+                partial = grown;
+            }
+            partial.put(data, offset, length);
+        }
+
+        void close(String reason) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            clients.remove(this);
+            subscriptions.remove(this);
+            if (key != null) {
+                key.cancel();
+            }
+            try { channel.close(); } catch (IOException ignored) {}
+            bufferPool.release(partial);
+            partial = null;
+            outbound.close();
+            writing = null;
+            parked.clear();
+            if (readPaused) {
+                readPaused = false;
+                readsPaused.decrementAndGet();
+            }
+            System.out.println("[NioChatServer] Client " + remote + " disconnected (" + reason + "). Remaining clients: " + clients.size());
+        }
+    }
+}
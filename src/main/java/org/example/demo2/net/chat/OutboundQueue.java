@@ -0,0 +1,230 @@
+package org.example.demo2.net.chat;
+
+import org.example.demo2.config.ServerConfig;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hàng đợi gửi có giới hạn cho 1 connection của TCP chat server (ChatServer blocking và NioChatServer).
+ *  - Thread broadcast chỉ xếp frame vào hàng đợi (không bao giờ chạm socket)
+ *  - 1 writer riêng của connection lấy frame ra và ghi xuống socket
+ *  - Khi hàng đợi đầy, xử lý theo OverflowPolicy để 1 client chậm không kéo cả room chậm theo
+ *
+ * Frame "droppable" là sự kiện tạm thời (typing/presence): mất vài frame không sao,
+ * frame mới hơn sẽ thay thế. Tin nhắn thật không bao giờ bị bỏ âm thầm.
+ */
+public class OutboundQueue {
+
+    public enum OverflowPolicy {
+        /** Bỏ frame typing/presence cũ nhất; nếu toàn tin thật thì ngắt client */
+        DROP_OLDEST,
+        /** Ngắt client ngay khi hàng đợi đầy */
+        DISCONNECT,
+        /** Cho phép tràn thêm theo dung lượng byte (spill), vượt giới hạn thì ngắt client */
+        SPILL;
+
+        public static OverflowPolicy parse(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase());
+            } catch (Exception e) {
+                System.err.println("[OutboundQueue] Unknown overflow policy '" + value + "', using DROP_OLDEST");
+                return DROP_OLDEST;
+            }
+        }
+    }
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final long spillLimitBytes;
+    private final Stats stats;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    private long spilledBytes;
+    private boolean closed;
+
+    public OutboundQueue(int capacity, OverflowPolicy policy, long spillLimitBytes, Stats stats) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.spillLimitBytes = spillLimitBytes;
+        this.stats = stats;
+    }
+
+    /** Hàng đợi theo cấu hình chat.outbound.* */
+    public static OutboundQueue fromConfig(Stats stats) {
+        return new OutboundQueue(
+                ServerConfig.CHAT_OUTBOUND_CAPACITY,
+                OverflowPolicy.parse(ServerConfig.CHAT_OUTBOUND_POLICY),
+                ServerConfig.CHAT_OUTBOUND_SPILL_BYTES,
+                stats
+        );
+    }
+
+    /**
+     * Xếp 1 frame vào hàng đợi, không block.
+     *
+     * @return false nếu client quá chậm và cần bị ngắt kết nối
+     */
+    public boolean offer(byte[] data, boolean droppable) {
+        lock.lock();
+        try {
+            if (closed) {
+                return true;
+            }
+            if (frames.size() >= capacity && !makeRoom(data, droppable)) {
+                return droppable && policy == OverflowPolicy.DROP_OLDEST;
+            }
+            frames.addLast(new Frame(data, droppable, frames.size() >= capacity));
+            stats.enqueued.incrementAndGet();
+            stats.depth.incrementAndGet();
+            stats.maxDepth.accumulateAndGet(frames.size(), Math::max);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Gọi khi đang giữ lock và hàng đợi đã đầy; true nếu được phép thêm frame mới */
+    private boolean makeRoom(byte[] data, boolean droppable) {
+        switch (policy) {
+            case DROP_OLDEST -> {
+                Iterator<Frame> it = frames.iterator();
+                while (it.hasNext()) {
+                    if (it.next().droppable) {
+                        it.remove();
+                        stats.depth.decrementAndGet();
+                        stats.dropped.incrementAndGet();
+                        return true;
+                    }
+                }
+                // Không còn frame tạm thời nào để bỏ: bỏ chính frame mới nếu nó cũng là tạm thời
+                if (droppable) {
+                    stats.dropped.incrementAndGet();
+                }
+                return false;
+            }
+            case SPILL -> {
+                if (spilledBytes + data.length > spillLimitBytes) {
+                    return false;
+                }
+                spilledBytes += data.length;
+                stats.spilled.incrementAndGet();
+                return true;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Writer gọi để lấy frame tiếp theo, chờ nếu hàng đợi rỗng.
+     *
+     * @return null nếu hàng đợi đã đóng
+     */
+    public byte[] take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (frames.isEmpty()) {
+                if (closed) {
+                    return null;
+                }
+                notEmpty.await();
+            }
+            return next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Lấy frame tiếp theo nếu có sẵn (không chờ), để writer gom nhiều frame trước 1 lần flush */
+    public byte[] poll() {
+        lock.lock();
+        try {
+            return frames.isEmpty() ? null : next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private byte[] next() {
+        Frame frame = frames.pollFirst();
+        if (frame.spilled) {
+            spilledBytes -= frame.data.length;
+        }
+        stats.depth.decrementAndGet();
+        return frame.data;
+    }
+
+    public int depth() {
+        lock.lock();
+        try {
+            return frames.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Đóng hàng đợi, bỏ các frame chưa gửi và đánh thức writer */
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            stats.depth.addAndGet(-frames.size());
+            frames.clear();
+            spilledBytes = 0;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private record Frame(byte[] data, boolean droppable, boolean spilled) {}
+
+    /** Bộ đếm dùng chung cho mọi hàng đợi của 1 server */
+    public static final class Stats {
+        private final AtomicLong enqueued = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong spilled = new AtomicLong();
+        private final AtomicLong slowDisconnects = new AtomicLong();
+        private final AtomicLong depth = new AtomicLong();
+        private final AtomicLong maxDepth = new AtomicLong();
+
+        public void recordSlowDisconnect() {
+            slowDisconnects.incrementAndGet();
+        }
+
+        public long enqueued() { return enqueued.get(); }
+        public long dropped() { return dropped.get(); }
+        public long spilled() { return spilled.get(); }
+        public long slowDisconnects() { return slowDisconnects.get(); }
+        /** Tổng số frame đang chờ gửi trên mọi connection */
+        public long depth() { return depth.get(); }
+        /** Độ sâu lớn nhất từng thấy của 1 hàng đợi */
+        public long maxDepth() { return maxDepth.get(); }
+
+        @Override
+        public String toString() {
+            return "enqueued=" + enqueued() + ", depth=" + depth() + ", maxDepth=" + maxDepth()
+                    + ", dropped=" + dropped() + ", spilled=" + spilled() + ", slowDisconnects=" + slowDisconnects();
+        }
+    }
+}
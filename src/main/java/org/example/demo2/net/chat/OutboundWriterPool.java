@@ -0,0 +1,95 @@
+package org.example.demo2.net.chat;
+
+import org.example.demo2.config.ServerConfig;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Pool writer nhỏ dùng chung cho các TCP server blocking ở chế độ platform thread.
+ *  - Mỗi client chỉ giữ 1 thread đọc; frame trong OutboundQueue được xả bởi 1 thread của pool
+ *  - send() chỉ lên lịch 1 lượt xả nếu connection chưa có lượt nào đang chờ (giống writeScheduled của NIO)
+ *  - Mỗi lượt ghi tối đa MAX_FRAMES_PER_TURN frame rồi nhường, client nhiều tin không giữ pool mãi
+ *
+ * Socket blocking nên client chậm có thể giữ 1 writer trong lúc ghi; hàng đợi của client đó đầy
+ * thì server ngắt kết nối, socket đóng làm lệnh ghi đang chờ thoát ra.
+ */
+public final class OutboundWriterPool {
+
+    private static final int MAX_FRAMES_PER_TURN = 64;
+
+    private final ExecutorService pool;
+
+    public OutboundWriterPool(int threads, String namePrefix) {
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads),
+                Thread.ofPlatform().name(namePrefix, 0).daemon(true).factory());
+    }
+
+    /** Pool theo chat.writer.threads, null ở chế độ virtual (mỗi client có writer riêng) */
+    public static OutboundWriterPool fromConfig(String namePrefix) {
+        if (ClientExecutors.isVirtual(ServerConfig.CHAT_THREAD_MODE)) {
+            return null;
+        }
+        return new OutboundWriterPool(ServerConfig.CHAT_WRITER_THREADS, namePrefix);
+    }
+
+    /**
+     * Gắn hàng đợi của 1 connection vào pool.
+     *
+     * @param onError gọi khi ghi socket lỗi (connection tự đóng)
+     */
+    public Writer register(OutboundQueue queue, OutputStream out, Consumer<IOException> onError) {
+        return new Writer(queue, out, onError);
+    }
+
+    /** Writer của 1 connection, chỉ 1 lượt xả chạy tại 1 thời điểm nên out không bị ghi song song */
+    public final class Writer {
+        private final OutboundQueue queue;
+        private final OutputStream out;
+        private final Consumer<IOException> onError;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Writer(OutboundQueue queue, OutputStream out, Consumer<IOException> onError) {
+            this.queue = queue;
+            this.out = out;
+            this.onError = onError;
+        }
+
+        /** Gọi sau khi xếp frame vào hàng đợi */
+        public void signal() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    pool.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                byte[] frame;
+                int written = 0;
+                while (written < MAX_FRAMES_PER_TURN && (frame = queue.poll()) != null) {
+                    out.write(frame);
+                    written++;
+                }
+                out.flush();
+            } catch (IOException e) {
+                // Giữ scheduled = true: connection sắp đóng, không lên lịch thêm
+                onError.accept(e);
+                return;
+            }
+            scheduled.set(false);
+            // Frame đến trong lúc đang ghi (hoặc còn dư sau MAX_FRAMES_PER_TURN) -> xếp lượt mới cuối pool
+            if (queue.depth() > 0 && !queue.isClosed()) {
+                signal();
+            }
+        }
+    }
+}
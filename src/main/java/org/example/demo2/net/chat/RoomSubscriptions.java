@@ -0,0 +1,194 @@
+package org.example.demo2.net.chat;
+
+import org.example.demo2.dao.ConversationDao;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chỉ mục room -> các connection cần nhận tin của room đó, dùng chung cho ChatServer và NioChatServer.
+ *  - HELLO(userId): connection nhận tin của mọi conversation mà user là participant
+ *  - JOIN(room): connection đăng ký thẳng 1 room (console client, room không có trong DB)
+ *  - Participant của conversation lấy từ ConversationDao.getParticipantIds, cache theo TTL
+ *  - Connection chưa gửi HELLO/JOIN (client cũ) vẫn nhận broadcast toàn bộ như trước
+ *
+ * @param <C> kiểu connection của server (ClientHandler, Connection...)
+ */
+public class RoomSubscriptions<C> {
+
+    private static final long PARTICIPANT_TTL_MILLIS = 30_000;
+    private static final int MAX_CACHED_ROOMS = 10_000;
+
+    private final ConversationDao conversationDao = new ConversationDao();
+
+    // Tất cả connection đang mở -> trạng thái đăng ký
+    private final Map<C, Subscriber> subscribers = new ConcurrentHashMap<>();
+    // Connection chưa định danh/đăng ký room nào
+    private final Set<C> legacy = ConcurrentHashMap.newKeySet();
+    // userId -> các connection của user đó (1 user có thể mở nhiều client)
+    private final Map<String, Set<C>> byUser = new ConcurrentHashMap<>();
+    // room -> các connection đã JOIN trực tiếp
+    private final Map<String, Set<C>> byRoom = new ConcurrentHashMap<>();
+    // conversationId -> danh sách userId participant (cache)
+    private final Map<String, Participants> participants = new ConcurrentHashMap<>();
+
+    public void add(C conn) {
+        subscribers.put(conn, new Subscriber());
+        legacy.add(conn);
+    }
+
+    public void remove(C conn) {
+        legacy.remove(conn);
+        Subscriber s = subscribers.remove(conn);
+        if (s == null) {
+            return;
+        }
+        if (s.userId != null) {
+            removeFrom(byUser, s.userId, conn);
+        }
+        for (String room : s.rooms) {
+            removeFrom(byRoom, room, conn);
+        }
+    }
+
+    /** Gắn connection với userId (frame HELLO) */
+    public void identify(C conn, String userId) {
+        Subscriber s = subscribers.get(conn);
+        if (s == null || userId == null || userId.isBlank()) {
+            return;
+        }
+        if (s.userId != null) {
+            removeFrom(byUser, s.userId, conn);
+        }
+        s.userId = userId;
+        addTo(byUser, userId, conn);
+        legacy.remove(conn);
+    }
+
+    public void join(C conn, String room) {
+        Subscriber s = subscribers.get(conn);
+        if (s == null || room == null) {
+            return;
+        }
+        s.rooms.add(room);
+        addTo(byRoom, room, conn);
+        legacy.remove(conn);
+    }
+
+    public void leave(C conn, String room) {
+        Subscriber s = subscribers.get(conn);
+        if (s == null || room == null) {
+            return;
+        }
+        s.rooms.remove(room);
+        removeFrom(byRoom, room, conn);
+    }
+
+    /** Xoá cache participant của room (khi có thành viên vào/ra nhóm) */
+    public void invalidate(String room) {
+        if (room != null) {
+            participants.remove(room);
+        }
+    }
+
+    /** Các connection đã HELLO bằng userId này (rỗng nếu user không online) */
+    public Set<C> connectionsOf(String userId) {
+        Set<C> conns = userId != null ? byUser.get(userId) : null;
+        return conns != null ? conns : Set.of();
+    }
+
+    public int size() {
+        return subscribers.size();
+    }
+
+    /**
+     * Các connection cần nhận tin của room.
+     * Có thể truy vấn DB nếu cache participant hết hạn, nên không gọi trên I/O loop.
+     */
+    public Set<C> recipients(String room) {
+        List<String> userIds = participantsOf(room);
+        if (userIds == null) {
+            // Không đọc được participant (lỗi DB): quay về broadcast cho tất cả để không mất tin
+            return subscribers.keySet();
+        }
+        Set<C> result = new HashSet<>(legacy);
+        Set<C> joined = byRoom.get(room);
+        if (joined != null) {
+            result.addAll(joined);
+        }
+        for (String userId : userIds) {
+            Set<C> conns = byUser.get(userId);
+            if (conns != null) {
+                result.addAll(conns);
+            }
+        }
+        return result;
+    }
+
+    private List<String> participantsOf(String room) {
+        if (room == null) {
+            return List.of();
+        }
+        long now = System.currentTimeMillis();
+        Participants cached = participants.get(room);
+        if (cached != null && now - cached.loadedAt() < PARTICIPANT_TTL_MILLIS) {
+            return cached.userIds();
+        }
+        List<String> loaded = loadParticipants(room);
+        if (loaded != null) {
+            if (participants.size() >= MAX_CACHED_ROOMS) {
+                participants.clear();
+            }
+            participants.put(room, new Participants(loaded, now));
+        }
+        return loaded;
+    }
+
+    private List<String> loadParticipants(String room) {
+        long conversationId;
+        try {
+            conversationId = Long.parseLong(room);
+        } catch (NumberFormatException e) {
+            // Room không phải conversation trong DB (ví dụ "general" của console client)
+            return List.of();
+        }
+        try {
+            List<String> userIds = new ArrayList<>();
+            for (Long id : conversationDao.getParticipantIds(conversationId)) {
+                userIds.add(id.toString());
+            }
+            return userIds;
+        } catch (SQLException e) {
+            System.err.println("[RoomSubscriptions] Cannot load participants of room " + room + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // compute/computeIfPresent để thêm/xoá không "đua" với việc dọn set rỗng
+    private void addTo(Map<String, Set<C>> index, String key, C conn) {
+        index.compute(key, (k, set) -> {
+            Set<C> target = set != null ? set : ConcurrentHashMap.newKeySet();
+            target.add(conn);
+            return target;
+        });
+    }
+
+    private void removeFrom(Map<String, Set<C>> index, String key, C conn) {
+        index.computeIfPresent(key, (k, set) -> {
+            set.remove(conn);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private static final class Subscriber {
+        private volatile String userId;
+        private final Set<String> rooms = ConcurrentHashMap.newKeySet();
+    }
+
+    private record Participants(List<String> userIds, long loadedAt) {}
+}
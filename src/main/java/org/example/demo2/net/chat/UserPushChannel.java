@@ -0,0 +1,20 @@
+package org.example.demo2.net.chat;
+
+import org.example.demo2.model.ChatMessage;
+
+/**
+ * Kênh server đẩy frame tới tất cả kết nối TCP chat của 1 user (ChatServer, NioChatServer).
+ * RMI service dùng để báo sự kiện (ChatProtocol.event) thay cho việc client poll định kỳ.
+ */
+public interface UserPushChannel {
+
+    /** Không có chat server chạy cùng process: bỏ qua, client vẫn tự poll */
+    UserPushChannel NONE = (userId, event) -> 0;
+
+    /**
+     * Đẩy frame cho các kết nối của user đã bắt tay FEATURE_EVENTS.
+     *
+     * @return số kết nối đã xếp frame vào hàng đợi gửi
+     */
+    int pushToUser(String userId, ChatMessage event);
+}
@@ -1,8 +1,15 @@
 package org.example.demo2.net.tcp;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.example.demo2.model.ChatMessage;
 import org.example.demo2.model.MessageType;
+import org.example.demo2.net.chat.ChatFrameReader;
+import org.example.demo2.net.chat.ChatJson;
+import org.example.demo2.net.chat.ChatProtocol;
+import org.example.demo2.net.chat.ClientExecutors;
+import org.example.demo2.net.chat.OutboundQueue;
+import org.example.demo2.net.chat.OutboundWriterPool;
 
 import java.io.*;
 import java.net.ServerSocket;
@@ -10,14 +17,17 @@ import java.net.Socket;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
 
 /**
  * TCP Server đa luồng cho chat và signaling video call.
  * 
  * Áp dụng: TCP Socket - Bài TCP
  * - Sử dụng ServerSocket để lắng nghe kết nối
- * - Mỗi client là một thread riêng (multi-threaded server)
+ * - Mỗi client là một thread riêng (multi-threaded server), platform hoặc virtual thread theo chat.thread.mode
  * - Đảm bảo độ tin cậy và thứ tự dữ liệu (reliable, ordered)
+ * - Mỗi client có hàng đợi gửi giới hạn (OutboundQueue), client chậm không chặn người gửi; ở chế độ platform
+ *   frame được ghi bởi pool writer dùng chung (OutboundWriterPool) thay vì thêm 1 thread cho mỗi client
  * - Dùng cho: đăng nhập, tin nhắn 1-1, tin nhắn nhóm, signaling video call
  * 
  * Protocol:
@@ -35,8 +45,19 @@ public class AegisTalkTCPServer {
     // Quản lý phòng: roomId -> Set<ClientHandler>
     private final Map<String, CopyOnWriteArraySet<ClientHandler>> roomClients = new ConcurrentHashMap<>();
     
+    private final ExecutorService clientExecutor;
+    private final OutboundQueue.Stats outboundStats = new OutboundQueue.Stats();
+    // null ở chế độ virtual: mỗi client có writeLoop riêng
+    private final OutboundWriterPool writerPool;
+    
     public AegisTalkTCPServer(int port) {
+        this(port, ClientExecutors.newClientExecutor("TCPClient-"));
+    }
+    
+    public AegisTalkTCPServer(int port, ExecutorService clientExecutor) {
         this.port = port;
+        this.clientExecutor = clientExecutor;
+        this.writerPool = OutboundWriterPool.fromConfig("TCPWriter-");
     }
     
     public void start() throws IOException {
@@ -49,12 +70,21 @@ public class AegisTalkTCPServer {
                 System.out.println("[AegisTalkTCPServer] New client from " + socket.getRemoteSocketAddress());
                 
                 ClientHandler handler = new ClientHandler(socket);
-                Thread t = new Thread(handler, "TCPClient-" + socket.getPort());
-                t.start();
+                clientExecutor.execute(handler);
+                if (writerPool == null) {
+                    clientExecutor.execute(handler::writeLoop);
+                }
             }
         }
     }
     
+    /**
+     * Bộ đếm hàng đợi gửi (độ sâu, số frame bị bỏ, số client bị ngắt vì chậm).
+     */
+    public OutboundQueue.Stats getOutboundStats() {
+        return outboundStats;
+    }
+    
     /**
      * Gửi message đến một user cụ thể.
      */
@@ -72,10 +102,12 @@ public class AegisTalkTCPServer {
         CopyOnWriteArraySet<ClientHandler> clients = roomClients.get(roomId);
         if (clients != null) {
             try {
-                String json = mapper.writeValueAsString(message);
+                // Encode 1 lần, mọi client trong room dùng chung frame
+                byte[] frame = ChatJson.line(message);
+                boolean droppable = ChatProtocol.isEphemeral(message);
                 for (ClientHandler c : clients) {
                     if (c != from) {
-                        c.sendRaw(json);
+                        c.sendFrame(frame, droppable);
                     }
                 }
             } catch (Exception e) {
@@ -89,27 +121,41 @@ public class AegisTalkTCPServer {
      */
     private class ClientHandler implements Runnable {
         private final Socket socket;
-        private final BufferedReader in;
-        private final BufferedWriter out;
+        private final ChatFrameReader in;
+        // Chỉ writer của client này ghi vào out
+        private final OutputStream out;
+        private final OutboundQueue outbound = OutboundQueue.fromConfig(outboundStats);
+        // null ở chế độ virtual (writeLoop tự chờ trên hàng đợi)
+        private final OutboundWriterPool.Writer writer;
         private Long userId;
         private String currentRoom;
         
         ClientHandler(Socket socket) throws IOException {
             this.socket = socket;
-            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
-            this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+            this.in = new ChatFrameReader(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+            this.writer = writerPool != null ? writerPool.register(outbound, out, this::writeFailed) : null;
         }
         
         @Override
         public void run() {
             try {
-                String line;
-                while ((line = in.readLine()) != null) {
+                while (true) {
+                    TCPMessage tcpMsg;
+                    try {
+                        // Decode streaming thẳng từ byte của dòng, không tạo String
+                        tcpMsg = in.readJsonLine(TCPMessageJson::read);
+                    } catch (JsonProcessingException e) {
+                        System.err.println("[AegisTalkTCPServer] Error parsing message: " + e.getOriginalMessage());
+                        continue;
+                    }
+                    if (tcpMsg == null) {
+                        break;
+                    }
                     try {
-                        TCPMessage tcpMsg = mapper.readValue(line, TCPMessage.class);
                         handleMessage(tcpMsg);
                     } catch (Exception e) {
-                        System.err.println("[AegisTalkTCPServer] Error parsing message: " + e.getMessage());
+                        System.err.println("[AegisTalkTCPServer] Error handling message: " + e.getMessage());
                     }
                 }
             } catch (IOException e) {
@@ -235,36 +281,67 @@ public class AegisTalkTCPServer {
         
         void send(ChatMessage message) {
             try {
-                String json = mapper.writeValueAsString(message);
-                sendRaw(json);
+                sendFrame(ChatJson.line(message), ChatProtocol.isEphemeral(message));
             } catch (Exception e) {
                 System.err.println("[AegisTalkTCPServer] Error sending message: " + e.getMessage());
             }
         }
         
-        void sendRaw(String json) {
+        /**
+         * Xếp 1 frame đã encode sẵn (JSON + '\n') vào hàng đợi gửi (không block).
+         * droppable = true cho typing/presence, được bỏ khi client nhận không kịp.
+         */
+        void sendFrame(byte[] frame, boolean droppable) {
+            if (!outbound.offer(frame, droppable)) {
+                outboundStats.recordSlowDisconnect();
+                System.err.println("[AegisTalkTCPServer] Client " + socket.getRemoteSocketAddress()
+                        + " is too slow (queue full), disconnecting. " + outboundStats);
+                disconnect();
+            } else if (writer != null) {
+                writer.signal();
+            }
+        }
+        
+        private void writeFailed(IOException e) {
+            System.err.println("[AegisTalkTCPServer] Error sending raw: " + e.getMessage());
+            disconnect();
+        }
+        
+        /**
+         * Writer riêng của client: gom các frame có sẵn rồi flush 1 lần.
+         */
+        void writeLoop() {
             try {
-                out.write(json);
-                out.write("\n");
-                out.flush();
+                byte[] frame;
+                while ((frame = outbound.take()) != null) {
+                    do {
+                        out.write(frame);
+                    } while ((frame = outbound.poll()) != null);
+                    out.flush();
+                }
             } catch (IOException e) {
                 System.err.println("[AegisTalkTCPServer] Error sending raw: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                disconnect();
             }
         }
         
         void sendResponse(String type, Map<String, String> data) {
             try {
                 TCPMessage response = new TCPMessage(type, data);
-                String json = mapper.writeValueAsString(response);
-                sendRaw(json);
+                sendFrame(TCPMessageJson.line(response), false);
             } catch (Exception e) {
                 System.err.println("[AegisTalkTCPServer] Error sending response: " + e.getMessage());
             }
         }
         
+        // Có thể được gọi từ thread đọc, writer hoặc thread broadcast (client chậm)
         private void disconnect() {
+            outbound.close();
             if (userId != null) {
-                connectedClients.remove(userId);
+                connectedClients.remove(userId, this);
             }
             handleLeaveRoom();
             try {
@@ -0,0 +1,93 @@
+package org.example.demo2.net.tcp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.demo2.model.ChatMessage;
+import org.example.demo2.net.chat.ChatJson;
+
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Micro-benchmark codec JSON trên đường nóng: ObjectMapper (readLine -> String -> readValue)
+ * so với codec streaming (ChatJson, TCPMessageJson) đọc thẳng từ byte.
+ *
+ * In thời gian (ns/op) và lượng cấp phát (byte/op, đo bằng ThreadMXBean của HotSpot nếu có),
+ * tương đương cột gc.alloc.rate.norm của JMH -prof gc.
+ *
+ * Cách chạy: JsonCodecBenchMain [iterations]
+ */
+public class JsonCodecBenchMain {
+
+    private static final int WARMUP_ITERATIONS = 200_000;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        ObjectMapper mapper = new ObjectMapper();
+
+        ChatMessage chat = ChatMessage.text("12345", "42", "Xin chào, tối nay họp nhóm lúc 8h nhé!");
+        byte[] chatLine = ChatJson.line(chat);
+        int chatLength = chatLine.length - 1;
+
+        AegisTalkTCPServer.TCPMessage tcp = new AegisTalkTCPServer.TCPMessage(
+                "CHAT", Map.of("roomId", "12345", "from", "42", "text", "Xin chào mọi người"));
+        byte[] tcpLine = TCPMessageJson.line(tcp);
+        int tcpLength = tcpLine.length - 1;
+
+        System.out.println("========== JSON codec ==========");
+        System.out.printf("%-28s %10s %12s%n", "case", "ns/op", "bytes/op");
+        run("ChatMessage read  databind", iterations, () ->
+                mapper.readValue(new String(chatLine, 0, chatLength, StandardCharsets.UTF_8), ChatMessage.class));
+        run("ChatMessage read  streaming", iterations, () ->
+                ChatJson.read(chatLine, 0, chatLength));
+        run("ChatMessage write databind", iterations, () ->
+                (mapper.writeValueAsString(chat) + "\n").getBytes(StandardCharsets.UTF_8));
+        run("ChatMessage write streaming", iterations, () ->
+                ChatJson.line(chat));
+        run("TCPMessage  read  databind", iterations, () ->
+                mapper.readValue(new String(tcpLine, 0, tcpLength, StandardCharsets.UTF_8), AegisTalkTCPServer.TCPMessage.class));
+        run("TCPMessage  read  streaming", iterations, () ->
+                TCPMessageJson.read(tcpLine, 0, tcpLength));
+        System.out.println("================================");
+    }
+
+    private static void run(String name, int iterations, Op op) throws Exception {
+        Object sink = null;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink = op.run();
+        }
+        long allocBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink = op.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocAfter = allocatedBytes();
+        String alloc = allocBefore < 0 ? "n/a" : String.valueOf((allocAfter - allocBefore) / iterations);
+        System.out.printf("%-28s %10d %12s%n", name, elapsed / iterations, alloc);
+        if (sink == null) {
+            System.out.println("(unexpected null result)");
+        }
+    }
+
+    /**
+     * Số byte thread hiện tại đã cấp phát; -1 nếu JVM không hỗ trợ.
+     * Gọi qua reflection để module không phải requires java.management/jdk.management chỉ vì công cụ đo.
+     */
+    private static long allocatedBytes() {
+        try {
+            Object bean = Class.forName("java.lang.management.ManagementFactory")
+                    .getMethod("getThreadMXBean").invoke(null);
+            Method method = Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getCurrentThreadAllocatedBytes");
+            return (long) method.invoke(bean);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Op {
+        Object run() throws Exception;
+    }
+}
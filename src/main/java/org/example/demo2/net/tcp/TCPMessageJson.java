@@ -0,0 +1,82 @@
+package org.example.demo2.net.tcp;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import org.example.demo2.net.chat.ChatJson;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Codec JSON streaming cho AegisTalkTCPServer.TCPMessage ({"type": ..., "data": {string: string}}),
+ * đọc thẳng từ byte của frame thay vì ObjectMapper.readValue(String).
+ */
+final class TCPMessageJson {
+
+    private TCPMessageJson() {
+    }
+
+    static AegisTalkTCPServer.TCPMessage read(byte[] data, int offset, int length) throws IOException {
+        try (JsonParser p = ChatJson.FACTORY.createParser(data, offset, length)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(p, "Expected TCPMessage object");
+            }
+            String type = null;
+            Map<String, String> values = null;
+
+            String field;
+            while ((field = p.nextFieldName()) != null) {
+                JsonToken token = p.nextToken();
+                switch (field) {
+                    case "type" -> type = ChatJson.readString(p, token);
+                    case "data" -> values = readData(p, token);
+                    default -> p.skipChildren();
+                }
+            }
+            ChatJson.expectEnd(p);
+            return new AegisTalkTCPServer.TCPMessage(type, values);
+        }
+    }
+
+    private static Map<String, String> readData(JsonParser p, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException(p, "Expected object for field data");
+        }
+        Map<String, String> values = new HashMap<>();
+        String key;
+        while ((key = p.nextFieldName()) != null) {
+            values.put(key, ChatJson.readString(p, p.nextToken()));
+        }
+        return values;
+    }
+
+    /** Frame JSON + '\n' của msg */
+    static byte[] line(AegisTalkTCPServer.TCPMessage msg) throws IOException {
+        try (ByteArrayBuilder builder = new ByteArrayBuilder(256)) {
+            try (JsonGenerator g = ChatJson.FACTORY.createGenerator(builder, JsonEncoding.UTF8)) {
+                g.writeStartObject();
+                g.writeStringField("type", msg.type());
+                if (msg.data() == null) {
+                    g.writeNullField("data");
+                } else {
+                    g.writeObjectFieldStart("data");
+                    for (Map.Entry<String, String> e : msg.data().entrySet()) {
+                        g.writeStringField(e.getKey(), e.getValue());
+                    }
+                    g.writeEndObject();
+                }
+                g.writeEndObject();
+            }
+            builder.write('\n');
+            return builder.toByteArray();
+        }
+    }
+}
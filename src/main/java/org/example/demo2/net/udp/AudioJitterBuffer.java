@@ -0,0 +1,215 @@
+package org.example.demo2.net.udp;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Jitter buffer cho audio cuộc gọi: đứng giữa thread nhận UDP và loa (SourceDataLine).
+ *
+ *  - Sắp gói theo sequence audio (không theo thứ tự đến), gói đến sau khi đã tới lượt phát thì bỏ
+ *  - Độ trễ mục tiêu tự điều chỉnh theo jitter đo được (RFC 3550: J += (|D| - J) / 16),
+ *    nằm trong [MIN_TARGET_FRAMES, MAX_TARGET_FRAMES]
+ *  - Buffer sâu hơn mục tiêu (sau 1 loạt gói dồn tới) thì bỏ bớt frame để kéo độ trễ về
+ *  - Mất gói: lặp lại frame trước, nhỏ dần, sau MAX_CONCEALED_FRAMES frame thì phát im lặng
+ *  - Hết gói (người kia tắt mic, mạng đứt): dừng phát và đợi đầy lại tới mức mục tiêu
+ *
+ * offer() gọi từ thread nhận UDP, take() từ thread phát; loa chặn write() nên thread phát tự chạy đúng nhịp.
+ */
+public final class AudioJitterBuffer {
+
+    private static final int CAPACITY = 64;            // số frame tối đa giữ (64 x 20ms)
+    private static final int MIN_TARGET_FRAMES = 2;
+    private static final int MAX_TARGET_FRAMES = 12;
+    private static final int SKIP_MARGIN_FRAMES = 3;   // sâu hơn mục tiêu bao nhiêu frame thì bắt đầu bỏ
+    private static final int MAX_CONCEALED_FRAMES = 3;
+    private static final double DISCONTINUITY_MILLIS = 1_000; // khoảng lặng (mute) không tính vào jitter
+
+    private final int frameBytes;
+    private final int frameMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition readable = lock.newCondition();
+
+    private final byte[][] slots = new byte[CAPACITY][];
+    private final int[] slotSeq = new int[CAPACITY];
+    private boolean synced;
+    private boolean playing;
+    private int nextSeq;        // sequence phát tiếp theo
+    private int highestSeq;     // sequence lớn nhất đã nhận
+
+    private boolean hasTransit;
+    private double lastTransit;
+    private double jitterMillis;
+    private int targetFrames = MIN_TARGET_FRAMES + 1;
+
+    private byte[] lastFrame;
+    private int concealedRun;
+
+    private long received;
+    private long late;
+    private long concealed;
+    private long skipped;
+    private long rebuffers;
+
+    /**
+     * @param frameBytes  số byte 1 frame PCM (640 cho 20ms 16kHz 16-bit mono)
+     * @param frameMillis thời lượng 1 frame
+     */
+    public AudioJitterBuffer(int frameBytes, int frameMillis) {
+        this.frameBytes = frameBytes;
+        this.frameMillis = frameMillis;
+    }
+
+    /** Thêm gói audio vừa nhận (pcm: 16-bit little-endian) */
+    public void offer(int seq, byte[] pcm) {
+        offer(seq, pcm, System.nanoTime());
+    }
+
+    void offer(int seq, byte[] pcm, long nowNanos) {
+        lock.lock();
+        try {
+            updateJitter(seq, nowNanos);
+
+            int ahead = seq - nextSeq;
+            if (!synced || ahead >= CAPACITY || ahead < -CAPACITY) {
+                // Gói đầu tiên, hoặc sequence nhảy xa (bên kia bắt đầu lại): đồng bộ lại từ gói này
+                resync(seq);
+            } else if (ahead < 0) {
+                late++;
+                return; // đã qua lượt phát
+            }
+
+            int slot = Math.floorMod(seq, CAPACITY);
+            if (slots[slot] != null && slotSeq[slot] == seq) {
+                return; // gói trùng
+            }
+            slots[slot] = pcm;
+            slotSeq[slot] = seq;
+            if (seq - highestSeq > 0) {
+                highestSeq = seq;
+            }
+            received++;
+
+            if (!playing && depth() >= targetFrames) {
+                playing = true;
+            }
+            if (playing) {
+                readable.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frame tiếp theo để phát (gói thật hoặc frame che mất gói).
+     *
+     * @return null nếu sau timeoutMillis vẫn chưa đủ gói để phát
+     */
+    public byte[] take(long timeoutMillis) throws InterruptedException {
+        lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (!playing) {
+                if (remaining <= 0) {
+                    return null;
+                }
+                remaining = readable.awaitNanos(remaining);
+            }
+
+            // Buffer quá sâu so với mục tiêu: bỏ 1 frame mỗi lượt để giảm độ trễ dần
+            if (depth() > targetFrames + SKIP_MARGIN_FRAMES) {
+                byte[] dropped = removeSlot(nextSeq++);
+                if (dropped != null) {
+                    lastFrame = dropped;
+                }
+                skipped++;
+            }
+
+            byte[] frame = removeSlot(nextSeq++);
+            if (frame != null) {
+                lastFrame = frame;
+                concealedRun = 0;
+            } else {
+                frame = conceal();
+            }
+
+            if (depth() <= 0) {
+                playing = false; // hết gói, đợi đầy lại
+                rebuffers++;
+            }
+            return frame;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Số frame từ lượt phát hiện tại tới gói mới nhất đã nhận */
+    private int depth() {
+        return highestSeq - nextSeq + 1;
+    }
+
+    private byte[] removeSlot(int seq) {
+        int slot = Math.floorMod(seq, CAPACITY);
+        if (slots[slot] == null || slotSeq[slot] != seq) {
+            return null;
+        }
+        byte[] frame = slots[slot];
+        slots[slot] = null;
+        return frame;
+    }
+
+    private void resync(int seq) {
+        java.util.Arrays.fill(slots, null);
+        synced = true;
+        playing = false;
+        nextSeq = seq;
+        highestSeq = seq - 1;
+        concealedRun = 0;
+    }
+
+    /** Lặp frame trước với âm lượng giảm một nửa mỗi lần, quá MAX_CONCEALED_FRAMES thì im lặng */
+    private byte[] conceal() {
+        concealed++;
+        concealedRun++;
+        if (lastFrame == null || concealedRun > MAX_CONCEALED_FRAMES) {
+            return new byte[lastFrame != null ? lastFrame.length : frameBytes];
+        }
+        byte[] faded = new byte[lastFrame.length];
+        int shift = concealedRun;
+        for (int i = 0; i + 1 < lastFrame.length; i += 2) {
+            int sample = (short) ((lastFrame[i] & 0xFF) | (lastFrame[i + 1] << 8));
+            sample >>= shift;
+            faded[i] = (byte) sample;
+            faded[i + 1] = (byte) (sample >> 8);
+        }
+        return faded;
+    }
+
+    /** Jitter theo RFC 3550, thời điểm gửi suy ra từ sequence (mỗi frame frameMillis) */
+    private void updateJitter(int seq, long nowNanos) {
+        double transit = nowNanos / 1_000_000.0 - (double) seq * frameMillis;
+        if (hasTransit) {
+            double d = Math.abs(transit - lastTransit);
+            if (d < DISCONTINUITY_MILLIS) {
+                jitterMillis += (d - jitterMillis) / 16;
+            }
+        }
+        lastTransit = transit;
+        hasTransit = true;
+
+        int target = (int) Math.ceil(jitterMillis * 3 / frameMillis) + 1;
+        targetFrames = Math.max(MIN_TARGET_FRAMES, Math.min(MAX_TARGET_FRAMES, target));
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return String.format("jitter=%.1fms, target=%dms, received=%d, late=%d, concealed=%d, skipped=%d, rebuffers=%d",
+                    jitterMillis, targetFrames * frameMillis, received, late, concealed, skipped, rebuffers);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.example.demo2.net.udp;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Ghép lại frame bị VideoStreamClient chia thành nhiều mảnh (fragment) vừa MTU.
+ *
+ *  - Mỗi frame chờ được nhận diện bằng (senderId, frameId), gom đủ fragmentCount mảnh thì trả về
+ *  - Giới hạn số frame đang chờ (maxPending) và thời gian chờ (timeoutMillis): thiếu mảnh thì bỏ cả frame,
+ *    không giữ bộ nhớ mãi vì mất gói
+ *  - Mảnh của frame cũ hơn frame đã ghép xong của cùng người gửi bị bỏ (video chỉ cần frame mới nhất)
+ *
+ * Chỉ dùng trên 1 thread (thread nhận của VideoStreamClient), không thread-safe.
+ */
+final class FrameReassembler {
+
+    /** Giới hạn số mảnh / frame để 1 header lỗi không bắt cấp phát mảng lớn */
+    static final int MAX_FRAGMENTS = 2048;
+
+    private final int maxPending;
+    private final long timeoutMillis;
+    // (senderId, frameId) -> frame đang ghép, theo thứ tự mảnh đầu tiên đến
+    private final Map<Long, Pending> pending = new HashMap<>();
+    private final ArrayDeque<Long> arrivalOrder = new ArrayDeque<>();
+    // senderId -> frameId lớn nhất đã ghép xong
+    private final Map<Integer, Integer> lastCompleted = new HashMap<>();
+
+    private long completedFrames;
+    private long droppedFrames;
+
+    FrameReassembler(int maxPending, long timeoutMillis) {
+        this.maxPending = Math.max(1, maxPending);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Thêm 1 mảnh (payload nằm trong data[offset, offset + length)).
+     *
+     * @return frame đầy đủ nếu mảnh này là mảnh cuối còn thiếu, ngược lại null
+     */
+    byte[] add(int senderId, int frameId, int fragmentIndex, int fragmentCount,
+               byte[] data, int offset, int length, long nowMillis) {
+        if (fragmentCount <= 0 || fragmentCount > MAX_FRAGMENTS || fragmentIndex < 0 || fragmentIndex >= fragmentCount) {
+            return null; // header hỏng
+        }
+        if (fragmentCount == 1) {
+            // Frame nhỏ (audio, ảnh nhỏ) không cần ghép
+            byte[] frame = new byte[length];
+            System.arraycopy(data, offset, frame, 0, length);
+            return frame;
+        }
+
+        expire(nowMillis);
+
+        Integer last = lastCompleted.get(senderId);
+        if (last != null && frameId - last <= 0) {
+            return null; // mảnh trễ của frame cũ
+        }
+
+        long key = ((long) senderId << 32) | (frameId & 0xFFFFFFFFL);
+        Pending frame = pending.get(key);
+        if (frame == null) {
+            if (pending.size() >= maxPending) {
+                dropOldest();
+            }
+            frame = new Pending(fragmentCount, nowMillis);
+            pending.put(key, frame);
+            arrivalOrder.addLast(key);
+        } else if (frame.parts.length != fragmentCount) {
+            return null; // header không khớp mảnh trước
+        }
+
+        if (frame.parts[fragmentIndex] != null) {
+            return null; // mảnh trùng
+        }
+        byte[] part = new byte[length];
+        System.arraycopy(data, offset, part, 0, length);
+        frame.parts[fragmentIndex] = part;
+        frame.received++;
+        frame.totalBytes += length;
+
+        if (frame.received < fragmentCount) {
+            return null;
+        }
+
+        pending.remove(key);
+        arrivalOrder.remove(key);
+        lastCompleted.put(senderId, frameId);
+        discardOlderThan(senderId, frameId);
+        completedFrames++;
+
+        byte[] result = new byte[frame.totalBytes];
+        int pos = 0;
+        for (byte[] p : frame.parts) {
+            System.arraycopy(p, 0, result, pos, p.length);
+            pos += p.length;
+        }
+        return result;
+    }
+
+    /** Bỏ các frame chờ quá timeoutMillis */
+    private void expire(long nowMillis) {
+        while (!arrivalOrder.isEmpty()) {
+            Long oldest = arrivalOrder.peekFirst();
+            Pending frame = pending.get(oldest);
+            if (frame != null && nowMillis - frame.firstArrival < timeoutMillis) {
+                return;
+            }
+            arrivalOrder.pollFirst();
+            if (pending.remove(oldest) != null) {
+                droppedFrames++;
+            }
+        }
+    }
+
+    private void dropOldest() {
+        Long oldest = arrivalOrder.pollFirst();
+        if (oldest != null && pending.remove(oldest) != null) {
+            droppedFrames++;
+        }
+    }
+
+    /** Frame cũ hơn frame vừa ghép xong của cùng người gửi không còn cần hiển thị */
+    private void discardOlderThan(int senderId, int frameId) {
+        Iterator<Long> it = arrivalOrder.iterator();
+        while (it.hasNext()) {
+            long key = it.next();
+            if ((int) (key >>> 32) == senderId && (int) key - frameId < 0) {
+                it.remove();
+                pending.remove(key);
+                droppedFrames++;
+            }
+        }
+    }
+
+    long getCompletedFrames() {
+        return completedFrames;
+    }
+
+    long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    private static final class Pending {
+        final byte[][] parts;
+        final long firstArrival;
+        int received;
+        int totalBytes;
+
+        Pending(int fragmentCount, long firstArrival) {
+            this.parts = new byte[fragmentCount][];
+            this.firstArrival = firstArrival;
+        }
+    }
+}
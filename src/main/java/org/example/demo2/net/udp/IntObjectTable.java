@@ -0,0 +1,111 @@
+package org.example.demo2.net.udp;
+
+import java.util.function.IntFunction;
+
+/**
+ * Bảng int -> object cho đường nóng của relay UDP (sessionId -> StreamSession).
+ *
+ *  - Open addressing (linear probing) trên mảng int[]/Object[], không boxing key, không tạo Node
+ *  - Đọc không lock, không cấp phát: get() chỉ đọc 1 tham chiếu volatile tới bảng hiện tại
+ *  - Ghi (đăng ký/hủy cuộc gọi, hiếm) copy-on-write: dựng bảng mới rồi thay tham chiếu, nên reader
+ *    không bao giờ thấy bảng đang sửa dở
+ *
+ * Không nhận value null (slot null = trống).
+ */
+final class IntObjectTable<V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private volatile Table table = new Table(MIN_CAPACITY);
+
+    V get(int key) {
+        Table t = table;
+        int mask = t.keys.length - 1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            Object value = t.values[i];
+            if (value == null) {
+                return null;
+            }
+            if (t.keys[i] == key) {
+                @SuppressWarnings("unchecked")
+                V v = (V) value;
+                return v;
+            }
+        }
+    }
+
+    synchronized V computeIfAbsent(int key, IntFunction<V> factory) {
+        V existing = get(key);
+        if (existing != null) {
+            return existing;
+        }
+        V value = factory.apply(key);
+        Table old = table;
+        Table next = new Table(capacityFor(old.size + 1));
+        old.copyTo(next, key);
+        next.insert(key, value);
+        table = next;
+        return value;
+    }
+
+    synchronized V remove(int key) {
+        V existing = get(key);
+        if (existing == null) {
+            return null;
+        }
+        Table old = table;
+        Table next = new Table(capacityFor(old.size - 1));
+        old.copyTo(next, key);
+        table = next;
+        return existing;
+    }
+
+    int size() {
+        return table.size;
+    }
+
+    /** Load factor <= 0.5 để chuỗi probe ngắn */
+    private static int capacityFor(int size) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < size * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Table {
+        final int[] keys;
+        final Object[] values;
+        int size;
+
+        Table(int capacity) {
+            keys = new int[capacity];
+            values = new Object[capacity];
+        }
+
+        void insert(int key, Object value) {
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+            size++;
+        }
+
+        /** Chép mọi phần tử trừ skipKey sang bảng khác */
+        void copyTo(Table target, int skipKey) {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null && keys[i] != skipKey) {
+                    target.insert(keys[i], values[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.example.demo2.net.udp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Micro-benchmark đường relay UDP của VideoStreamServer: đưa datagram thẳng vào processPacket
+ * (tra session trong IntObjectTable, cập nhật endpoint, forward tới các user khác), không cần thread nhận.
+ *
+ *  - Bảng session có 1 / 100 / 10000 cuộc gọi, mỗi cuộc gọi 2 hoặc 4 người; packet xoay vòng qua các session
+ *  - Forward ra socket loopback thật (người nhận không đọc, kernel tự bỏ khi đầy), nên số đo gồm cả syscall send
+ *
+ * In ns/packet (1 packet vào relay) và số datagram forward được mỗi giây.
+ *
+ * Cách chạy: RelayBenchMain [payloadBytes]
+ * Chỉ để so sánh tương đối, số tuyệt đối phụ thuộc máy và kernel.
+ */
+public class RelayBenchMain {
+
+    private static final int[] SESSION_COUNTS = {1, 100, 10_000};
+    private static final int[] PARTICIPANTS = {2, 4};
+    private static final int WARMUP_PACKETS = 50_000;
+    private static final int MEASURE_PACKETS = 200_000;
+    private static final int FIRST_SESSION_ID = 1_000;
+
+    private static final PrintStream NULL_OUT = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    });
+
+    public static void main(String[] args) throws IOException {
+        int payloadBytes = args.length > 0 ? Integer.parseInt(args[0]) : VideoStreamClient.MAX_FRAGMENT_PAYLOAD;
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+
+        int maxParticipants = 0;
+        for (int participants : PARTICIPANTS) {
+            maxParticipants = Math.max(maxParticipants, participants);
+        }
+        // Mỗi "người" k của mọi cuộc gọi dùng chung 1 socket nhận; relay gửi ra từ socket riêng như 1 worker
+        DatagramChannel[] receivers = new DatagramChannel[maxParticipants];
+        InetSocketAddress[] addresses = new InetSocketAddress[maxParticipants];
+        try (DatagramChannel relayChannel = DatagramChannel.open()) {
+            relayChannel.bind(new InetSocketAddress(loopback, 0));
+            for (int k = 0; k < maxParticipants; k++) {
+                receivers[k] = DatagramChannel.open();
+                receivers[k].bind(new InetSocketAddress(loopback, 0));
+                addresses[k] = (InetSocketAddress) receivers[k].getLocalAddress();
+            }
+
+            ByteBuffer packet = ByteBuffer.allocateDirect(VideoStreamClient.HEADER_SIZE + payloadBytes);
+            packet.limit(packet.capacity());
+
+            System.out.println("========== UDP relay ==========");
+            System.out.println("Datagram: " + packet.capacity() + " bytes (header " + VideoStreamClient.HEADER_SIZE + ")");
+            System.out.printf("%-10s %-8s %14s %16s%n", "sessions", "users", "ns/packet", "forwards/s");
+            for (int participants : PARTICIPANTS) {
+                for (int sessionCount : SESSION_COUNTS) {
+                    VideoStreamServer server = new VideoStreamServer(0);
+                    setUp(server, relayChannel, packet, sessionCount, participants, addresses);
+                    run(server, relayChannel, packet, sessionCount, participants, addresses, WARMUP_PACKETS);
+                    long start = System.nanoTime();
+                    run(server, relayChannel, packet, sessionCount, participants, addresses, MEASURE_PACKETS);
+                    double nsPerPacket = (double) (System.nanoTime() - start) / MEASURE_PACKETS;
+                    double forwardsPerSecond = 1e9 / nsPerPacket * (participants - 1);
+                    System.out.printf("%-10d %-8d %14.1f %16.0f%n", sessionCount, participants, nsPerPacket, forwardsPerSecond);
+                }
+            }
+            System.out.println("===============================");
+        } finally {
+            for (DatagramChannel receiver : receivers) {
+                if (receiver != null) {
+                    receiver.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Đăng ký mọi endpoint rồi gửi 1 packet từ mỗi user để relay biết địa chỉ thực tế (như client thật
+     * gửi packet đầu tiên). Log đăng ký của server bị tắt trong lúc dựng để không in hàng chục nghìn dòng.
+     */
+    private static void setUp(VideoStreamServer server, DatagramChannel channel, ByteBuffer packet,
+                              int sessionCount, int participants, InetSocketAddress[] addresses) {
+        PrintStream out = System.out;
+        System.setOut(NULL_OUT);
+        try {
+            for (int s = 0; s < sessionCount; s++) {
+                for (int k = 0; k < participants; k++) {
+                    server.registerEndpoint(FIRST_SESSION_ID + s, userId(s, k), addresses[k].getAddress(), addresses[k].getPort());
+                }
+            }
+            for (int s = 0; s < sessionCount; s++) {
+                for (int k = 0; k < participants; k++) {
+                    relay(server, channel, packet, s, k, 0, addresses[k]);
+                }
+            }
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /** Packet xoay vòng qua các session, người gửi đổi lần lượt trong mỗi session */
+    private static void run(VideoStreamServer server, DatagramChannel channel, ByteBuffer packet,
+                            int sessionCount, int participants, InetSocketAddress[] addresses, int packets) {
+        for (int i = 0; i < packets; i++) {
+            int s = i % sessionCount;
+            int k = (i / sessionCount) % participants;
+            // sequence >= 50 để relay không in log audio đầu cuộc gọi
+            relay(server, channel, packet, s, k, 50 + i, addresses[k]);
+        }
+    }
+
+    private static void relay(VideoStreamServer server, DatagramChannel channel, ByteBuffer packet,
+                              int s, int k, int sequence, InetSocketAddress sender) {
+        packet.putInt(0, FIRST_SESSION_ID + s);
+        packet.putInt(4, userId(s, k));
+        packet.putInt(8, sequence);
+        packet.position(0);
+        server.processPacket(channel, packet, sender);
+    }
+
+    private static int userId(int session, int participant) {
+        return session * 10 + participant + 1;
+    }
+}
@@ -14,23 +14,41 @@ import java.util.Enumeration;
  * - Chấp nhận mất gói (packet loss)
  * 
  * Packet format:
- * - Header (16 bytes): [sessionId(4)][userId(4)][sequence(4)][timestamp(4)]
- * - Payload: audio/video data
+ * - Header (24 bytes): [sessionId(4)][userId(4)][sequence(4)][timestamp(4)][frameId(4)][fragmentIndex(2)][fragmentCount(2)]
+ * - Payload: 1 mảnh của frame audio/video
+ * 
+ * Frame lớn (JPEG 720p) được chia thành nhiều datagram, payload tối đa MAX_FRAGMENT_PAYLOAD byte để vừa MTU
+ * (không bị IP fragmentation, mất 1 mảnh IP là mất cả datagram). Bên nhận ghép lại bằng FrameReassembler,
+ * thiếu mảnh quá REASSEMBLY_TIMEOUT_MS thì bỏ frame đó.
  */
 public class VideoStreamClient {
     
+    public static final int HEADER_SIZE = 24;
+    // 1200 byte payload + header + IP/UDP header < 1280 (MTU tối thiểu của IPv6), an toàn qua VPN/PPPoE
+    public static final int MAX_FRAGMENT_PAYLOAD = 1200;
+    private static final int MAX_PENDING_FRAMES = 8;
+    private static final long REASSEMBLY_TIMEOUT_MS = 250;
+    // 1 frame 720p là hàng trăm mảnh gửi liền nhau, buffer mặc định (~200KB) tràn trước khi kịp đọc
+    static final int SOCKET_BUFFER_BYTES = 4 * 1024 * 1024;
+    
     private DatagramSocket socket;
     private InetAddress serverAddress;
     private int serverPort;
     private int sessionId;
     private int userId; // ID của user hiện tại
     private int sequenceNumber = 0;
+    private int frameId = 0;
+    // Dùng lại cho mọi mảnh gửi đi (sendFrame được gọi từ thread video và thread audio nên synchronized)
+    private final byte[] sendBuffer = new byte[HEADER_SIZE + MAX_FRAGMENT_PAYLOAD];
+    private final ByteBuffer sendHeader = ByteBuffer.wrap(sendBuffer, 0, HEADER_SIZE);
     private boolean running = false;
     
     public VideoStreamClient(int sessionId) throws SocketException {
         this.sessionId = sessionId;
         this.userId = 0; // Default, sẽ được set sau
         this.socket = new DatagramSocket();
+        this.socket.setReceiveBufferSize(SOCKET_BUFFER_BYTES);
+        this.socket.setSendBufferSize(SOCKET_BUFFER_BYTES);
     }
     
     /**
@@ -137,32 +155,40 @@ public class VideoStreamClient {
     }
     
     /**
-     * Gửi frame audio/video.
-     * Header format: [sessionId(4)][userId(4)][sequence(4)][timestamp(4)]
+     * Gửi frame audio/video, chia thành các mảnh vừa MTU nếu lớn hơn MAX_FRAGMENT_PAYLOAD.
+     * Header format: [sessionId(4)][userId(4)][sequence(4)][timestamp(4)][frameId(4)][fragmentIndex(2)][fragmentCount(2)]
      */
-    public void sendFrame(byte[] frameData) throws IOException {
+    public synchronized void sendFrame(byte[] frameData) throws IOException {
         if (serverAddress == null) {
             throw new IllegalStateException("Not connected to server");
         }
         
-        // Tạo header (16 bytes)
-        ByteBuffer header = ByteBuffer.allocate(16);
-        header.putInt(sessionId);
-        header.putInt(userId);  // Thêm userId vào header
-        header.putInt(sequenceNumber++);
-        header.putInt((int) (System.currentTimeMillis() & 0xFFFFFFFFL));
-        byte[] headerBytes = header.array();
-        
-        // Tạo packet
-        byte[] packetData = new byte[16 + frameData.length];
-        System.arraycopy(headerBytes, 0, packetData, 0, 16);
-        System.arraycopy(frameData, 0, packetData, 16, frameData.length);
-        
-        DatagramPacket packet = new DatagramPacket(
-                packetData, packetData.length,
-                serverAddress, serverPort);
+        int fragmentCount = Math.max(1, (frameData.length + MAX_FRAGMENT_PAYLOAD - 1) / MAX_FRAGMENT_PAYLOAD);
+        if (fragmentCount > FrameReassembler.MAX_FRAGMENTS) {
+            throw new IOException("Frame too large: " + frameData.length + " bytes");
+        }
+        int id = frameId++;
+        int timestamp = (int) (System.currentTimeMillis() & 0xFFFFFFFFL);
+        DatagramPacket packet = new DatagramPacket(sendBuffer, 0, serverAddress, serverPort);
         
-        socket.send(packet);
+        for (int index = 0; index < fragmentCount; index++) {
+            int offset = index * MAX_FRAGMENT_PAYLOAD;
+            int length = Math.min(MAX_FRAGMENT_PAYLOAD, frameData.length - offset);
+            
+            // Header (24 bytes), sequence tăng theo từng datagram, frameId/timestamp chung cho cả frame
+            sendHeader.clear();
+            sendHeader.putInt(sessionId);
+            sendHeader.putInt(userId);  // Thêm userId vào header
+            sendHeader.putInt(sequenceNumber++);
+            sendHeader.putInt(timestamp);
+            sendHeader.putInt(id);
+            sendHeader.putShort((short) index);
+            sendHeader.putShort((short) fragmentCount);
+            System.arraycopy(frameData, offset, sendBuffer, HEADER_SIZE, length);
+            
+            packet.setLength(HEADER_SIZE + length);
+            socket.send(packet);
+        }
     }
     
     /**
@@ -176,22 +202,26 @@ public class VideoStreamClient {
         
         Thread receiveThread = new Thread(() -> {
             byte[] buffer = new byte[65507];
+            FrameReassembler reassembler = new FrameReassembler(MAX_PENDING_FRAMES, REASSEMBLY_TIMEOUT_MS);
             
             while (running) {
                 try {
                     DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
                     socket.receive(packet);
                     
-                    if (packet.getLength() < 16) {
+                    if (packet.getLength() < HEADER_SIZE) {
                         continue; // Packet quá nhỏ
                     }
                     
-                    // Parse header (16 bytes)
-                    ByteBuffer header = ByteBuffer.wrap(packet.getData(), 0, 16);
+                    // Parse header (24 bytes)
+                    ByteBuffer header = ByteBuffer.wrap(packet.getData(), 0, HEADER_SIZE);
                     int recvSessionId = header.getInt();
                     int senderId = header.getInt();  // userId của người gửi
                     int sequence = header.getInt();
                     long timestamp = header.getInt() & 0xFFFFFFFFL;
+                    int recvFrameId = header.getInt();
+                    int fragmentIndex = header.getShort() & 0xFFFF;
+                    int fragmentCount = header.getShort() & 0xFFFF;
                     
                     // QUAN TRỌNG: Chỉ nhận frames từ session đúng
                     if (recvSessionId != sessionId) {
@@ -203,12 +233,13 @@ public class VideoStreamClient {
                         continue; // Frame từ chính mình, bỏ qua
                     }
                     
-                    // Lấy payload
-                    byte[] payload = new byte[packet.getLength() - 16];
-                    System.arraycopy(packet.getData(), 16, payload, 0, payload.length);
+                    // Ghép mảnh, chỉ gọi callback khi đủ frame
+                    byte[] payload = reassembler.add(senderId, recvFrameId, fragmentIndex, fragmentCount,
+                            packet.getData(), HEADER_SIZE, packet.getLength() - HEADER_SIZE,
+                            System.currentTimeMillis());
                     
                     // Gọi callback
-                    if (receiver != null) {
+                    if (payload != null && receiver != null) {
                         receiver.onFrameReceived(recvSessionId, sequence, timestamp, payload);
                     }
                     
@@ -1,13 +1,16 @@
 package org.example.demo2.net.udp;
 
+import org.example.demo2.config.ServerConfig;
+
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.SocketException;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
 
 /**
  * UDP Server cho truyền video/audio streaming.
@@ -19,53 +22,125 @@ import java.util.concurrent.ConcurrentHashMap;
  * - Dùng cho: truyền frame audio/video trong cuộc gọi
  * 
  * Packet format:
- * - Header (16 bytes): [sessionId(4)][userId(4)][sequence(4)][timestamp(4)]
- * - Payload: audio/video data
+ * - Header (24 bytes): [sessionId(4)][userId(4)][sequence(4)][timestamp(4)][frameId(4)][fragmentIndex(2)][fragmentCount(2)]
+ * - Payload: 1 mảnh audio/video (xem VideoStreamClient), server chỉ đọc 12 byte đầu và forward nguyên datagram
  * 
  * FIX: Khi 2 client chạy trên cùng 1 máy, server dùng userId để phân biệt
  *      thay vì chỉ dựa vào IP:port (vì cả 2 đều là localhost)
+ * 
+ * Relay: nhận bằng DatagramChannel vào 1 direct ByteBuffer dùng lại, header người nhận cần giống hệt
+ *        header đã nhận nên gửi nguyên datagram cho từng peer (không copy, không cấp phát theo packet).
+ * 
+ * Đa core: N worker, mỗi worker 1 DatagramChannel riêng cùng bind port với SO_REUSEPORT.
+ *        Kernel chia packet theo (IP, port) nguồn nên mọi packet của 1 người gửi luôn vào cùng 1 worker,
+ *        thứ tự stream của từng người gửi giữ nguyên. Hệ điều hành không hỗ trợ SO_REUSEPORT thì chạy 1 worker.
  */
 public class VideoStreamServer {
     
+    private static final int HEADER_SIZE = VideoStreamClient.HEADER_SIZE;
+    private static final int MAX_DATAGRAM_SIZE = 65507; // Max UDP packet size
+    
     private final int port;
-    private DatagramSocket socket;
-    private boolean running = false;
+    private final int workers;
+    private DatagramChannel[] channels = new DatagramChannel[0];
+    private volatile boolean running = false;
     
-    // Quản lý session: sessionId -> StreamSession
-    private final Map<Integer, StreamSession> sessions = new ConcurrentHashMap<>();
+    // Quản lý session: sessionId -> StreamSession (key int, tra mỗi packet không boxing)
+    private final IntObjectTable<StreamSession> sessions = new IntObjectTable<>();
     
     public VideoStreamServer(int port) {
+        this(port, 1);
+    }
+    
+    /**
+     * @param workers số thread relay (mỗi thread 1 socket), thường = số core
+     */
+    public VideoStreamServer(int port, int workers) {
         this.port = port;
+        this.workers = Math.max(1, workers);
     }
     
     public void start() throws SocketException {
-        socket = new DatagramSocket(port);
+        int count = workers;
+        if (count > 1 && !supportsReusePort()) {
+            System.out.println("[VideoStreamServer] SO_REUSEPORT not supported, using 1 relay worker");
+            count = 1;
+        }
+        
+        DatagramChannel[] opened = new DatagramChannel[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                opened[i] = DatagramChannel.open();
+                opened[i].setOption(StandardSocketOptions.SO_RCVBUF, VideoStreamClient.SOCKET_BUFFER_BYTES);
+                opened[i].setOption(StandardSocketOptions.SO_SNDBUF, VideoStreamClient.SOCKET_BUFFER_BYTES);
+                if (count > 1) {
+                    opened[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                opened[i].bind(new InetSocketAddress(port));
+            }
+        } catch (IOException e) {
+            closeAll(opened);
+            if (e instanceof SocketException se) {
+                throw se;
+            }
+            SocketException se = new SocketException("Cannot bind UDP port " + port + ": " + e.getMessage());
+            se.initCause(e);
+            throw se;
+        }
+        channels = opened;
         running = true;
-        System.out.println("[VideoStreamServer] UDP Server listening on port " + port);
+        System.out.println("[VideoStreamServer] UDP Server listening on port " + port + " (" + count + " relay workers)");
         System.out.println("[VideoStreamServer] Áp dụng: UDP Socket - Bài UDP");
         
-        // Thread nhận packet
-        Thread receiveThread = new Thread(this::receiveLoop, "UDP-Receive");
-        receiveThread.start();
+        // Mỗi worker nhận và forward trên socket của mình
+        for (int i = 0; i < count; i++) {
+            DatagramChannel channel = opened[i];
+            Thread receiveThread = new Thread(() -> receiveLoop(channel), count == 1 ? "UDP-Receive" : "UDP-Receive-" + i);
+            receiveThread.start();
+        }
     }
     
     public void stop() {
         running = false;
-        if (socket != null && !socket.isClosed()) {
-            socket.close();
+        closeAll(channels);
+    }
+    
+    private static boolean supportsReusePort() {
+        try (DatagramChannel probe = DatagramChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
         }
     }
     
-    private void receiveLoop() {
-        byte[] buffer = new byte[65507]; // Max UDP packet size
+    private static void closeAll(DatagramChannel[] channels) {
+        for (DatagramChannel channel : channels) {
+            if (channel != null && channel.isOpen()) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+    
+    private void receiveLoop(DatagramChannel channel) {
+        // Dùng lại cho mọi packet: nhận vào, đọc header tại chỗ rồi gửi nguyên buffer đi
+        ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
         
         while (running) {
             try {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                socket.receive(packet);
+                buffer.clear();
+                SocketAddress sender = channel.receive(buffer);
+                if (sender == null) {
+                    continue;
+                }
+                buffer.flip();
                 
-                processPacket(packet);
+                processPacket(channel, buffer, (InetSocketAddress) sender);
                 
+            } catch (ClosedChannelException e) {
+                break;
             } catch (IOException e) {
                 if (running) {
                     System.err.println("[VideoStreamServer] Error receiving packet: " + e.getMessage());
@@ -74,44 +149,31 @@ public class VideoStreamServer {
         }
     }
     
-    private void processPacket(DatagramPacket packet) {
-        byte[] data = packet.getData();
-        int length = packet.getLength();
+    /** Xử lý 1 datagram đã nhận (package-private để RelayBenchMain đo đường relay không cần socket nhận) */
+    void processPacket(DatagramChannel channel, ByteBuffer packet, InetSocketAddress sender) {
+        int length = packet.limit();
         
-        if (length < 16) {
+        if (length < HEADER_SIZE) {
             return; // Packet quá nhỏ, bỏ qua
         }
         
-        // Parse header (16 bytes): sessionId(4) + userId(4) + sequence(4) + timestamp(4)
-        ByteBuffer header = ByteBuffer.wrap(data, 0, 16);
-        int sessionId = header.getInt();
-        int userId = header.getInt();  // userId của người gửi
-        int sequence = header.getInt();
-        long timestamp = header.getInt() & 0xFFFFFFFFL; // unsigned int
-        
-        // Lấy payload
-        byte[] payload = new byte[length - 16];
-        System.arraycopy(data, 16, payload, 0, payload.length);
-        
-        // Debug: Log khi nhận được AUDIO packet (chỉ lần đầu)
-        boolean isAudio = payload.length > 6 && 
-            payload[0] == 'A' && payload[1] == 'U' && 
-            payload[2] == 'D' && payload[3] == 'I' && 
-            payload[4] == 'O' && payload[5] == ':';
+        // Parse header: sessionId(4) + userId(4) + sequence(4), đọc tại chỗ
+        int sessionId = packet.getInt(0);
+        int userId = packet.getInt(4);  // userId của người gửi
+        int sequence = packet.getInt(8);
         
         StreamSession session = sessions.get(sessionId);
         if (session != null) {
             // Cập nhật endpoint thực tế cho user này
-            session.updateUserEndpoint(userId, packet.getAddress(), packet.getPort());
+            session.updateUserEndpoint(userId, sender);
             
             // Log lần đầu nhận audio từ mỗi user
-            if (isAudio && sequence < 50) {
-                String srcIP = packet.getAddress().getHostAddress();
-                System.out.println("[VideoStreamServer] AUDIO from userId=" + userId + " IP=" + srcIP + " -> forwarding to others");
+            if (sequence < 50 && isAudio(packet, length)) {
+                System.out.println("[VideoStreamServer] AUDIO from userId=" + userId + " IP=" + sender.getAddress().getHostAddress() + " -> forwarding to others");
             }
             
             // Forward đến các client khác trong session (dựa vào userId, không phải IP:port)
-            forwardToOthers(session, sessionId, userId, sequence, timestamp, payload);
+            forwardToOthers(channel, session, userId, packet);
         } else {
             // Log khi không tìm thấy session
             if (sequence % 100 == 0) {
@@ -120,38 +182,30 @@ public class VideoStreamServer {
         }
     }
     
-    private void forwardToOthers(StreamSession session, int sessionId, int senderId, 
-                                 int sequence, long timestamp, byte[] payload) {
-        // Tạo packet mới với header (giữ nguyên senderId để receiver biết ai gửi)
-        ByteBuffer header = ByteBuffer.allocate(16);
-        header.putInt(sessionId);
-        header.putInt(senderId);
-        header.putInt(sequence);
-        header.putInt((int) timestamp);
-        byte[] headerBytes = header.array();
-        
-        byte[] packetData = new byte[16 + payload.length];
-        System.arraycopy(headerBytes, 0, packetData, 0, 16);
-        System.arraycopy(payload, 0, packetData, 16, payload.length);
-        
-        // Debug log - chỉ log lần đầu tiên nhận frame từ mỗi user
-        // (Đã tắt để giảm spam)
-        
+    /** Payload bắt đầu bằng "AUDIO:" (audio luôn nằm gọn trong 1 mảnh) */
+    private static boolean isAudio(ByteBuffer packet, int length) {
+        return length > HEADER_SIZE + 6
+                && packet.get(HEADER_SIZE) == 'A' && packet.get(HEADER_SIZE + 1) == 'U'
+                && packet.get(HEADER_SIZE + 2) == 'D' && packet.get(HEADER_SIZE + 3) == 'I'
+                && packet.get(HEADER_SIZE + 4) == 'O' && packet.get(HEADER_SIZE + 5) == ':';
+    }
+    
+    /**
+     * Gửi nguyên datagram (header giữ senderId để receiver biết ai gửi) cho các user khác trong session.
+     * send() đọc hết buffer nên trước mỗi lần gửi đặt lại position. Gửi ra từ socket của worker hiện tại
+     * (cùng port nguồn) nên không tranh lock với worker khác.
+     */
+    private void forwardToOthers(DatagramChannel channel, StreamSession session, int senderId, ByteBuffer packet) {
         // Gửi đến tất cả users khác trong session (dựa vào userId)
-        for (Map.Entry<Integer, UserEndpoint> entry : session.getUserEndpoints().entrySet()) {
-            int targetUserId = entry.getKey();
-            UserEndpoint endpoint = entry.getValue();
-            
+        for (UserEndpoint endpoint : session.snapshot()) {
             // Không gửi lại cho người gửi (dựa vào userId, không phải IP:port)
-            if (targetUserId != senderId && endpoint.hasActualAddress()) {
+            if (endpoint.getUserId() != senderId && endpoint.hasActualAddress()) {
                 try {
-                    DatagramPacket forwardPacket = new DatagramPacket(
-                            packetData, packetData.length,
-                            endpoint.getActualAddress(), endpoint.getActualPort());
-                    socket.send(forwardPacket);
+                    packet.position(0);
+                    channel.send(packet, endpoint.getSocketAddress());
                     // Đã tắt log để giảm spam
                 } catch (IOException e) {
-                    System.err.println("[VideoStreamServer] Error forwarding to userId=" + targetUserId + ": " + e.getMessage());
+                    System.err.println("[VideoStreamServer] Error forwarding to userId=" + endpoint.getUserId() + ": " + e.getMessage());
                 }
             }
         }
@@ -161,8 +215,10 @@ public class VideoStreamServer {
      * Đăng ký endpoint vào session với userId.
      */
     public void registerEndpoint(int sessionId, int userId, InetAddress address, int port) {
-        StreamSession session = sessions.computeIfAbsent(sessionId, k -> new StreamSession());
-        session.addUserEndpoint(userId, address, port);
+        synchronized (sessions) {
+            StreamSession session = sessions.computeIfAbsent(sessionId, k -> new StreamSession());
+            session.addUserEndpoint(userId, address, port);
+        }
         System.out.println("[VideoStreamServer] Endpoint registered: session=" + sessionId + 
                           ", userId=" + userId + ", " + address.getHostAddress() + ":" + port);
     }
@@ -179,11 +235,14 @@ public class VideoStreamServer {
      * Hủy đăng ký endpoint.
      */
     public void unregisterEndpoint(int sessionId, int userId) {
-        StreamSession session = sessions.get(sessionId);
-        if (session != null) {
-            session.removeUserEndpoint(userId);
-            if (session.getUserEndpoints().isEmpty()) {
-                sessions.remove(sessionId);
+        // Cùng lock với registerEndpoint để không xóa mất session vừa có user đăng ký vào
+        synchronized (sessions) {
+            StreamSession session = sessions.get(sessionId);
+            if (session != null) {
+                session.removeUserEndpoint(userId);
+                if (session.isEmpty()) {
+                    sessions.remove(sessionId);
+                }
             }
         }
     }
@@ -192,39 +251,77 @@ public class VideoStreamServer {
      * Stream session chứa các user endpoint.
      */
     private static class StreamSession {
-        // userId -> UserEndpoint
-        private final Map<Integer, UserEndpoint> userEndpoints = new ConcurrentHashMap<>();
+        // Các user trong cuộc gọi (thường 2-vài người): mảng phẳng, relay duyệt/tìm theo userId không boxing,
+        // không tạo iterator. Copy-on-write khi thêm/bớt user.
+        private volatile UserEndpoint[] endpoints = new UserEndpoint[0];
         
-        public Map<Integer, UserEndpoint> getUserEndpoints() {
-            return userEndpoints;
+        UserEndpoint[] snapshot() {
+            return endpoints;
         }
         
-        public void addUserEndpoint(int userId, InetAddress registeredAddr, int registeredPort) {
-            userEndpoints.put(userId, new UserEndpoint(userId, registeredAddr, registeredPort));
+        boolean isEmpty() {
+            return endpoints.length == 0;
+        }
+        
+        private UserEndpoint find(int userId) {
+            for (UserEndpoint endpoint : endpoints) {
+                if (endpoint.getUserId() == userId) {
+                    return endpoint;
+                }
+            }
+            return null;
+        }
+        
+        public synchronized void addUserEndpoint(int userId, InetAddress registeredAddr, int registeredPort) {
+            UserEndpoint added = new UserEndpoint(userId, registeredAddr, registeredPort);
+            UserEndpoint[] current = endpoints;
+            UserEndpoint[] next = null;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].getUserId() == userId) {
+                    next = current.clone(); // đăng ký lại (đổi port) thì thay endpoint cũ
+                    next[i] = added;
+                    break;
+                }
+            }
+            if (next == null) {
+                next = java.util.Arrays.copyOf(current, current.length + 1);
+                next[current.length] = added;
+            }
+            endpoints = next;
             System.out.println("[StreamSession] Added user endpoint: userId=" + userId + 
                               ", registered=" + registeredAddr.getHostAddress() + ":" + registeredPort);
         }
         
-        public void removeUserEndpoint(int userId) {
-            userEndpoints.remove(userId);
+        public synchronized void removeUserEndpoint(int userId) {
+            UserEndpoint[] current = endpoints;
+            int kept = 0;
+            UserEndpoint[] next = new UserEndpoint[current.length];
+            for (UserEndpoint endpoint : current) {
+                if (endpoint.getUserId() != userId) {
+                    next[kept++] = endpoint;
+                }
+            }
+            if (kept != current.length) {
+                endpoints = java.util.Arrays.copyOf(next, kept);
+            }
         }
         
         /**
          * Cập nhật địa chỉ thực tế của user khi nhận được packet đầu tiên.
          */
-        public void updateUserEndpoint(int userId, InetAddress actualAddr, int actualPort) {
-            UserEndpoint endpoint = userEndpoints.get(userId);
+        public void updateUserEndpoint(int userId, InetSocketAddress actual) {
+            UserEndpoint endpoint = find(userId);
             if (endpoint != null && !endpoint.hasActualAddress()) {
-                endpoint.setActualAddress(actualAddr, actualPort);
+                endpoint.setActualAddress(actual);
                 System.out.println("[StreamSession] Updated actual endpoint for userId=" + userId + 
-                                  ": " + actualAddr.getHostAddress() + ":" + actualPort);
+                                  ": " + actual.getAddress().getHostAddress() + ":" + actual.getPort());
             }
         }
         
         // Legacy methods
         public java.util.Set<StreamEndpoint> getEndpoints() {
             java.util.Set<StreamEndpoint> endpoints = new java.util.HashSet<>();
-            for (UserEndpoint ue : userEndpoints.values()) {
+            for (UserEndpoint ue : this.endpoints) {
                 if (ue.hasActualAddress()) {
                     endpoints.add(new StreamEndpoint(ue.getActualAddress(), ue.getActualPort()));
                 }
@@ -250,15 +347,13 @@ public class VideoStreamServer {
      */
     private static class UserEndpoint {
         private final int userId;
-        private final InetAddress registeredAddress;
-        private final int registeredPort;
-        private InetAddress actualAddress;
-        private int actualPort;
+        private final InetSocketAddress registered;
+        // Địa chỉ thấy được từ packet đầu tiên của user (sau NAT), giữ nguyên object để gửi không phải tạo mới
+        private volatile InetSocketAddress actual;
         
         public UserEndpoint(int userId, InetAddress registeredAddr, int registeredPort) {
             this.userId = userId;
-            this.registeredAddress = registeredAddr;
-            this.registeredPort = registeredPort;
+            this.registered = new InetSocketAddress(registeredAddr, registeredPort);
         }
         
         public int getUserId() {
@@ -266,20 +361,24 @@ public class VideoStreamServer {
         }
         
         public boolean hasActualAddress() {
-            return actualAddress != null;
+            return actual != null;
+        }
+        
+        public void setActualAddress(InetSocketAddress actual) {
+            this.actual = actual;
         }
         
-        public void setActualAddress(InetAddress addr, int port) {
-            this.actualAddress = addr;
-            this.actualPort = port;
+        public InetSocketAddress getSocketAddress() {
+            InetSocketAddress a = actual;
+            return a != null ? a : registered;
         }
         
         public InetAddress getActualAddress() {
-            return actualAddress != null ? actualAddress : registeredAddress;
+            return getSocketAddress().getAddress();
         }
         
         public int getActualPort() {
-            return actualAddress != null ? actualPort : registeredPort;
+            return getSocketAddress().getPort();
         }
     }
     
@@ -318,7 +417,7 @@ public class VideoStreamServer {
     }
     
     public static void main(String[] args) throws SocketException {
-        VideoStreamServer server = new VideoStreamServer(8888);
+        VideoStreamServer server = new VideoStreamServer(8888, ServerConfig.VIDEO_RELAY_WORKERS);
         server.start();
         
         // Giữ server chạy
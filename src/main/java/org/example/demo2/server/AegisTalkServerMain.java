@@ -1,5 +1,8 @@
 package org.example.demo2.server;
 
+import org.example.demo2.config.ServerConfig;
+import org.example.demo2.dao.UserCache;
+import org.example.demo2.net.chat.NioChatServer;
 import org.example.demo2.net.files.FileHttpServerMain;
 import org.example.demo2.net.moderation.ModerationServerMain;
 import org.example.demo2.net.udp.VideoStreamServer;
@@ -13,6 +16,14 @@ public class AegisTalkServerMain {
         System.out.println("   AegisTalk Server - Starting...");
         System.out.println();
         
+        // Khi tắt server (Ctrl+C): in hiệu quả UserCache để chỉnh user.cache.max.size / ttl
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            UserCache userCache = UserCache.getInstance();
+            if (userCache.isEnabled()) {
+                System.out.println("[Main] User cache: " + userCache);
+            }
+        }, "Stats-Reporter"));
+        
         // 1. RMI Service Server (Auth, Friend, Chat, Group)
         System.out.println("[Main] Starting RMI Service Server...");
         Thread rmiThread = new Thread(() -> {
@@ -45,11 +56,20 @@ public class AegisTalkServerMain {
         moderationThread.start();
         
         // 3. TCP Chat Server (ChatServer - đơn giản hơn, chỉ broadcast messages)
-        System.out.println("[Main] Starting TCP Chat Server...");
+        //    chat.server.mode=nio -> NioChatServer (Selector event loop, không cần thread cho mỗi client)
+        System.out.println("[Main] Starting TCP Chat Server (mode=" + ServerConfig.CHAT_SERVER_MODE + ")...");
         Thread tcpThread = new Thread(() -> {
             try {
-                org.example.demo2.net.chat.ChatServer chatServer = new org.example.demo2.net.chat.ChatServer(5555);
-                chatServer.start();
+                // RMI service đẩy sự kiện bạn bè/hồ sơ qua chat server (thay cho client poll 3 giây)
+                if ("nio".equalsIgnoreCase(ServerConfig.CHAT_SERVER_MODE)) {
+                    NioChatServer chatServer = new NioChatServer(5555, ServerConfig.CHAT_IO_THREADS);
+                    RMIServiceServer.setUserPushChannel(chatServer);
+                    chatServer.start();
+                } else {
+                    org.example.demo2.net.chat.ChatServer chatServer = new org.example.demo2.net.chat.ChatServer(5555);
+                    RMIServiceServer.setUserPushChannel(chatServer);
+                    chatServer.start();
+                }
             } catch (IOException e) {
                 System.err.println("[Main] TCP Chat Server error: " + e.getMessage());
                 e.printStackTrace();
@@ -63,7 +83,7 @@ public class AegisTalkServerMain {
         VideoStreamServer[] udpServerRef = new VideoStreamServer[1];
         Thread udpThread = new Thread(() -> {
             try {
-                VideoStreamServer udpServer = new VideoStreamServer(8888);
+                VideoStreamServer udpServer = new VideoStreamServer(8888, ServerConfig.VIDEO_RELAY_WORKERS);
                 udpServerRef[0] = udpServer;
                 udpServer.start();
                 
@@ -4,6 +4,8 @@ import org.example.demo2.model.User;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Set;
 
 /**
  * RMI Service cho xác thực người dùng (đăng nhập/đăng ký).
@@ -64,10 +66,22 @@ public interface AuthService extends Remote {
      */
     User findById(Long userId) throws RemoteException;
 
+    /**
+     * Lấy thông tin nhiều user trong 1 lần gọi (tên người gửi, avatar của cả trang tin nhắn).
+     * ID không tồn tại thì không có trong kết quả.
+     */
+    List<User> getUsers(List<Long> userIds) throws RemoteException;
+
     /**
      * Kiểm tra user có đang online (có session hợp lệ).
      */
     boolean isOnline(Long userId) throws RemoteException;
+
+    /**
+     * Trạng thái online của nhiều user trong 1 lần gọi (danh sách bạn bè).
+     * @return ID của những user đang online trong userIds
+     */
+    Set<Long> getOnlineUserIds(List<Long> userIds) throws RemoteException;
 }
 
 
@@ -1,13 +1,20 @@
 package org.example.demo2.service.rmi;
 
+import org.example.demo2.dao.FriendDao;
 import org.example.demo2.dao.UserDao;
+import org.example.demo2.model.ChatMessage;
 import org.example.demo2.model.User;
+import org.example.demo2.net.chat.ChatProtocol;
 
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.security.MessageDigest;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -20,8 +27,12 @@ import java.util.concurrent.ConcurrentMap;
  */
 public class AuthServiceImpl extends UnicastRemoteObject implements AuthService {
     
-    private final UserDao userDao = new UserDao();
-    private final ConcurrentMap<Long, Long> activeSessions = new ConcurrentHashMap<>(); // userId -> lastAccessTime
+    // Remote object chỉ được export (client nhận stub), không bao giờ serialize nên mọi field đều transient
+    private static final long serialVersionUID = 1L;
+    
+    private final transient UserDao userDao = new UserDao();
+    private final transient FriendDao friendDao = new FriendDao();
+    private final transient ConcurrentMap<Long, Long> activeSessions = new ConcurrentHashMap<>(); // userId -> lastAccessTime
     
     public AuthServiceImpl() throws RemoteException {
         super();
@@ -123,12 +134,24 @@ public class AuthServiceImpl extends UnicastRemoteObject implements AuthService
         return isValidSession(userId);
     }
 
+    @Override
+    public Set<Long> getOnlineUserIds(List<Long> userIds) throws RemoteException {
+        Set<Long> online = new HashSet<>();
+        for (Long userId : userIds) {
+            if (userId != null && isValidSession(userId)) {
+                online.add(userId);
+            }
+        }
+        return online;
+    }
+
     @Override
     public User updateProfile(Long userId, String displayName, String avatarPath) throws RemoteException {
         try {
             User updated = userDao.updateProfile(userId, displayName, avatarPath);
             if (updated != null) {
                 activeSessions.put(userId, System.currentTimeMillis());
+                pushProfileChanged(userId);
             }
             return updated;
         } catch (SQLException e) {
@@ -136,6 +159,19 @@ public class AuthServiceImpl extends UnicastRemoteObject implements AuthService
         }
     }
 
+    /** Báo cho bạn bè (và các client khác của chính user) cập nhật tên/avatar */
+    private void pushProfileChanged(Long userId) {
+        ChatMessage event = ChatProtocol.event(ChatProtocol.EVENT_PROFILE_CHANGED, userId);
+        RMIServiceServer.pushToUser(userId, event);
+        try {
+            for (User friend : friendDao.getFriends(userId)) {
+                RMIServiceServer.pushToUser(friend.id(), event);
+            }
+        } catch (SQLException e) {
+            System.err.println("[AuthServiceImpl] Cannot notify friends of user " + userId + ": " + e.getMessage());
+        }
+    }
+
     @Override
     public boolean changePassword(Long userId, String oldPassword, String newPassword) throws RemoteException {
         try {
@@ -166,6 +202,15 @@ public class AuthServiceImpl extends UnicastRemoteObject implements AuthService
             throw new RemoteException("Database error: " + e.getMessage(), e);
         }
     }
+
+    @Override
+    public List<User> getUsers(List<Long> userIds) throws RemoteException {
+        try {
+            return new ArrayList<>(userDao.findByIds(userIds).values());
+        } catch (SQLException e) {
+            throw new RemoteException("Database error: " + e.getMessage(), e);
+        }
+    }
     
     private String hashPassword(String password) throws RemoteException {
         try {
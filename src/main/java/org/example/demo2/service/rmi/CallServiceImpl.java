@@ -1,5 +1,6 @@
 package org.example.demo2.service.rmi;
 
+import org.example.demo2.net.chat.ChatProtocol;
 import org.example.demo2.net.udp.VideoStreamServer;
 
 import java.net.InetAddress;
@@ -8,6 +9,7 @@ import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -17,19 +19,27 @@ import java.util.concurrent.atomic.AtomicInteger;
  * Áp dụng: RMI (Remote Method Invocation) - Bài RMI
  * - Kế thừa UnicastRemoteObject để export remote object
  * - Client gọi method từ xa để quản lý cuộc gọi
+ * - Mời/nhận/từ chối/kết thúc được đẩy ngay cho 2 bên qua chat server (ChatProtocol.EVENT_CALL_*),
+ *   getPendingCalls/getCallInfo chỉ còn dùng khi client không nhận được sự kiện
  */
 public class CallServiceImpl extends UnicastRemoteObject implements CallService {
     
+    // Chỉ được export (client nhận stub), không serialize trạng thái
+    private static final long serialVersionUID = 1L;
+    
     private static final AtomicInteger sessionIdGenerator = new AtomicInteger(1);
     
     // Quản lý call sessions: sessionId -> CallInfo
-    private final Map<Integer, CallInfo> callSessions = new ConcurrentHashMap<>();
+    private final transient Map<Integer, CallInfo> callSessions = new ConcurrentHashMap<>();
+    
+    // Chỉ mục cuộc gọi PENDING theo người nhận: calleeId -> sessionIds (getPendingCalls không phải quét hết callSessions)
+    private final transient Map<Long, Set<Integer>> pendingByCallee = new ConcurrentHashMap<>();
     
     // Quản lý UDP endpoints: sessionId -> Map<userId, EndpointInfo>
-    private final Map<Integer, Map<Long, EndpointInfo>> udpEndpoints = new ConcurrentHashMap<>();
+    private final transient Map<Integer, Map<Long, EndpointInfo>> udpEndpoints = new ConcurrentHashMap<>();
     
     // Reference đến VideoStreamServer để đăng ký endpoint
-    private VideoStreamServer videoStreamServer;
+    private transient VideoStreamServer videoStreamServer;
     
     public CallServiceImpl() throws RemoteException {
         super();
@@ -55,7 +65,14 @@ public class CallServiceImpl extends UnicastRemoteObject implements CallService
         );
         
         callSessions.put(sessionId, callInfo);
+        // compute/computeIfPresent để thêm/xoá không "đua" với việc dọn set rỗng
+        pendingByCallee.compute(calleeId, (k, set) -> {
+            Set<Integer> target = set != null ? set : ConcurrentHashMap.newKeySet();
+            target.add(sessionId);
+            return target;
+        });
         System.out.println("[CallService] Call invited: session=" + sessionId + ", caller=" + callerId + ", callee=" + calleeId);
+        push(calleeId, ChatProtocol.EVENT_CALL_INVITE, callerId, sessionId);
         
         return sessionId;
     }
@@ -80,8 +97,12 @@ public class CallServiceImpl extends UnicastRemoteObject implements CallService
             callInfo.createdAt
         );
         callSessions.put(callSessionId, updated);
+        removePending(callInfo);
         
         System.out.println("[CallService] Call accepted: session=" + callSessionId + ", user=" + userId);
+        // Cả người nhận: các client khác của họ đóng hộp thoại cuộc gọi đến
+        push(callInfo.callerId, ChatProtocol.EVENT_CALL_ACCEPTED, userId, callSessionId);
+        push(callInfo.calleeId, ChatProtocol.EVENT_CALL_ACCEPTED, userId, callSessionId);
         return true;
     }
     
@@ -95,8 +116,11 @@ public class CallServiceImpl extends UnicastRemoteObject implements CallService
         // Xóa session
         callSessions.remove(callSessionId);
         udpEndpoints.remove(callSessionId);
+        removePending(callInfo);
         
         System.out.println("[CallService] Call rejected: session=" + callSessionId + ", user=" + userId);
+        push(callInfo.callerId, ChatProtocol.EVENT_CALL_REJECTED, userId, callSessionId);
+        push(callInfo.calleeId, ChatProtocol.EVENT_CALL_REJECTED, userId, callSessionId);
         return true;
     }
     
@@ -123,8 +147,11 @@ public class CallServiceImpl extends UnicastRemoteObject implements CallService
         
         // Xóa UDP endpoints
         udpEndpoints.remove(callSessionId);
+        removePending(callInfo);
         
         System.out.println("[CallService] Call ended: session=" + callSessionId + ", user=" + userId);
+        push(callInfo.callerId, ChatProtocol.EVENT_CALL_ENDED, userId, callSessionId);
+        push(callInfo.calleeId, ChatProtocol.EVENT_CALL_ENDED, userId, callSessionId);
         return true;
     }
     
@@ -180,14 +207,30 @@ public class CallServiceImpl extends UnicastRemoteObject implements CallService
     @Override
     public List<CallInfo> getPendingCalls(Long userId) throws RemoteException {
         List<CallInfo> pending = new ArrayList<>();
-        for (CallInfo callInfo : callSessions.values()) {
-            if ("PENDING".equals(callInfo.status) && callInfo.calleeId.equals(userId)) {
+        Set<Integer> sessionIds = pendingByCallee.get(userId);
+        if (sessionIds == null) {
+            return pending;
+        }
+        for (Integer sessionId : sessionIds) {
+            CallInfo callInfo = callSessions.get(sessionId);
+            if (callInfo != null && "PENDING".equals(callInfo.status)) {
                 pending.add(callInfo);
             }
         }
         return pending;
     }
     
+    private void removePending(CallInfo callInfo) {
+        pendingByCallee.computeIfPresent(callInfo.calleeId, (k, set) -> {
+            set.remove(callInfo.sessionId);
+            return set.isEmpty() ? null : set;
+        });
+    }
+    
+    private static void push(Long toUserId, String kind, Long subjectUserId, Integer sessionId) {
+        RMIServiceServer.pushToUser(toUserId, ChatProtocol.event(kind, subjectUserId, String.valueOf(sessionId)));
+    }
+    
     /**
      * Model cho UDP endpoint info.
      */
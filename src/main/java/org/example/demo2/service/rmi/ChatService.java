@@ -2,10 +2,13 @@ package org.example.demo2.service.rmi;
 
 import org.example.demo2.model.ChatMessage;
 import org.example.demo2.model.Conversation;
+import org.example.demo2.model.MessagePage;
+import org.example.demo2.model.MessageSearchPage;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.List;
+import java.util.Map;
 
 /**
  * RMI Service cho quản lý chat và conversation.
@@ -25,6 +28,36 @@ public interface ChatService extends Remote {
      */
     List<ChatMessage> getMessageHistory(String conversationId, int limit) throws RemoteException;
     
+    /**
+     * Lấy 1 trang tin nhắn cũ hơn một tin (phân trang theo con trỏ, dùng khi cuộn lên xem tin cũ).
+     * @param conversationId ID conversation
+     * @param beforeMessageId ID tin làm con trỏ (MessagePage.oldestId của trang trước), null = trang mới nhất
+     * @param pageSize Số tin mỗi trang (tối đa MessageDao.MAX_PAGE_SIZE)
+     * @return Trang tin nhắn theo thứ tự cũ -> mới
+     * @throws RemoteException Lỗi RMI
+     */
+    MessagePage getMessagesBefore(String conversationId, Long beforeMessageId, int pageSize) throws RemoteException;
+    
+    /**
+     * Lấy 1 trang tin nhắn mới hơn một tin.
+     * @param conversationId ID conversation
+     * @param afterMessageId ID tin làm con trỏ (MessagePage.newestId của trang trước), null = từ tin đầu tiên
+     * @param pageSize Số tin mỗi trang (tối đa MessageDao.MAX_PAGE_SIZE)
+     * @return Trang tin nhắn theo thứ tự cũ -> mới
+     * @throws RemoteException Lỗi RMI
+     */
+    MessagePage getMessagesAfter(String conversationId, Long afterMessageId, int pageSize) throws RemoteException;
+    
+    /**
+     * Tìm tin nhắn trong conversation (full-text trên server, gồm cả tin cũ), xếp theo độ liên quan.
+     * @param conversationId ID conversation
+     * @param query Từ khóa (mọi từ đều phải xuất hiện)
+     * @param cursor nextCursor của trang kết quả trước, null = trang đầu
+     * @return Trang kết quả, nextCursor = null khi hết
+     * @throws RemoteException Lỗi RMI
+     */
+    MessageSearchPage searchMessages(String conversationId, String query, String cursor) throws RemoteException;
+    
     /**
      * Lấy danh sách conversation của user (bao gồm direct chat và group).
      * @param userId ID người dùng
@@ -58,6 +91,14 @@ public interface ChatService extends Remote {
      */
     ChatMessage getLastMessage(String conversationId) throws RemoteException;
     
+    /**
+     * Lấy tin nhắn cuối cùng của nhiều conversation trong 1 lần gọi (danh sách bạn bè).
+     * @param conversationIds ID các conversation
+     * @return conversationId -> tin nhắn cuối cùng (conversation chưa có tin nhắn thì không có trong map)
+     * @throws RemoteException Lỗi RMI
+     */
+    Map<String, ChatMessage> getLastMessages(List<String> conversationIds) throws RemoteException;
+    
     /**
      * Lấy display name của user từ user ID.
      * @param userId ID người dùng
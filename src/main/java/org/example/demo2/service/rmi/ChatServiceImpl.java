@@ -5,12 +5,15 @@ import org.example.demo2.dao.MessageDao;
 import org.example.demo2.dao.UserDao;
 import org.example.demo2.model.ChatMessage;
 import org.example.demo2.model.Conversation;
+import org.example.demo2.model.MessagePage;
+import org.example.demo2.model.MessageSearchPage;
 import org.example.demo2.model.User;
 
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Implementation của ChatService sử dụng RMI.
@@ -21,9 +24,13 @@ import java.util.List;
  */
 public class ChatServiceImpl extends UnicastRemoteObject implements ChatService {
     
-    private final MessageDao messageDao = new MessageDao();
-    private final ConversationDao conversationDao = new ConversationDao();
-    private final UserDao userDao = new UserDao();
+    private static final long serialVersionUID = 1L;
+    
+    private final transient MessageDao messageDao = new MessageDao();
+    private final transient ConversationDao conversationDao = new ConversationDao();
+    private final transient UserDao userDao = new UserDao();
+    
+    private static final int SEARCH_PAGE_SIZE = 20;
     
     public ChatServiceImpl() throws RemoteException {
         super();
@@ -38,6 +45,33 @@ public class ChatServiceImpl extends UnicastRemoteObject implements ChatService
         }
     }
     
+    @Override
+    public MessagePage getMessagesBefore(String conversationId, Long beforeMessageId, int pageSize) throws RemoteException {
+        try {
+            return messageDao.getHistoryBefore(conversationId, beforeMessageId, pageSize);
+        } catch (SQLException e) {
+            throw new RemoteException("Database error: " + e.getMessage(), e);
+        }
+    }
+    
+    @Override
+    public MessagePage getMessagesAfter(String conversationId, Long afterMessageId, int pageSize) throws RemoteException {
+        try {
+            return messageDao.getHistoryAfter(conversationId, afterMessageId, pageSize);
+        } catch (SQLException e) {
+            throw new RemoteException("Database error: " + e.getMessage(), e);
+        }
+    }
+    
+    @Override
+    public MessageSearchPage searchMessages(String conversationId, String query, String cursor) throws RemoteException {
+        try {
+            return messageDao.search(conversationId, query, cursor, SEARCH_PAGE_SIZE);
+        } catch (SQLException e) {
+            throw new RemoteException("Database error: " + e.getMessage(), e);
+        }
+    }
+    
     @Override
     public List<Conversation> getUserConversations(Long userId) throws RemoteException {
         try {
@@ -82,8 +116,16 @@ public class ChatServiceImpl extends UnicastRemoteObject implements ChatService
     @Override
     public ChatMessage getLastMessage(String conversationId) throws RemoteException {
         try {
-            List<ChatMessage> messages = messageDao.getHistory(conversationId, 1);
-            return messages.isEmpty() ? null : messages.get(messages.size() - 1);
+            return messageDao.getLastMessage(conversationId);
+        } catch (SQLException e) {
+            throw new RemoteException("Database error: " + e.getMessage(), e);
+        }
+    }
+    
+    @Override
+    public Map<String, ChatMessage> getLastMessages(List<String> conversationIds) throws RemoteException {
+        try {
+            return messageDao.getLastMessages(conversationIds);
         } catch (SQLException e) {
             throw new RemoteException("Database error: " + e.getMessage(), e);
         }
@@ -3,6 +3,7 @@ package org.example.demo2.service.rmi;
 import org.example.demo2.dao.FriendDao;
 import org.example.demo2.dao.UserDao;
 import org.example.demo2.model.User;
+import org.example.demo2.net.chat.ChatProtocol;
 
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
@@ -15,11 +16,14 @@ import java.util.List;
  * Áp dụng: RMI (Remote Method Invocation) - Bài RMI
  * - Kế thừa UnicastRemoteObject để export remote object
  * - Client gọi method từ xa để quản lý bạn bè
+ * - Thay đổi thành công thì đẩy sự kiện (ChatProtocol.EVENT_FRIEND_*) cho các bên qua chat server
  */
 public class FriendServiceImpl extends UnicastRemoteObject implements FriendService {
     
-    private final FriendDao friendDao = new FriendDao();
-    private final UserDao userDao = new UserDao();
+    private static final long serialVersionUID = 1L;
+    
+    private final transient FriendDao friendDao = new FriendDao();
+    private final transient UserDao userDao = new UserDao();
     
     public FriendServiceImpl() throws RemoteException {
         super();
@@ -40,7 +44,11 @@ public class FriendServiceImpl extends UnicastRemoteObject implements FriendServ
             if (fromUserId.equals(toUserId)) {
                 return false;
             }
-            return friendDao.sendFriendRequest(fromUserId, toUserId);
+            boolean sent = friendDao.sendFriendRequest(fromUserId, toUserId);
+            if (sent) {
+                push(toUserId, ChatProtocol.EVENT_FRIEND_REQUEST, fromUserId);
+            }
+            return sent;
         } catch (SQLException e) {
             throw new RemoteException("Database error: " + e.getMessage(), e);
         }
@@ -49,7 +57,11 @@ public class FriendServiceImpl extends UnicastRemoteObject implements FriendServ
     @Override
     public boolean cancelFriendRequest(Long fromUserId, Long toUserId) throws RemoteException {
         try {
-            return friendDao.cancelFriendRequest(fromUserId, toUserId);
+            boolean cancelled = friendDao.cancelFriendRequest(fromUserId, toUserId);
+            if (cancelled) {
+                push(toUserId, ChatProtocol.EVENT_FRIEND_REQUEST_CANCELLED, fromUserId);
+            }
+            return cancelled;
         } catch (SQLException e) {
             throw new RemoteException("Database error: " + e.getMessage(), e);
         }
@@ -58,7 +70,12 @@ public class FriendServiceImpl extends UnicastRemoteObject implements FriendServ
     @Override
     public boolean acceptFriendRequest(Long userId, Long friendId) throws RemoteException {
         try {
-            return friendDao.acceptFriendRequest(userId, friendId);
+            boolean accepted = friendDao.acceptFriendRequest(userId, friendId);
+            if (accepted) {
+                push(friendId, ChatProtocol.EVENT_FRIEND_ACCEPTED, userId);
+                push(userId, ChatProtocol.EVENT_FRIEND_ACCEPTED, friendId);
+            }
+            return accepted;
         } catch (SQLException e) {
             throw new RemoteException("Database error: " + e.getMessage(), e);
         }
@@ -67,7 +84,12 @@ public class FriendServiceImpl extends UnicastRemoteObject implements FriendServ
     @Override
     public boolean rejectFriendRequest(Long userId, Long friendId) throws RemoteException {
         try {
-            return friendDao.rejectFriendRequest(userId, friendId);
+            boolean rejected = friendDao.rejectFriendRequest(userId, friendId);
+            if (rejected) {
+                // Chỉ các client khác của người từ chối cần bỏ lời mời khỏi danh sách
+                push(userId, ChatProtocol.EVENT_FRIEND_REJECTED, friendId);
+            }
+            return rejected;
         } catch (SQLException e) {
             throw new RemoteException("Database error: " + e.getMessage(), e);
         }
@@ -103,11 +125,20 @@ public class FriendServiceImpl extends UnicastRemoteObject implements FriendServ
     @Override
     public boolean removeFriend(Long userId, Long friendId) throws RemoteException {
         try {
-            return friendDao.removeFriend(userId, friendId);
+            boolean removed = friendDao.removeFriend(userId, friendId);
+            if (removed) {
+                push(friendId, ChatProtocol.EVENT_FRIEND_REMOVED, userId);
+                push(userId, ChatProtocol.EVENT_FRIEND_REMOVED, friendId);
+            }
+            return removed;
         } catch (SQLException e) {
             throw new RemoteException("Database error: " + e.getMessage(), e);
         }
     }
+
+    private static void push(Long toUserId, String kind, Long subjectUserId) {
+        RMIServiceServer.pushToUser(toUserId, ChatProtocol.event(kind, subjectUserId));
+    }
 }
 
 
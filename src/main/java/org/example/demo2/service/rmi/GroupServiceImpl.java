@@ -8,7 +8,6 @@ import org.example.demo2.model.User;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -20,8 +19,10 @@ import java.util.List;
  */
 public class GroupServiceImpl extends UnicastRemoteObject implements GroupService {
     
-    private final ConversationDao conversationDao = new ConversationDao();
-    private final UserDao userDao = new UserDao();
+    private static final long serialVersionUID = 1L;
+    
+    private final transient ConversationDao conversationDao = new ConversationDao();
+    private final transient UserDao userDao = new UserDao();
     
     public GroupServiceImpl() throws RemoteException {
         super();
@@ -78,15 +79,8 @@ public class GroupServiceImpl extends UnicastRemoteObject implements GroupServic
     @Override
     public List<User> getGroupMembers(Long groupId) throws RemoteException {
         try {
-            List<Long> participantIds = conversationDao.getParticipantIds(groupId);
-            List<User> members = new ArrayList<>();
-            for (Long userId : participantIds) {
-                User user = userDao.findById(userId);
-                if (user != null) {
-                    members.add(user);
-                }
-            }
-            return members;
+            // 1 câu JOIN cho cả nhóm (trước đây mỗi thành viên 1 lần findById)
+            return userDao.findParticipants(groupId);
         } catch (SQLException e) {
             throw new RemoteException("Database error: " + e.getMessage(), e);
         }
@@ -1,5 +1,8 @@
 package org.example.demo2.service.rmi;
 
+import org.example.demo2.model.ChatMessage;
+import org.example.demo2.net.chat.UserPushChannel;
+
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 
@@ -20,6 +23,8 @@ public class RMIServiceServer {
     
     private static final int RMI_PORT = 1099;
     private static CallServiceImpl callServiceInstance;
+    // Chat server chạy cùng process (AegisTalkServerMain) để đẩy sự kiện cho client
+    private static volatile UserPushChannel userPushChannel = UserPushChannel.NONE;
     
     public static void main(String[] args) {
         try {
@@ -72,6 +77,25 @@ public class RMIServiceServer {
     public static CallServiceImpl getCallServiceInstance() {
         return callServiceInstance;
     }
+    
+    /**
+     * Gắn chat server để các service đẩy sự kiện (ChatProtocol.event) cho client.
+     * Chỉ dùng trong nội bộ server.
+     */
+    public static void setUserPushChannel(UserPushChannel channel) {
+        userPushChannel = channel != null ? channel : UserPushChannel.NONE;
+    }
+    
+    /**
+     * Đẩy sự kiện cho user, gọi sau khi DB đã cập nhật. Lỗi chỉ ghi log: client vẫn tự poll khi không nhận được.
+     */
+    static void pushToUser(Long userId, ChatMessage event) {
+        try {
+            userPushChannel.pushToUser(String.valueOf(userId), event);
+        } catch (Exception e) {
+            System.err.println("[RMIServiceServer] Cannot push " + event.payloadRef() + " to user " + userId + ": " + e.getMessage());
+        }
+    }
 }
 
 
@@ -1,22 +1,20 @@
 package org.example.demo2.ui;
 
+import org.example.demo2.dao.ConnectionPool;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 public class DBTest {
 
-    // TODO: sửa lại cho đúng cấu hình của bạn
-    private static final String URL =
-            "jdbc:mysql://localhost:3306/aegistalk?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC";
-    private static final String USER = "root";       // tài khoản MySQL của bạn
-    private static final String PASSWORD = "1234"; // mật khẩu MySQL của bạn
+    // Cấu hình kết nối (db.url, db.user, db.password, db.pool.*) nằm trong config.properties
 
     /**
      * Hàm tiện dụng để các chỗ khác (DAO, server…) dùng chung.
+     * Kết nối lấy từ ConnectionPool, close() sẽ trả kết nối về pool thay vì đóng hẳn.
      */
     public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(URL, USER, PASSWORD);
+        return ConnectionPool.getInstance().getConnection();
     }
 
     // Hàm main chỉ để test riêng: chạy thử xem kết nối được DB không
@@ -27,5 +25,6 @@ public class DBTest {
             System.out.println("❌ Kết nối DB thất bại");
             e.printStackTrace();
         }
+        System.out.println("[DBTest] Pool: " + ConnectionPool.getInstance());
     }
 }
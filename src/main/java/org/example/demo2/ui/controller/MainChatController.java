@@ -20,12 +20,16 @@ import javafx.util.Duration;
 import javafx.stage.FileChooser;
 import org.example.demo2.Session;
 import org.example.demo2.client.AegisTalkClientService;
+import org.example.demo2.client.BoundedCache;
 import org.example.demo2.model.ChatMessage;
 import org.example.demo2.model.Conversation;
+import org.example.demo2.model.MessagePage;
+import org.example.demo2.model.MessageSearchPage;
 import org.example.demo2.model.ModerationDecision;
 import org.example.demo2.model.ModerationResult;
 import org.example.demo2.model.User;
 import org.example.demo2.net.chat.ChatClient;
+import org.example.demo2.net.chat.ChatProtocol;
 import org.example.demo2.net.moderation.ModerationClient;
 import org.example.demo2.service.rmi.CallService;
 
@@ -98,6 +102,10 @@ public class MainChatController {
     
     // Store search results for click handling
     private List<ChatMessage> currentMessageSearchResults = new java.util.ArrayList<>();
+    private final List<Long> currentMessageSearchIds = new java.util.ArrayList<>();
+    private String searchKeyword;
+    private String searchNextCursor; // null = đã hết kết quả
+    private static final String LOAD_MORE_RESULTS = "Xem thêm kết quả...";
     
     // ========== Services ==========
     private AegisTalkClientService clientService;
@@ -105,6 +113,29 @@ public class MainChatController {
     private ModerationClient moderationClient;
     private org.example.demo2.service.FileTransferService fileTransferService;
     
+    // Có sự kiện đẩy từ chat server thì chỉ tải lại toàn bộ danh sách bạn bè sau mỗi khoảng này (cập nhật online)
+    private static final long EVENTS_RECONCILE_MILLIS = 60_000;
+    private volatile long lastFullRefresh;
+    // Tương tự cho cuộc gọi đến: có sự kiện CALL_INVITE thì chỉ đối chiếu getPendingCalls sau mỗi khoảng này
+    private static final long CALL_RECONCILE_MILLIS = 15_000;
+    private volatile long lastCallCheck;
+    // Hộp thoại cuộc gọi đến đang mở (đóng khi cuộc gọi được nhận ở client khác / bị huỷ)
+    private final Map<Integer, javafx.scene.control.Alert> incomingCallAlerts = new HashMap<>();
+    // Migrate avatar (file cục bộ -> URL) của bạn bè: 1 thread nền cho mọi friend, mỗi file chỉ xếp 1 lần
+    private final java.util.concurrent.ExecutorService avatarMigrationExecutor =
+            java.util.concurrent.Executors.newSingleThreadExecutor(Thread.ofPlatform().name("AvatarMigration").daemon(true).factory());
+    private final Set<String> avatarMigrations = java.util.concurrent.ConcurrentHashMap.newKeySet();
+    private final Map<String, String> migratedAvatarUrls = new java.util.concurrent.ConcurrentHashMap<>();
+    // Conversation 1-1 với từng bạn (không đổi), tránh gọi getOrCreateDirectConversation mỗi lần tải danh sách
+    private final Map<Long, Conversation> directConversations = new java.util.concurrent.ConcurrentHashMap<>();
+    // Tải danh sách bạn, lời mời, user của sự kiện đẩy (gọi RMI) trên 1 thread nền, không chặn FX thread;
+    // yêu cầu tải danh sách bạn trong lúc 1 lần tải khác còn chờ thì gộp lại
+    private final java.util.concurrent.ExecutorService friendsLoader =
+            java.util.concurrent.Executors.newSingleThreadExecutor(Thread.ofPlatform().name("FriendsLoader").daemon(true).factory());
+    private final AtomicBoolean friendsLoadQueued = new AtomicBoolean();
+    // Cửa sổ video call đang mở, nhận sự kiện cuộc gọi từ server
+    private final Set<VideoCallController> openCallControllers = new HashSet<>();
+    
     // ========== Data ==========
     private final ObservableList<ContactItem> friendsList = FXCollections.observableArrayList();
     private final ObservableList<ContactItem> groupsList = FXCollections.observableArrayList();
@@ -113,7 +144,18 @@ public class MainChatController {
     private String currentRoomId; // Lưu room ID hiện tại để so sánh với incoming messages
     private final Set<Integer> shownCallDialogs = java.util.Collections.synchronizedSet(new HashSet<>()); // Track các call đã hiển thị dialog
     private final Set<Integer> activeCallDialogs = java.util.Collections.synchronizedSet(new HashSet<>()); // Track các dialog đang mở
-    private final Map<Long, User> userCache = new HashMap<>();
+    // Có giới hạn (LRU), đọc/ghi cả từ thread tải lịch sử (prefetchUsers)
+    private final BoundedCache<Long, User> userCache = new BoundedCache<>(
+            "users", org.example.demo2.config.ServerConfig.CLIENT_USER_CACHE_SIZE);
+    
+    // ========== Message history (tải dần khi cuộn lên) ==========
+    private static final int HISTORY_PAGE_SIZE = 50;
+    // Mở 1 kết quả tìm kiếm cũ: tải thêm tối đa REVEAL_MAX_PAGES trang, mỗi trang REVEAL_PAGE_SIZE tin (giới hạn của server)
+    private static final int REVEAL_PAGE_SIZE = 200;
+    private static final int REVEAL_MAX_PAGES = 10;
+    private Long oldestLoadedMessageId;      // con trỏ để tải trang cũ hơn
+    private boolean hasOlderMessages;
+    private boolean loadingOlderMessages;
     
     // ========== Notification ==========
     private AudioClip notificationSound;
@@ -153,8 +195,12 @@ public class MainChatController {
     // Track avatar URLs that have failed to load (to avoid spam error logs)
     private final java.util.Set<String> failedAvatarUrls = new java.util.HashSet<>();
     
-    // Cache loaded images to avoid reloading
-    private final java.util.Map<String, Image> imageCache = new java.util.concurrent.ConcurrentHashMap<>();
+    // Cache ảnh đã decode (avatar, preview ảnh trong chat), giới hạn theo số ảnh và dung lượng ước lượng
+    private final BoundedCache<String, Image> imageCache = new BoundedCache<>(
+            "images",
+            org.example.demo2.config.ServerConfig.CLIENT_IMAGE_CACHE_SIZE,
+            org.example.demo2.config.ServerConfig.CLIENT_IMAGE_CACHE_MB * 1024L * 1024L,
+            MainChatController::imageWeight);
     
     @FXML
     private void initialize() {
@@ -225,6 +271,13 @@ public class MainChatController {
         // Setup contacts list
         setupContactsList();
         
+        // Cuộn lên đầu khung chat -> tải thêm tin cũ
+        scrollMessages.vvalueProperty().addListener((obs, oldVal, newVal) -> {
+            if (newVal.doubleValue() <= scrollMessages.getVmin() && oldVal.doubleValue() > newVal.doubleValue()) {
+                loadOlderMessages();
+            }
+        });
+        
         // Setup chat input
         txtMessage.setOnAction(e -> sendMessage());
         txtMessage.textProperty().addListener((obs, oldVal, newVal) -> sendTypingSignal());
@@ -924,45 +977,47 @@ public class MainChatController {
             return;
         }
         
+        // Tìm trên server (full-text, gồm cả tin cũ chưa tải), mỗi lần 1 trang kết quả
+        currentMessageSearchResults.clear();
+        currentMessageSearchIds.clear();
+        searchKeyword = keyword;
+        searchNextCursor = null;
+        loadMessageSearchPage(null);
+    }
+    
+    /**
+     * Tải 1 trang kết quả tìm kiếm và thêm vào danh sách (cursor = null là trang đầu).
+     */
+    private void loadMessageSearchPage(String cursor) {
         try {
-            // Lấy tất cả tin nhắn trong conversation
-            List<ChatMessage> allMessages = clientService.getMessageHistory(currentRoomId, 500);
-            
-            // Lọc tin nhắn chứa từ khóa
-            String keywordLower = keyword.toLowerCase();
-            List<ChatMessage> matchedMessages = allMessages.stream()
-                    .filter(msg -> msg.text() != null && msg.text().toLowerCase().contains(keywordLower))
-                    .collect(Collectors.toList());
-            
-            if (matchedMessages.isEmpty()) {
-                lblMessageSearchResults.setText("Không tìm thấy kết quả cho \"" + keyword + "\"");
+            MessageSearchPage page = clientService.searchMessages(currentRoomId, searchKeyword, cursor);
+            prefetchUsers(page.messages());
+            currentMessageSearchResults.addAll(page.messages());
+            currentMessageSearchIds.addAll(page.messageIds());
+            searchNextCursor = page.nextCursor();
+            
+            if (currentMessageSearchResults.isEmpty()) {
+                lblMessageSearchResults.setText("Không tìm thấy kết quả cho \"" + searchKeyword + "\"");
                 lstMessageSearchResults.setVisible(false);
                 lstMessageSearchResults.setManaged(false);
-                currentMessageSearchResults.clear();
             } else {
-                lblMessageSearchResults.setText("Tìm thấy " + matchedMessages.size() + " kết quả");
-                
-                // Store results for click handling
-                currentMessageSearchResults.clear();
-                currentMessageSearchResults.addAll(matchedMessages);
+                lblMessageSearchResults.setText("Tìm thấy " + currentMessageSearchResults.size()
+                        + (searchNextCursor != null ? "+" : "") + " kết quả");
                 
                 // Convert to display strings
                 ObservableList<String> displayItems = FXCollections.observableArrayList();
-                for (ChatMessage msg : matchedMessages) {
-                    String senderName = msg.from();
-                    try {
-                        Long userId = Long.parseLong(msg.from());
-                        senderName = clientService.getUserDisplayName(userId);
-                    } catch (Exception e) {
-                        // Use as-is
-                    }
-                    String text = msg.text();
+                for (ChatMessage msg : currentMessageSearchResults) {
+                    String senderName = senderDisplayName(msg.from());
+                    String text = msg.text() != null ? msg.text() : "";
                     if (text.length() > 50) {
                         text = text.substring(0, 50) + "...";
                     }
                     String time = formatTimestamp(msg.ts());
                     displayItems.add(senderName + " • " + time + "\n" + text);
                 }
+                if (searchNextCursor != null) {
+                    displayItems.add(LOAD_MORE_RESULTS);
+                }
                 
                 // Setup ListView
                 setupMessageSearchResultsList();
@@ -971,7 +1026,7 @@ public class MainChatController {
                 lstMessageSearchResults.setManaged(true);
                 
                 // Highlight từ khóa trong messages container
-                highlightSearchResults(keyword);
+                highlightSearchResults(searchKeyword);
             }
         } catch (RemoteException e) {
             showError("Lỗi tìm kiếm: " + e.getMessage());
@@ -1022,7 +1077,9 @@ public class MainChatController {
             int selectedIndex = lstMessageSearchResults.getSelectionModel().getSelectedIndex();
             if (selectedIndex >= 0 && selectedIndex < currentMessageSearchResults.size()) {
                 ChatMessage selected = currentMessageSearchResults.get(selectedIndex);
-                scrollToMessage(selected);
+                revealMessage(selected, currentMessageSearchIds.get(selectedIndex));
+            } else if (selectedIndex == currentMessageSearchResults.size() && searchNextCursor != null) {
+                loadMessageSearchPage(searchNextCursor);
             }
         });
     }
@@ -1037,6 +1094,63 @@ public class MainChatController {
         return dateTime.format(formatter);
     }
     
+    /**
+     * Scroll tới kết quả tìm kiếm; nếu tin chưa được tải (nằm sâu trong lịch sử) thì tải thêm các trang cũ hơn
+     * cho tới khi chứa tin đó rồi mới scroll.
+     */
+    private void revealMessage(ChatMessage targetMsg, long messageId) {
+        if (isMessageLoaded(targetMsg) || !hasOlderMessages || oldestLoadedMessageId == null || loadingOlderMessages) {
+            scrollToMessage(targetMsg);
+            return;
+        }
+        loadingOlderMessages = true;
+        String roomId = currentRoomId;
+        Long from = oldestLoadedMessageId;
+        new Thread(() -> {
+            List<ChatMessage> older = new java.util.ArrayList<>();
+            Long cursor = from;
+            boolean more = true;
+            try {
+                for (int i = 0; i < REVEAL_MAX_PAGES && more && cursor > messageId; i++) {
+                    MessagePage page = clientService.getMessagesBefore(roomId, cursor, REVEAL_PAGE_SIZE);
+                    prefetchUsers(page.messages());
+                    older.addAll(0, page.messages());
+                    more = page.hasMore();
+                    if (page.oldestId() != null) {
+                        cursor = page.oldestId();
+                    }
+                }
+            } catch (RemoteException e) {
+                System.err.println("[MainChatController] Failed to load history around search result: " + e.getMessage());
+            }
+            Long newCursor = cursor;
+            boolean hasMore = more;
+            Platform.runLater(() -> {
+                if (!roomId.equals(currentRoomId)) {
+                    return;
+                }
+                prependMessages(older);
+                oldestLoadedMessageId = newCursor;
+                hasOlderMessages = hasMore;
+                loadingOlderMessages = false;
+                if (isMessageLoaded(targetMsg)) {
+                    Platform.runLater(() -> scrollToMessage(targetMsg));
+                } else {
+                    showInfo("Tin nhắn nằm quá xa trong lịch sử, hãy cuộn lên để xem thêm");
+                }
+            });
+        }, "HistoryPageLoader").start();
+    }
+    
+    private boolean isMessageLoaded(ChatMessage msg) {
+        for (javafx.scene.Node node : messagesContainer.getChildren()) {
+            if (node.getUserData() != null && node.getUserData().equals(msg.ts())) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
     /**
      * Scroll to a specific message in the chat.
      */
@@ -1153,6 +1267,8 @@ public class MainChatController {
     
     /**
      * Auto-refresh friend requests và friends list mỗi 3 giây.
+     * Khi chat server đẩy sự kiện (chatClient.receivesEvents()) thì danh sách được cập nhật qua onUserEvent,
+     * chỉ tải lại toàn bộ mỗi EVENTS_RECONCILE_MILLIS để cập nhật trạng thái online.
      */
     private void startAutoRefresh() {
         ScheduledService<Void> refreshService = new ScheduledService<Void>() {
@@ -1161,6 +1277,12 @@ public class MainChatController {
                 return new Task<Void>() {
                     @Override
                     protected Void call() throws Exception {
+                        long now = System.currentTimeMillis();
+                        if (chatClient != null && chatClient.receivesEvents()
+                                && now - lastFullRefresh < EVENTS_RECONCILE_MILLIS) {
+                            return null;
+                        }
+                        lastFullRefresh = now;
                         // Reload friends và requests
                         Platform.runLater(() -> {
                             loadFriends();
@@ -1180,6 +1302,174 @@ public class MainChatController {
         refreshService.start();
     }
     
+    /**
+     * Sự kiện bạn bè/hồ sơ server đẩy qua chat (ChatProtocol.EVENT), chạy trên FX thread.
+     * Chỉ cập nhật phần liên quan của danh sách thay vì tải lại toàn bộ.
+     */
+    private void onUserEvent(ChatMessage event) {
+        Long subjectId;
+        try {
+            subjectId = Long.parseLong(event.from());
+        } catch (NumberFormatException e) {
+            return;
+        }
+        System.out.println("[MainChatController] User event " + event.payloadRef() + " for user " + subjectId);
+        String kind = ChatProtocol.eventKind(event);
+        switch (kind) {
+            case ChatProtocol.EVENT_FRIEND_REQUEST,
+                 ChatProtocol.EVENT_FRIEND_REQUEST_CANCELLED,
+                 ChatProtocol.EVENT_FRIEND_REJECTED -> loadPendingRequests();
+            case ChatProtocol.EVENT_FRIEND_ACCEPTED -> {
+                pendingRequests.removeIf(u -> u.id().equals(subjectId));
+                upsertFriendContact(subjectId);
+                if (tabRequests.isSelected()) {
+                    showRequestsTab();
+                }
+            }
+            case ChatProtocol.EVENT_FRIEND_REMOVED ->
+                    friendsList.removeIf(item -> item.user != null && item.user.id().equals(subjectId));
+            case ChatProtocol.EVENT_PROFILE_CHANGED -> {
+                userCache.remove(subjectId);
+                loadUser(subjectId, updated -> {
+                    for (int i = 0; i < friendsList.size(); i++) {
+                        ContactItem item = friendsList.get(i);
+                        if (item.user != null && item.user.id().equals(subjectId)) {
+                            friendsList.set(i, new ContactItem(updated, item.lastMessage, item.conversation, item.online));
+                        }
+                    }
+                    pendingRequests.replaceAll(u -> u.id().equals(subjectId) ? updated : u);
+                });
+            }
+            case ChatProtocol.EVENT_CALL_INVITE,
+                 ChatProtocol.EVENT_CALL_ACCEPTED,
+                 ChatProtocol.EVENT_CALL_REJECTED,
+                 ChatProtocol.EVENT_CALL_ENDED -> onCallEvent(kind, subjectId, ChatProtocol.eventArgument(event));
+            default -> System.err.println("[MainChatController] Unknown user event: " + event.payloadRef());
+        }
+    }
+    
+    /** Sự kiện cuộc gọi (thay cho poll getPendingCalls mỗi giây), chạy trên FX thread */
+    private void onCallEvent(String kind, Long otherUserId, String sessionArg) {
+        Integer sessionId;
+        try {
+            sessionId = Integer.valueOf(sessionArg);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (ChatProtocol.EVENT_CALL_INVITE.equals(kind)) {
+            if (shownCallDialogs.add(sessionId)) {
+                activeCallDialogs.add(sessionId);
+                showIncomingCallDialog(new CallService.CallInfo(
+                        sessionId, otherUserId, Session.getUserId(), "PENDING", System.currentTimeMillis()));
+            }
+            return;
+        }
+        // Nhận ở client khác, bị huỷ hoặc kết thúc: đóng hộp thoại cuộc gọi đến nếu còn mở
+        javafx.scene.control.Alert alert = incomingCallAlerts.remove(sessionId);
+        if (alert != null) {
+            alert.setResult(javafx.scene.control.ButtonType.CLOSE);
+            alert.close();
+        }
+        shownCallDialogs.remove(sessionId);
+        activeCallDialogs.remove(sessionId);
+        for (VideoCallController controller : new java.util.ArrayList<>(openCallControllers)) {
+            controller.onCallEvent(kind, sessionId, otherUserId);
+        }
+    }
+    
+    /** Thêm (hoặc thay) 1 bạn trong danh sách mà không tải lại cả danh sách */
+    private void upsertFriendContact(Long friendId) {
+        Long userId = Session.getUserId();
+        Task<List<ContactItem>> task = new Task<>() {
+            @Override
+            protected List<ContactItem> call() throws Exception {
+                User friend = getCachedUser(friendId);
+                return friend == null ? List.of() : friendContacts(userId, List.of(friend));
+            }
+        };
+        task.setOnSucceeded(e -> {
+            if (task.getValue().isEmpty()) {
+                return;
+            }
+            ContactItem item = task.getValue().get(0);
+            userCache.put(item.user.id(), item.user);
+            for (int i = 0; i < friendsList.size(); i++) {
+                if (friendsList.get(i).user != null && friendsList.get(i).user.id().equals(friendId)) {
+                    friendsList.set(i, item);
+                    return;
+                }
+            }
+            friendsList.add(item);
+        });
+        task.setOnFailed(e -> System.err.println("[MainChatController] Cannot load contact of user " + friendId
+                + ": " + task.getException().getMessage()));
+        friendsLoader.execute(task);
+    }
+    
+    /** Lấy user (userCache hoặc RMI) trên friendsLoader, có kết quả thì gọi onLoaded trên FX thread */
+    private void loadUser(Long userId, java.util.function.Consumer<User> onLoaded) {
+        Task<User> task = new Task<>() {
+            @Override
+            protected User call() {
+                return getCachedUser(userId);
+            }
+        };
+        task.setOnSucceeded(e -> {
+            if (task.getValue() != null) {
+                onLoaded.accept(task.getValue());
+            }
+        });
+        friendsLoader.execute(task);
+    }
+    
+    /**
+     * ContactItem của các bạn: conversation 1-1, trạng thái online và tin nhắn cuối.
+     * Online và tin nhắn cuối của cả danh sách lấy bằng 2 lần gọi RMI (không gọi isOnline / getLastMessage
+     * từng bạn). Gọi RMI nên chỉ chạy trên thread nền (friendsLoader), không chạy trên FX thread.
+     */
+    private List<ContactItem> friendContacts(Long userId, List<User> friends) throws RemoteException {
+        List<Long> friendIds = new java.util.ArrayList<>(friends.size());
+        List<String> conversationIds = new java.util.ArrayList<>(friends.size());
+        Conversation[] conversations = new Conversation[friends.size()];
+        for (int i = 0; i < friends.size(); i++) {
+            Long friendId = friends.get(i).id();
+            friendIds.add(friendId);
+            conversations[i] = directConversation(userId, friendId);
+            if (conversations[i] != null) {
+                conversationIds.add(conversations[i].id().toString());
+            }
+        }
+        Set<Long> online = friendIds.isEmpty() ? Set.of() : clientService.getOnlineUserIds(friendIds);
+        Map<String, ChatMessage> lastMessages = conversationIds.isEmpty()
+                ? Map.of() : clientService.getLastMessages(conversationIds);
+        
+        List<ContactItem> items = new java.util.ArrayList<>(friends.size());
+        for (int i = 0; i < friends.size(); i++) {
+            User friend = withMigratedAvatar(friends.get(i));
+            Conversation conv = conversations[i];
+            ChatMessage lastMsg = conv != null ? lastMessages.get(conv.id().toString()) : null;
+            String lastMsgText = lastMsg != null ? lastMsg.text() : null;
+            items.add(new ContactItem(friend, lastMsgText, conv, online.contains(friend.id())));
+        }
+        return items;
+    }
+    
+    /** Conversation 1-1 với 1 bạn, chỉ gọi getOrCreateDirectConversation lần đầu */
+    private Conversation directConversation(Long userId, Long friendId) {
+        Conversation conv = directConversations.get(friendId);
+        if (conv == null) {
+            try {
+                conv = clientService.getOrCreateDirectConversation(userId, friendId);
+                if (conv != null) {
+                    directConversations.put(friendId, conv);
+                }
+            } catch (Exception e) {
+                // Ignore errors when getting conversation
+            }
+        }
+        return conv;
+    }
+    
     /**
      * Kiểm tra incoming calls định kỳ mỗi 1 giây.
      */
@@ -1190,6 +1480,12 @@ public class MainChatController {
                 return new Task<Void>() {
                     @Override
                     protected Void call() throws Exception {
+                        long now = System.currentTimeMillis();
+                        if (chatClient != null && chatClient.receivesEvents()
+                                && now - lastCallCheck < CALL_RECONCILE_MILLIS) {
+                            return null; // cuộc gọi đến được đẩy qua onCallEvent
+                        }
+                        lastCallCheck = now;
                         checkIncomingCalls();
                         return null;
                     }
@@ -1419,89 +1715,141 @@ public class MainChatController {
         });
         
         lstContacts.getSelectionModel().selectedItemProperty().addListener((obs, oldVal, newVal) -> {
-            if (newVal != null) {
-                openChat(newVal);
+            if (newVal == null) {
+                return;
+            }
+            if (currentChat != null && newVal.sameContact(currentChat)) {
+                // Dòng đang mở chỉ được cập nhật nội dung (patchFriendsList), không mở lại chat
+                currentChat = newVal;
+                return;
             }
+            openChat(newVal);
         });
     }
     
+    /**
+     * Tải danh sách bạn trên friendsLoader rồi chỉ cập nhật các dòng thay đổi (patchFriendsList) trên FX thread,
+     * không dựng lại cả ListView. Gọi lại khi 1 lần tải còn chờ trong hàng thì bỏ qua (lần đó lấy dữ liệu mới nhất).
+     */
     private void loadFriends() {
-        try {
-            Long userId = Session.getUserId();
-            List<User> friends = clientService.getFriends(userId);
-            friendsList.clear();
-            for (User friend : friends) {
-                // Thử migrate avatar của bạn bè nếu là file path và file tồn tại
-                User friendToUse = friend;
-                String friendAvatarPath = friend.avatarPath();
-                if (friendAvatarPath != null && !friendAvatarPath.isBlank() && 
-                    !friendAvatarPath.startsWith("http://") && !friendAvatarPath.startsWith("https://")) {
-                    // Avatar là file path, thử migrate (chạy background)
-                    File avatarFile = getAvatarFile(friendAvatarPath);
-                    if (avatarFile != null && avatarFile.exists()) {
-                        // File tồn tại, thử migrate (chạy background, không chặn UI)
-                        javafx.concurrent.Task<User> migrateTask = new javafx.concurrent.Task<User>() {
-                            @Override
-                            protected User call() throws Exception {
-                                try {
-                                    org.example.demo2.service.FileTransferService.FileUploadResult result = 
-                                        fileTransferService.uploadFile(avatarFile, friend.id(), null);
-                                    String avatarUrl = result.getDownloadUrl();
-                                    // Cập nhật avatar URL vào database (cần quyền admin hoặc friend tự update)
-                                    // Tạm thời chỉ update trong userCache để hiển thị
-                                    User updated = new User(friend.id(), friend.username(), friend.displayName(), avatarUrl);
-                                    Platform.runLater(() -> {
-                                        userCache.put(updated.id(), updated);
-                                        // Refresh UI nếu đang hiển thị friend này
-                                        javafx.application.Platform.runLater(() -> {
-                                            loadFriends(); // Refresh để cập nhật avatar
-                                        });
-                                    });
-                                    System.out.println("[MainChatController] Migrated friend avatar: " + friend.displayName() + " -> " + avatarUrl);
-                                    return updated;
-                                } catch (Exception e) {
-                                    System.err.println("[MainChatController] Failed to migrate friend avatar: " + e.getMessage());
-                                    return friend;
-                                }
-                            }
-                        };
-                        new Thread(migrateTask).start();
-                    }
+        if (!friendsLoadQueued.compareAndSet(false, true)) {
+            return;
+        }
+        Long userId = Session.getUserId();
+        Task<List<ContactItem>> task = new Task<>() {
+            @Override
+            protected List<ContactItem> call() throws Exception {
+                friendsLoadQueued.set(false);
+                return friendContacts(userId, clientService.getFriends(userId));
+            }
+        };
+        task.setOnSucceeded(e -> {
+            List<ContactItem> items = task.getValue();
+            for (ContactItem item : items) {
+                userCache.put(item.user.id(), item.user);
+            }
+            patchFriendsList(items);
+        });
+        task.setOnFailed(e -> showError("Lỗi tải danh sách bạn bè: " + task.getException().getMessage()));
+        friendsLoader.execute(task);
+    }
+    
+    /**
+     * Cập nhật friendsList theo danh sách mới, khoá theo user id: xoá dòng không còn, chèn dòng mới,
+     * chỉ set lại dòng có nội dung khác; dòng không đổi giữ nguyên object nên cell không bị vẽ lại.
+     */
+    private void patchFriendsList(List<ContactItem> fresh) {
+        Set<Long> freshIds = new HashSet<>();
+        for (ContactItem item : fresh) {
+            freshIds.add(item.user.id());
+        }
+        friendsList.removeIf(item -> item.user == null || !freshIds.contains(item.user.id()));
+        for (int i = 0; i < fresh.size(); i++) {
+            ContactItem item = fresh.get(i);
+            if (i < friendsList.size() && friendsList.get(i).user.id().equals(item.user.id())) {
+                if (!friendsList.get(i).sameContent(item)) {
+                    friendsList.set(i, item);
                 }
-                
-                userCache.put(friendToUse.id(), friendToUse);
-                boolean online = isUserOnline(friendToUse.id());
-                // Lấy conversation và tin nhắn cuối cùng
-                Conversation conv = null;
-                ChatMessage lastMsg = null;
+                continue;
+            }
+            // Dòng đã có ở vị trí sau (thứ tự đổi) thì chuyển lên, chưa có thì chèn
+            for (int j = i + 1; j < friendsList.size(); j++) {
+                if (friendsList.get(j).user.id().equals(item.user.id())) {
+                    friendsList.remove(j);
+                    break;
+                }
+            }
+            friendsList.add(i, item);
+        }
+    }
+    
+    /**
+     * Avatar của bạn là đường dẫn file cục bộ: dùng URL đã migrate nếu có, chưa có thì xếp việc migrate
+     * (upload lên file server) vào avatarMigrationExecutor, mỗi file 1 lần.
+     */
+    private User withMigratedAvatar(User friend) {
+        String friendAvatarPath = friend.avatarPath();
+        if (friendAvatarPath == null || friendAvatarPath.isBlank() ||
+            friendAvatarPath.startsWith("http://") || friendAvatarPath.startsWith("https://")) {
+            return friend;
+        }
+        String migratedUrl = migratedAvatarUrls.get(friendAvatarPath);
+        if (migratedUrl != null) {
+            return new User(friend.id(), friend.username(), friend.displayName(), migratedUrl);
+        }
+        File avatarFile = getAvatarFile(friendAvatarPath);
+        if (avatarFile != null && avatarFile.exists() && avatarMigrations.add(friendAvatarPath)) {
+            // File tồn tại, thử migrate (chạy background, không chặn UI)
+            avatarMigrationExecutor.execute(() -> {
                 try {
-                    conv = clientService.getOrCreateDirectConversation(userId, friendToUse.id());
-                    if (conv != null) {
-                        lastMsg = clientService.getLastMessage(conv.id().toString());
-                    }
+                    org.example.demo2.service.FileTransferService.FileUploadResult result = 
+                        fileTransferService.uploadFile(avatarFile, friend.id(), null);
+                    String avatarUrl = result.getDownloadUrl();
+                    // Cập nhật avatar URL vào database (cần quyền admin hoặc friend tự update)
+                    // Tạm thời chỉ giữ ở client (migratedAvatarUrls, userCache) để hiển thị
+                    migratedAvatarUrls.put(friendAvatarPath, avatarUrl);
+                    User updated = new User(friend.id(), friend.username(), friend.displayName(), avatarUrl);
+                    Platform.runLater(() -> {
+                        userCache.put(updated.id(), updated);
+                        // Chỉ cập nhật dòng của friend này
+                        for (int i = 0; i < friendsList.size(); i++) {
+                            ContactItem item = friendsList.get(i);
+                            if (item.user != null && item.user.id().equals(updated.id())) {
+                                friendsList.set(i, new ContactItem(updated, item.lastMessage, item.conversation, item.online));
+                            }
+                        }
+                    });
+                    System.out.println("[MainChatController] Migrated friend avatar: " + friend.displayName() + " -> " + avatarUrl);
                 } catch (Exception e) {
-                    // Ignore errors when getting conversation
+                    avatarMigrations.remove(friendAvatarPath); // lần tải danh sách sau thử lại
+                    System.err.println("[MainChatController] Failed to migrate friend avatar: " + e.getMessage());
                 }
-                
-                String lastMsgText = lastMsg != null ? lastMsg.text() : null;
-                friendsList.add(new ContactItem(friendToUse, lastMsgText, conv, online));
-            }
-        } catch (RemoteException e) {
-            showError("Lỗi tải danh sách bạn bè: " + e.getMessage());
+            });
         }
+        return friend;
     }
     
+    /** Tải lời mời kết bạn trên friendsLoader, cập nhật pendingRequests (và tab Requests nếu đang mở) trên FX thread */
     private void loadPendingRequests() {
-        try {
-            Long userId = Session.getUserId();
-            List<User> requests = clientService.getPendingFriendRequests(userId);
-            for (User u : requests) {
-                userCache.put(u.id(), u);
+        Long userId = Session.getUserId();
+        Task<List<User>> task = new Task<>() {
+            @Override
+            protected List<User> call() throws Exception {
+                List<User> requests = clientService.getPendingFriendRequests(userId);
+                for (User u : requests) {
+                    userCache.put(u.id(), u);
+                }
+                return requests;
             }
-            pendingRequests.setAll(requests);
-        } catch (RemoteException e) {
-            showError("Lỗi tải lời mời: " + e.getMessage());
-        }
+        };
+        task.setOnSucceeded(e -> {
+            pendingRequests.setAll(task.getValue());
+            if (tabRequests != null && tabRequests.isSelected()) {
+                showRequestsTab();
+            }
+        });
+        task.setOnFailed(e -> showError("Lỗi tải lời mời: " + task.getException().getMessage()));
+        friendsLoader.execute(task);
     }
     
     private void loadGroups() {
@@ -1607,9 +1955,13 @@ public class MainChatController {
     
     private void loadMessageHistory(String roomId) {
         try {
-            List<ChatMessage> messages = clientService.getMessageHistory(roomId, 50);
+            MessagePage page = clientService.getMessagesBefore(roomId, null, HISTORY_PAGE_SIZE);
+            prefetchUsers(page.messages());
             messagesContainer.getChildren().clear();
-            for (ChatMessage msg : messages) {
+            oldestLoadedMessageId = page.oldestId();
+            hasOlderMessages = page.hasMore();
+            loadingOlderMessages = false;
+            for (ChatMessage msg : page.messages()) {
                 addMessageToUI(msg);
             }
             scrollToBottom();
@@ -1618,11 +1970,82 @@ public class MainChatController {
         }
     }
     
+    /**
+     * Tải trang tin cũ hơn khi người dùng cuộn lên đầu, chèn lên trên và giữ nguyên vị trí đang xem.
+     */
+    private void loadOlderMessages() {
+        if (loadingOlderMessages || !hasOlderMessages || currentRoomId == null || oldestLoadedMessageId == null) {
+            return;
+        }
+        loadingOlderMessages = true;
+        String roomId = currentRoomId;
+        Long before = oldestLoadedMessageId;
+        new Thread(() -> {
+            try {
+                MessagePage page = clientService.getMessagesBefore(roomId, before, HISTORY_PAGE_SIZE);
+                prefetchUsers(page.messages());
+                Platform.runLater(() -> {
+                    if (!roomId.equals(currentRoomId)) {
+                        return; // đã chuyển sang cuộc trò chuyện khác, loadMessageHistory đã reset trạng thái
+                    }
+                    prependMessages(page.messages());
+                    oldestLoadedMessageId = page.oldestId() != null ? page.oldestId() : before;
+                    hasOlderMessages = page.hasMore();
+                    loadingOlderMessages = false;
+                });
+            } catch (RemoteException e) {
+                System.err.println("[MainChatController] Failed to load older messages: " + e.getMessage());
+                Platform.runLater(() -> {
+                    if (roomId.equals(currentRoomId)) {
+                        loadingOlderMessages = false;
+                    }
+                });
+            }
+        }, "HistoryPageLoader").start();
+    }
+    
+    private void prependMessages(List<ChatMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        ObservableList<javafx.scene.Node> children = messagesContainer.getChildren();
+        double oldHeight = messagesContainer.getHeight();
+        
+        // addMessageToUI luôn thêm vào cuối: dựng node ở cuối rồi chuyển cả khối lên đầu
+        int start = children.size();
+        for (ChatMessage msg : messages) {
+            addMessageToUI(msg);
+        }
+        List<javafx.scene.Node> added = new java.util.ArrayList<>(children.subList(start, children.size()));
+        children.remove(start, children.size());
+        children.addAll(0, added);
+        
+        // Giữ tin đang ở đầu khung nhìn đứng yên: dịch vvalue theo phần chiều cao vừa thêm
+        scrollMessages.layout();
+        double newHeight = messagesContainer.getHeight();
+        double viewport = scrollMessages.getViewportBounds().getHeight();
+        if (newHeight > viewport) {
+            scrollMessages.setVvalue((newHeight - oldHeight) / (newHeight - viewport));
+        }
+    }
+    
     private void connectChat() {
         try {
             System.out.println("[MainChatController] Connecting to chat server: " + CHAT_HOST + ":" + CHAT_PORT);
             chatClient = new ChatClient(CHAT_HOST, CHAT_PORT, this::onIncomingMessage);
             chatClient.connect();
+            // Server lưu tin thất bại (NACK) -> tự lưu lại qua RMI như trước
+            chatClient.setOnPersistFailed(msg -> new Thread(() -> {
+                try {
+                    // msg giữ clientMsgId: server đã kịp lưu thì saveMessage không tạo bản trùng
+                    clientService.saveMessage(msg);
+                } catch (Exception e) {
+                    System.err.println("[MainChatController] Failed to save message after NACK: " + e.getMessage());
+                }
+            }).start());
+            // Sự kiện bạn bè/hồ sơ server đẩy (thay cho poll 3 giây)
+            chatClient.setOnEvent(event -> Platform.runLater(() -> onUserEvent(event)));
+            chatClient.identify(String.valueOf(Session.getUserId()));
             System.out.println("[MainChatController] Chat client connected successfully");
         } catch (IOException e) {
             System.err.println("[MainChatController] Failed to connect chat: " + e.getMessage());
@@ -1688,17 +2111,19 @@ public class MainChatController {
             
             // Gửi qua TCP
             System.out.println("[MainChatController] Sending via TCP...");
-            chatClient.send(msg);
+            boolean savedByServer = chatClient.send(msg);
             System.out.println("[MainChatController] Message sent via TCP successfully");
             
-            // Lưu vào database
-            try {
-                System.out.println("[MainChatController] Saving to database...");
-                clientService.saveMessage(msg);
-                System.out.println("[MainChatController] Message saved to database");
-            } catch (Exception e) {
-                System.err.println("[MainChatController] Failed to save message: " + e.getMessage());
-                e.printStackTrace();
+            // Lưu vào database (chat server đã nhận lưu thì không cần gọi RMI)
+            if (!savedByServer) {
+                try {
+                    System.out.println("[MainChatController] Saving to database...");
+                    clientService.saveMessage(msg);
+                    System.out.println("[MainChatController] Message saved to database");
+                } catch (Exception e) {
+                    System.err.println("[MainChatController] Failed to save message: " + e.getMessage());
+                    e.printStackTrace();
+                }
             }
             
             txtMessage.clear();
@@ -1859,17 +2284,8 @@ public class MainChatController {
         
         // Name label (chỉ hiển thị nếu không phải tin nhắn của mình)
         if (!isOwnMessage) {
-            // msg.from() giờ luôn là user ID (String), lấy display name từ service
-            String senderDisplayName = msg.from(); // Fallback: dùng ID nếu không lấy được display name
-            try {
-                Long userId = Long.parseLong(msg.from());
-                senderDisplayName = clientService.getUserDisplayName(userId);
-            } catch (NumberFormatException e) {
-                // Không phải số, có thể là "System" hoặc display name cũ, dùng trực tiếp
-            } catch (RemoteException e) {
-                // Lỗi khi lấy display name, dùng ID làm fallback
-                System.err.println("Could not get display name for user ID: " + msg.from() + ", using ID instead. Error: " + e.getMessage());
-            }
+            // msg.from() giờ luôn là user ID (String), lấy display name từ userCache (đã prefetch theo trang)
+            String senderDisplayName = senderDisplayName(msg.from());
             
             Label nameLabel = new Label(senderDisplayName);
             nameLabel.setStyle("-fx-text-fill: #94a3b8; -fx-font-size: 11px; -fx-font-weight: 600; -fx-padding: 0 0 2px 12px;");
@@ -2029,6 +2445,8 @@ public class MainChatController {
             
             VideoCallController controller = loader.getController();
             controller.setClientService(clientService);
+            controller.setPushAvailable(() -> chatClient != null && chatClient.receivesEvents());
+            openCallControllers.add(controller);
             
             javafx.stage.Stage callStage = new javafx.stage.Stage();
             callStage.setTitle("Video Call - " + otherUserName);
@@ -2038,6 +2456,8 @@ public class MainChatController {
                 controller.handleLeaveCall();
             });
             
+            callStage.setOnHidden(e -> openCallControllers.remove(controller));
+            
             // Set stage vào controller để có thể đóng cửa sổ
             controller.setCallStage(callStage);
             
@@ -2122,7 +2542,9 @@ public class MainChatController {
             javafx.scene.control.ButtonType rejectButton = new javafx.scene.control.ButtonType("Từ chối");
             alert.getButtonTypes().setAll(acceptButton, rejectButton);
             
+            incomingCallAlerts.put(callInfo.sessionId, alert);
             alert.showAndWait().ifPresent(buttonType -> {
+                incomingCallAlerts.remove(callInfo.sessionId);
                 // Xóa khỏi active dialogs
                 activeCallDialogs.remove(callInfo.sessionId);
                 
@@ -2680,9 +3102,10 @@ public class MainChatController {
                     
                     // Gửi qua TCP
                     try {
-                        chatClient.send(msg);
-                        // Lưu vào database
-                        clientService.saveMessage(msg);
+                        // Lưu vào database nếu chat server không nhận lưu
+                        if (!chatClient.send(msg)) {
+                            clientService.saveMessage(msg);
+                        }
                         System.out.println("[MainChatController] File message sent: " + result.getFilename());
                     } catch (Exception e) {
                         showError("Lỗi gửi file: " + e.getMessage());
@@ -2755,11 +3178,7 @@ public class MainChatController {
         
         // Sender name (nếu không phải tin nhắn của mình)
         if (!isOwnMessage) {
-            String senderName = msg.from();
-            try {
-                Long userId = Long.parseLong(msg.from());
-                senderName = clientService.getUserDisplayName(userId);
-            } catch (Exception ignored) {}
+            String senderName = senderDisplayName(msg.from());
             
             Label nameLabel = new Label(senderName);
             nameLabel.setStyle("-fx-text-fill: #94a3b8; -fx-font-size: 11px; -fx-font-weight: 600; -fx-padding: 0 0 2px 12px;");
@@ -2779,7 +3198,11 @@ public class MainChatController {
             try {
                 String imageUrl = "http://" + org.example.demo2.config.ServerConfig.SERVER_HOST + ":" + 
                                  org.example.demo2.config.ServerConfig.FILE_SERVER_PORT + "/files/" + fileId;
-                javafx.scene.image.Image image = new javafx.scene.image.Image(imageUrl, 280, 280, true, true, true);
+                Image image = imageCache.get(imageUrl);
+                if (image == null || image.isError()) {
+                    image = new Image(imageUrl, 280, 280, true, true, true);
+                    imageCache.put(imageUrl, image);
+                }
                 javafx.scene.image.ImageView imageView = new javafx.scene.image.ImageView(image);
                 imageView.setFitWidth(280);
                 imageView.setPreserveRatio(true);
@@ -3330,6 +3753,57 @@ public class MainChatController {
         }
     }
 
+    /**
+     * Nạp vào userCache tất cả người gửi chưa biết của 1 trang tin nhắn bằng 1 lần gọi getUsers,
+     * thay vì mỗi tin 1 lần gọi RMI khi render. Có thể gọi từ thread nền.
+     */
+    private void prefetchUsers(java.util.Collection<ChatMessage> messages) {
+        if (clientService == null || messages.isEmpty()) {
+            return;
+        }
+        Set<Long> missing = new HashSet<>();
+        for (ChatMessage msg : messages) {
+            try {
+                Long userId = Long.parseLong(msg.from());
+                if (!userCache.containsKey(userId)) {
+                    missing.add(userId);
+                }
+            } catch (NumberFormatException ignored) {
+                // "System" hoặc tên cũ, không phải user ID
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        try {
+            for (User user : clientService.getUsers(new java.util.ArrayList<>(missing))) {
+                userCache.put(user.id(), user);
+            }
+        } catch (RemoteException e) {
+            System.err.println("[MainChatController] Could not prefetch " + missing.size() + " users: " + e.getMessage());
+        }
+    }
+    
+    /** Tên hiển thị của người gửi (msg.from() là user ID); không phải ID hoặc không tìm thấy thì dùng nguyên from */
+    private String senderDisplayName(String from) {
+        try {
+            User user = getCachedUser(Long.parseLong(from));
+            if (user != null && user.displayName() != null) {
+                return user.displayName();
+            }
+        } catch (NumberFormatException ignored) {
+            // Không phải số, có thể là "System" hoặc display name cũ, dùng trực tiếp
+        }
+        return from;
+    }
+    
+    /** Dung lượng ước lượng của ảnh đã decode (4 byte/pixel); ảnh đang tải thì dùng kích thước yêu cầu */
+    private static long imageWeight(Image image) {
+        double width = image.getWidth() > 0 ? image.getWidth() : image.getRequestedWidth();
+        double height = image.getHeight() > 0 ? image.getHeight() : image.getRequestedHeight();
+        return (long) (width * height * 4);
+    }
+    
     private User getCachedUser(Long userId) {
         if (userId == null) {
             return null;
@@ -3386,6 +3860,25 @@ public class MainChatController {
             this.conversation = conversation;
             this.online = online;
         }
+        
+        /** Cùng 1 bạn / 1 nhóm (có thể khác nội dung) */
+        boolean sameContact(ContactItem other) {
+            if (user != null || other.user != null) {
+                return user != null && other.user != null && user.id().equals(other.user.id());
+            }
+            return conversation != null && other.conversation != null
+                    && conversation.id().equals(other.conversation.id());
+        }
+        
+        /** Nội dung hiển thị giống nhau, không cần vẽ lại cell */
+        boolean sameContent(ContactItem other) {
+            return Objects.equals(user, other.user)
+                    && Objects.equals(name, other.name)
+                    && Objects.equals(lastMessage, other.lastMessage)
+                    && Objects.equals(conversation != null ? conversation.id() : null,
+                                      other.conversation != null ? other.conversation.id() : null)
+                    && Objects.equals(online, other.online);
+        }
     }
 }
 
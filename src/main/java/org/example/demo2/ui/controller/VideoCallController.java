@@ -20,6 +20,7 @@ import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import org.example.demo2.Session;
 import org.example.demo2.client.AegisTalkClientService;
+import org.example.demo2.net.chat.ChatProtocol;
 import org.example.demo2.net.udp.VideoStreamClient;
 import org.example.demo2.service.rmi.CallService;
 
@@ -86,12 +87,27 @@ public class VideoCallController {
     private Thread audioReceiveThread;
     private AudioFormat audioFormat;
     private volatile boolean audioRunning = false;
+    // 20ms audio = 640 bytes ở 16kHz, 16-bit, mono
+    private static final int AUDIO_FRAME_BYTES = 640;
+    private static final int AUDIO_FRAME_MILLIS = 20;
+    // Sequence riêng cho audio (sequence trong header UDP dùng chung với các mảnh video)
+    private int audioSequence = 0;
+    private volatile org.example.demo2.net.udp.AudioJitterBuffer jitterBuffer;
     
     // Call duration timer
     private long callStartTime = 0;
     private Thread callDurationThread;
     private volatile boolean callDurationRunning = false;
     
+    // Trạng thái cuộc gọi: sự kiện đẩy (onCallEvent) đánh thức vòng kiểm tra ngay,
+    // poll getCallInfo mỗi giây chỉ khi không có sự kiện đẩy
+    private static final long CALL_STATUS_POLL_MILLIS = 1_000;
+    private static final long CALL_STATUS_PUSH_FALLBACK_MILLIS = 15_000;
+    private final java.util.concurrent.Semaphore callStatusChanged = new java.util.concurrent.Semaphore(0);
+    // Cuộc gọi đang được đóng (mình rời hoặc bên kia kết thúc): chỉ 1 luồng dừng streaming và đóng cửa sổ
+    private final java.util.concurrent.atomic.AtomicBoolean callClosing = new java.util.concurrent.atomic.AtomicBoolean();
+    private java.util.function.BooleanSupplier pushAvailable = () -> false;
+    
     // Callback để đóng video call window
     private Runnable onCloseCallback;
     private Stage callStage;
@@ -108,6 +124,32 @@ public class VideoCallController {
         this.callStage = stage;
     }
     
+    /** Cho biết client có đang nhận sự kiện cuộc gọi đẩy từ server không (giãn poll trạng thái) */
+    public void setPushAvailable(java.util.function.BooleanSupplier pushAvailable) {
+        this.pushAvailable = pushAvailable;
+    }
+    
+    /**
+     * Sự kiện cuộc gọi từ server (ChatProtocol.EVENT_CALL_*), gọi từ MainChatController.
+     * Người gọi: đánh thức vòng kiểm tra trạng thái. Người nhận: kết thúc khi bên kia cúp máy.
+     *
+     * @param subjectUserId người gây ra sự kiện; server đẩy CALL_ENDED cho cả người vừa cúp máy,
+     *                      sự kiện do chính mình gây ra thì bỏ qua (handleLeaveCall đã tự đóng)
+     */
+    public void onCallEvent(String kind, Integer sessionId, Long subjectUserId) {
+        if (sessionId == null || !sessionId.equals(currentCallSessionId)) {
+            return;
+        }
+        if (subjectUserId != null && subjectUserId.equals(Session.getUserId())) {
+            return;
+        }
+        if (isCaller) {
+            callStatusChanged.release();
+        } else if (ChatProtocol.EVENT_CALL_ENDED.equals(kind) && isInCall && !callClosing.get()) {
+            new Thread(this::onRemoteCallEnded, "Call-Ended").start();
+        }
+    }
+    
     /**
      * Khởi tạo cuộc gọi (caller).
      */
@@ -321,6 +363,8 @@ public class VideoCallController {
             return;
         }
         
+        // Đánh dấu trước khi gọi endCall để sự kiện/poll "ENDED" quay về không đóng cửa sổ lần nữa
+        callClosing.set(true);
         new Thread(() -> {
             try {
                 Long userId = Session.getUserId();
@@ -504,15 +548,19 @@ public class VideoCallController {
                         frameData[0] == 'A' && frameData[1] == 'U' && 
                         frameData[2] == 'D' && frameData[3] == 'I' && 
                         frameData[4] == 'O' && frameData[5] == ':') {
-                        // Audio packet - phát qua speakers
-                        byte[] audioData = new byte[frameData.length - 6];
-                        System.arraycopy(frameData, 6, audioData, 0, audioData.length);
+                        // Audio packet: "AUDIO:" + audioSeq(4) + PCM, đưa vào jitter buffer rồi mới ra speakers
+                        if (frameData.length < 10) {
+                            return;
+                        }
+                        int audioSeq = java.nio.ByteBuffer.wrap(frameData, 6, 4).getInt();
+                        byte[] audioData = new byte[frameData.length - 10];
+                        System.arraycopy(frameData, 10, audioData, 0, audioData.length);
                         audioReceivedCount[0]++;
                         // Log đầu tiên để confirm có nhận được audio
                         if (audioReceivedCount[0] == 1) {
                             System.out.println("[VideoCallController] ✓ First AUDIO packet received! Audio streaming is working.");
                         }
-                        playRemoteAudio(audioData);
+                        playRemoteAudio(audioSeq, audioData);
                     } else {
                         // Video packet
                         videoReceivedCount[0]++;
@@ -1374,7 +1422,7 @@ public class VideoCallController {
                 System.out.println("[VideoCallController] ✓ Microphone ready");
                 
                 // Buffer cho audio data (20ms của audio = 640 bytes ở 16kHz, 16-bit, mono)
-                byte[] buffer = new byte[640];
+                byte[] buffer = new byte[AUDIO_FRAME_BYTES];
                 int packetCount = 0;
                 
                 // Lấy reference local để tránh null pointer khi mic bị close giữa chừng
@@ -1394,15 +1442,17 @@ public class VideoCallController {
                             }
                         }
                         
-                        // Thêm prefix "AUDIO:" để server/client phân biệt với video
-                        byte[] audioPacket = new byte[bytesRead + 6];
+                        // Thêm prefix "AUDIO:" để server/client phân biệt với video, sau đó là sequence audio
+                        // để bên nhận sắp lại thứ tự và phát hiện mất gói
+                        byte[] audioPacket = new byte[bytesRead + 10];
                         audioPacket[0] = 'A';
                         audioPacket[1] = 'U';
                         audioPacket[2] = 'D';
                         audioPacket[3] = 'I';
                         audioPacket[4] = 'O';
                         audioPacket[5] = ':';
-                        System.arraycopy(buffer, 0, audioPacket, 6, bytesRead);
+                        java.nio.ByteBuffer.wrap(audioPacket, 6, 4).putInt(audioSequence++);
+                        System.arraycopy(buffer, 0, audioPacket, 10, bytesRead);
                         
                         // Gửi qua cùng UDP channel với video
                         videoStreamClient.sendFrame(audioPacket);
@@ -1484,9 +1534,13 @@ public class VideoCallController {
     
     /**
      * Phát audio nhận được từ remote.
-     * Audio packets được nhận qua video stream callback và xử lý riêng.
+     * Audio packets được nhận qua video stream callback, đưa vào jitter buffer; thread này lấy ra
+     * từng frame 20ms theo đúng thứ tự và ghi vào speakers (write() chặn nên chạy đúng nhịp phát).
      */
     private void startAudioPlayback() {
+        org.example.demo2.net.udp.AudioJitterBuffer buffer =
+                new org.example.demo2.net.udp.AudioJitterBuffer(AUDIO_FRAME_BYTES, AUDIO_FRAME_MILLIS);
+        jitterBuffer = buffer;
         audioReceiveThread = new Thread(() -> {
             try {
                 DataLine.Info speakerInfo = new DataLine.Info(SourceDataLine.class, audioFormat);
@@ -1496,14 +1550,23 @@ public class VideoCallController {
                 }
                 
                 speakers = (SourceDataLine) AudioSystem.getLine(speakerInfo);
-                speakers.open(audioFormat);
+                // Buffer của line nhỏ (4 frame) để độ trễ do jitter buffer quyết định
+                speakers.open(audioFormat, AUDIO_FRAME_BYTES * 4);
                 speakers.start();
                 
                 System.out.println("[VideoCallController] ✓ Speakers ready for audio");
                 
-                // Keep thread alive để speakers không bị đóng
-                while (audioRunning) {
-                    Thread.sleep(100);
+                SourceDataLine line = speakers;
+                while (audioRunning && line.isOpen()) {
+                    byte[] frame = buffer.take(100);
+                    if (frame != null) {
+                        line.write(frame, 0, frame.length);
+                        audioPlayCount++;
+                        // Chỉ log lần đầu để confirm đang phát audio
+                        if (audioPlayCount == 1) {
+                            System.out.println("[VideoCallController] ✓ First audio packet played to speakers!");
+                        }
+                    }
                 }
             } catch (LineUnavailableException e) {
                 // Ignore
@@ -1527,20 +1590,13 @@ public class VideoCallController {
     
     /**
      * Xử lý audio data nhận được từ remote (được gọi từ video receive callback).
+     * Không ghi thẳng ra speakers: gói đến lệch thứ tự/dồn cục trên Wi-Fi, jitter buffer sắp lại rồi mới phát.
      */
     private int audioPlayCount = 0;
-    private void playRemoteAudio(byte[] audioData) {
-        if (speakers != null && speakers.isOpen() && audioData != null && audioData.length > 0) {
-            try {
-                speakers.write(audioData, 0, audioData.length);
-                audioPlayCount++;
-                // Chỉ log lần đầu để confirm đang phát audio
-                if (audioPlayCount == 1) {
-                    System.out.println("[VideoCallController] ✓ First audio packet played to speakers!");
-                }
-            } catch (Exception e) {
-                // Ignore
-            }
+    private void playRemoteAudio(int audioSeq, byte[] audioData) {
+        org.example.demo2.net.udp.AudioJitterBuffer buffer = jitterBuffer;
+        if (buffer != null && audioData != null && audioData.length > 0) {
+            buffer.offer(audioSeq, audioData);
         }
     }
     
@@ -1561,6 +1617,11 @@ public class VideoCallController {
             microphone = null;
         }
         
+        if (jitterBuffer != null) {
+            System.out.println("[VideoCallController] Audio jitter buffer: " + jitterBuffer);
+            jitterBuffer = null;
+        }
+        
         // Dừng speakers
         if (speakers != null) {
             try {
@@ -1587,9 +1648,10 @@ public class VideoCallController {
     
     private void stopVideoStreaming() {
         isInCall = false;
-        if (videoStreamClient != null) {
-            videoStreamClient.stop();
-            videoStreamClient = null;
+        VideoStreamClient client = videoStreamClient;
+        videoStreamClient = null;
+        if (client != null) {
+            client.stop();
         }
         
         // Dừng audio streaming
@@ -1629,7 +1691,11 @@ public class VideoCallController {
             
             while (currentCallSessionId != null) {
                 try {
-                    Thread.sleep(1000); // Poll mỗi giây
+                    // Chờ sự kiện đẩy; không có sự kiện thì poll như cũ
+                    callStatusChanged.tryAcquire(pushAvailable.getAsBoolean()
+                            ? CALL_STATUS_PUSH_FALLBACK_MILLIS : CALL_STATUS_POLL_MILLIS,
+                            TimeUnit.MILLISECONDS);
+                    callStatusChanged.drainPermits();
                     
                     CallService.CallInfo callInfo = clientService.getCallInfo(currentCallSessionId);
                     if (callInfo == null) {
@@ -1683,26 +1749,7 @@ public class VideoCallController {
                         }
                         // Tiếp tục polling để theo dõi trạng thái
                     } else if ("ENDED".equals(callInfo.status)) {
-                        // Dừng streaming và timer trước khi đóng
-                        stopCallDurationTimer();
-                        stopVideoStreaming();
-                        
-                        Platform.runLater(() -> {
-                            lblCallStatus.setText("Cuộc gọi đã kết thúc");
-                            // Delay một chút để user thấy thông báo
-                            new Thread(() -> {
-                                try {
-                                    Thread.sleep(1500);
-                                } catch (InterruptedException e) {
-                                    // Ignore
-                                }
-                                Platform.runLater(() -> {
-                                    if (onCloseCallback != null) {
-                                        onCloseCallback.run();
-                                    }
-                                });
-                            }).start();
-                        });
+                        onRemoteCallEnded();
                         break;
                     }
                 } catch (Exception e) {
@@ -1712,6 +1759,29 @@ public class VideoCallController {
         }, "Call-Status-Polling").start();
     }
     
+    /** Bên kia đã kết thúc cuộc gọi: dừng streaming, báo cho user rồi đóng cửa sổ */
+    private void onRemoteCallEnded() {
+        if (!callClosing.compareAndSet(false, true)) {
+            return; // mình đang rời cuộc gọi hoặc đã xử lý rồi
+        }
+        // Dừng streaming và timer trước khi đóng
+        stopCallDurationTimer();
+        stopVideoStreaming();
+        
+        Platform.runLater(() -> {
+            lblCallStatus.setText("Cuộc gọi đã kết thúc");
+            // Delay một chút để user thấy thông báo
+            new Thread(() -> {
+                try {
+                    Thread.sleep(1500);
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+                Platform.runLater(this::closeCallWindow);
+            }).start();
+        });
+    }
+    
     @FXML
     private void handleBackToChat() {
         // Kết thúc cuộc gọi nếu đang trong cuộc gọi